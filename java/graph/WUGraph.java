@@ -3,6 +3,7 @@
 package graph;
 
 import hash.HashMap;
+import hash.Map;
 
 /**
  * The WUGraph class represents a weighted, undirected graph.  Self-edges are
@@ -11,7 +12,7 @@ import hash.HashMap;
 
 public class WUGraph {
 
-	private HashMap<Object,Vertex> vertices;
+	private Map<Object,Vertex> vertices;
 	private int edges;
 	private int counter;
 
@@ -59,10 +60,10 @@ public class WUGraph {
 	  Object[] output = new Object[vertices.size()];
 	  
 	  counter = 0;
-	  for (Object key: vertices.keys()) {
-		  output[counter] = vertices.get(key).vertex;
+	  vertices.forEach((key, theVertex) -> {
+		  output[counter] = theVertex.vertex;
 		  counter++;
-	  }
+	  });
 	  
 	  return output;
   }
@@ -150,12 +151,11 @@ public class WUGraph {
 		  neighbors.weightList = new int[theVertex.neighbors.size()];
 		  
 		  counter = 0;
-		  for (Object key: theVertex.neighbors.keys()) {
-			  Neighbor neighbor = theVertex.neighbors.get(key);
+		  theVertex.neighbors.forEach((key, neighbor) -> {
 			  neighbors.neighborList[counter] = neighbor.vertex.vertex;
 			  neighbors.weightList[counter] = neighbor.weight;
 			  counter++;
-		  }
+		  });
 		  
 		  return neighbors;
 	  }
@@ -256,7 +256,7 @@ class Vertex {
 	static int count = 1;
 	
 	Object vertex;
-	HashMap<Object,Neighbor> neighbors;
+	Map<Object,Neighbor> neighbors;
 	
 	  /**
 	   * Vertex(Object vertex) constructs a vertex with no neighbors
@@ -0,0 +1,151 @@
+/* BlockedBloomFilter.java */
+
+package hash;
+
+/**
+ *  A BlockedBloomFilter is a set of hash codes that may report false
+ *  positives but never false negatives:  mightContain() returns true for
+ *  every hash code added, and for a small fraction of others.
+ *
+ *  The bits are divided into blocks of 512 bits (eight longs, one cache
+ *  line), and all k bits of a hash code are set in a single block chosen by
+ *  the hash code.  A query therefore touches one cache line, where an
+ *  ordinary Bloom filter touches up to k.  The price is a slightly higher
+ *  false-positive rate for the same number of bits.
+ *
+ *  Elements cannot be removed; to forget removed elements, clear() the
+ *  filter and add the remaining ones again.
+ **/
+
+public class BlockedBloomFilter {
+
+  private final static int blockBits = 512;
+  private final static int longsPerBlock = blockBits / 64;
+
+  private final long[] bits;
+  private final int blockCount;
+  private final int hashCount;
+  private final int capacity;
+  private int count;
+
+  /**
+   *  Construct an empty filter for up to capacity hash codes, using about
+   *  bitsPerEntry bits for each.  Ten bits per entry give a false-positive
+   *  rate of about 1%.
+   **/
+  public BlockedBloomFilter(int capacity, int bitsPerEntry) {
+    if (capacity < 0 || bitsPerEntry <= 0) {
+      throw new IllegalArgumentException("bad capacity or bitsPerEntry");
+    }
+    this.capacity = capacity;
+    long totalBits = Math.max((long) capacity * bitsPerEntry, blockBits);
+    blockCount = (int) Math.min((totalBits + blockBits - 1) / blockBits,
+                                Integer.MAX_VALUE / longsPerBlock);
+    bits = new long[blockCount * longsPerBlock];
+    hashCount = Math.max(1, Math.min(16, (int) Math.round(bitsPerEntry * Math.log(2))));
+  }
+
+  /**
+   *  mix() turns a 32-bit hash code into 64 well-mixed bits:  the high 32
+   *  choose the block, the low 32 the bits within it.
+   **/
+  private static long mix(int hash) {
+    long h = hash * 0x9E3779B97F4A7C15L;
+    h ^= h >>> 32;
+    h *= 0xbf58476d1ce4e5b9L;
+    return h ^ (h >>> 29);
+  }
+
+  private int blockOf(long h) {
+    return (int) (((h >>> 32) * blockCount) >>> 32) * longsPerBlock;
+  }
+
+  /**
+   *  add() adds hash to the filter.
+   *
+   *  Performance:  runs in O(k) time, touching one cache line.
+   **/
+  public void add(int hash) {
+    long h = mix(hash);
+    int block = blockOf(h);
+    int x = (int) h;
+    int step = Integer.rotateLeft(x, 16) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      int bit = x & (blockBits - 1);
+      bits[block + (bit >>> 6)] |= 1L << bit;
+      x += step;
+    }
+    count++;
+  }
+
+  /**
+   *  mightContain() returns false if hash was certainly never added, and
+   *  true if it probably was.
+   *
+   *  Performance:  runs in O(k) time, touching one cache line.
+   **/
+  public boolean mightContain(int hash) {
+    long h = mix(hash);
+    int block = blockOf(h);
+    int x = (int) h;
+    int step = Integer.rotateLeft(x, 16) | 1;
+    for (int i = 0; i < hashCount; i++) {
+      int bit = x & (blockBits - 1);
+      if ((bits[block + (bit >>> 6)] & (1L << bit)) == 0) {
+        return false;
+      }
+      x += step;
+    }
+    return true;
+  }
+
+  /**
+   *  clear() removes every hash code from the filter.
+   **/
+  public void clear() {
+    java.util.Arrays.fill(bits, 0);
+    count = 0;
+  }
+
+  /**
+   *  count() returns the number of add() calls since the filter was built or
+   *  cleared.
+   **/
+  public int count() {
+    return count;
+  }
+
+  /**
+   *  capacity() returns the number of hash codes the filter was sized for.
+   **/
+  public int capacity() {
+    return capacity;
+  }
+
+  /**
+   *  bytes() returns the size of the filter's bit array in bytes.
+   **/
+  long bytes() {
+    return 8L * bits.length;
+  }
+
+  /**
+   *  expectedFalsePositiveRate() returns the false-positive rate predicted
+   *  for the filter's current count.  The hash codes are spread over the
+   *  blocks unevenly, and a fuller block errs more often, so this averages
+   *  the rate of a small ordinary Bloom filter over the Poisson
+   *  distribution of block loads.
+   **/
+  public double expectedFalsePositiveRate() {
+    double mean = (double) count / blockCount;
+    int limit = (int) (mean + 10 * Math.sqrt(mean) + 10);
+    double p = Math.exp(-mean);
+    double rate = 0;
+    for (int j = 0; j <= limit; j++) {
+      rate += p * Math.pow(1 - Math.exp(-(double) hashCount * j / blockBits), hashCount);
+      p *= mean / (j + 1);
+    }
+    return rate;
+  }
+
+}
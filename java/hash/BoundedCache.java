@@ -0,0 +1,722 @@
+/* BoundedCache.java */
+
+package hash;
+
+import java.util.Random;
+
+import list.DList;
+import list.ImmutableList;
+import list.InvalidNodeException;
+import list.ListNode;
+
+/**
+ *  A BoundedCache is a map whose total weight never exceeds a fixed bound.
+ *  When a put() would push the weight over the bound, entries are evicted
+ *  according to the cache's Policy.  By default every entry weighs 1, so the
+ *  bound is a maximum number of entries; a Weigher may be supplied to bound
+ *  the cache by some other measure.
+ *
+ *  Entries are found through a HashMap from keys to cache nodes, and each
+ *  node sits in a DList that records its place in the eviction order.  A
+ *  node's list position is kept as a ListNode handle, so a hit moves the
+ *  node in O(1) time without searching the list.
+ *
+ *  get() counts hits and misses, and every entry removed to make room counts
+ *  as an eviction.  The cache is not thread-safe.
+ **/
+
+public class BoundedCache<K,V> extends Map<K,V> {
+
+  /**
+   *  The eviction policies.
+   *
+   *  LRU evicts the least recently used entry.
+   *
+   *  LFU evicts the least frequently used entry, oldest first among entries
+   *  used equally often.  Use counts never decay, so LFU suits workloads
+   *  whose popular keys do not change.
+   *
+   *  TINY_LFU is a W-TinyLFU-style policy.  New entries enter a small LRU
+   *  window (1% of the bound).  An entry leaving the window is admitted to
+   *  the main space only if a FrequencySketch says it has been requested
+   *  more often than the entry it would displace.  The main space is a
+   *  segmented LRU:  entries hit a second time move from a probation
+   *  segment to a protected segment (80% of the main space), and evictions
+   *  are taken from probation.  One-off requests and scans therefore cannot
+   *  flush the popular entries out of the cache.
+   **/
+  public enum Policy { LRU, LFU, TINY_LFU }
+
+  /**
+   *  A Node holds one cached entry.  handle is the node's position in the
+   *  list named by queue (or, under LFU, in the list for its frequency).
+   **/
+  private static class Node<K,V> {
+    final K key;
+    V value;
+    int weight;
+    int frequency;
+    int queue;
+    ListNode<Node<K,V>> handle;
+
+    Node(K key, V value, int weight) {
+      this.key = key;
+      this.value = value;
+      this.weight = weight;
+    }
+  }
+
+  private final static int WINDOW = 0;
+  private final static int PROBATION = 1;
+  private final static int PROTECTED = 2;
+
+  private final Policy policy;
+  private final long maxWeight;
+  private final Weigher<? super K, ? super V> weigher;
+  private final HashMap<K,Node<K,V>> index = new HashMap<K,Node<K,V>>();
+  private long weight;
+
+  /*  LRU keeps every node in window, least recently used at the front.
+   *  TINY_LFU uses window, probation and protected, each in LRU order, and
+   *  tracks the weight of the window and protected segments.
+   */
+  private DList<Node<K,V>> window = new DList<Node<K,V>>();
+  private DList<Node<K,V>> probation = new DList<Node<K,V>>();
+  private DList<Node<K,V>> protectedQueue = new DList<Node<K,V>>();
+  private long windowWeight;
+  private long protectedWeight;
+  private final long windowMax;
+  private final long protectedMax;
+  private final FrequencySketch sketch;
+
+  /*  LFU keeps one list per use count, oldest first; minFrequency is the
+   *  smallest count that has a list, or 0 if it must be recomputed.
+   */
+  private final IntObjectHashMap<DList<Node<K,V>>> frequencies =
+    new IntObjectHashMap<DList<Node<K,V>>>();
+  private int minFrequency;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   *  Construct an empty cache that holds at most maxSize entries.
+   **/
+  public BoundedCache(long maxSize, Policy policy) {
+    this(maxSize, policy, null);
+  }
+
+  /**
+   *  Construct an empty cache whose entries, weighed by weigher, weigh at
+   *  most maxWeight in total.  If weigher is null, every entry weighs 1.
+   **/
+  public BoundedCache(long maxWeight, Policy policy,
+                      Weigher<? super K, ? super V> weigher) {
+    if (maxWeight <= 0) {
+      throw new IllegalArgumentException("maxWeight must be positive");
+    }
+    if (policy == null) {
+      throw new IllegalArgumentException("policy must not be null");
+    }
+    this.maxWeight = maxWeight;
+    this.policy = policy;
+    this.weigher = weigher;
+    if (policy == Policy.TINY_LFU) {
+      windowMax = Math.max(1, maxWeight / 100);
+      protectedMax = (maxWeight - windowMax) * 8 / 10;
+      sketch = new FrequencySketch(maxWeight);
+    } else {
+      windowMax = maxWeight;
+      protectedMax = 0;
+      sketch = null;
+    }
+  }
+
+  /**
+   *  policy() returns the cache's eviction policy.
+   **/
+  public Policy policy() {
+    return policy;
+  }
+
+  /**
+   *  maxWeight() returns the bound on the cache's total weight.
+   **/
+  public long maxWeight() {
+    return maxWeight;
+  }
+
+  /**
+   *  weight() returns the total weight of the cached entries.
+   **/
+  public long weight() {
+    return weight;
+  }
+
+  /**
+   *  hitCount() returns the number of get() calls that found their key.
+   **/
+  public long hitCount() {
+    return hits;
+  }
+
+  /**
+   *  missCount() returns the number of get() calls that did not find their
+   *  key.
+   **/
+  public long missCount() {
+    return misses;
+  }
+
+  /**
+   *  evictionCount() returns the number of entries evicted (or refused
+   *  admission) to keep the cache within its bound.  Entries removed by
+   *  remove() or clear() are not counted.
+   **/
+  public long evictionCount() {
+    return evictions;
+  }
+
+  /**
+   *  hitRate() returns the fraction of get() calls that were hits, or 1 if
+   *  get() has not been called.
+   **/
+  public double hitRate() {
+    long requests = hits + misses;
+    return requests == 0 ? 1.0 : (double) hits / requests;
+  }
+
+  /**
+   *  resetStats() sets the hit, miss and eviction counts to zero.
+   **/
+  public void resetStats() {
+    hits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+
+  private int weigh(K key, V value) {
+    if (weigher == null) {
+      return 1;
+    }
+    int w = weigher.weigh(key, value);
+    if (w < 0) {
+      throw new IllegalArgumentException("negative weight " + w);
+    }
+    return w;
+  }
+
+  /**
+   *  get() returns the value cached for key, or null if there is none, and
+   *  records the request with the eviction policy.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public V get(K key) {
+    if (sketch != null) {
+      sketch.increment(key.hashCode());
+    }
+    Node<K,V> node = index.get(key);
+    if (node == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    touch(node);
+    return node.value;
+  }
+
+  /**
+   *  put() caches value for key, evicting entries if the cache grows past
+   *  its bound.  An entry that weighs more than the bound by itself is not
+   *  kept.  A put() of a cached key counts as a use of that key.
+   *
+   *  @return the value previously cached for key, or null.
+   *
+   *  Performance:  runs in O(1) expected time, plus O(1) per eviction.
+   **/
+  public V put(K key, V value) {
+    int w = weigh(key, value);
+    if (sketch != null) {
+      sketch.increment(key.hashCode());
+    }
+    Node<K,V> node = index.get(key);
+    if (w > maxWeight) {
+      V old = node == null ? null : remove(key);
+      evictions++;
+      return old;
+    }
+    if (node != null) {
+      V old = node.value;
+      node.value = value;
+      weight += w - node.weight;
+      if (node.queue == WINDOW) {
+        windowWeight += w - node.weight;
+      } else if (node.queue == PROTECTED) {
+        protectedWeight += w - node.weight;
+      }
+      node.weight = w;
+      touch(node);
+      evict();
+      return old;
+    }
+    node = new Node<K,V>(key, value, w);
+    if (policy != Policy.TINY_LFU) {
+      while (weight + w > maxWeight && size > 0) {
+        evictNode(policy == Policy.LRU ? first(window) : leastFrequent());
+      }
+    }
+    index.put(key, node);
+    size++;
+    weight += w;
+    if (policy == Policy.LFU) {
+      node.frequency = 1;
+      minFrequency = 1;
+      link(node, frequencyList(1), WINDOW);
+    } else {
+      link(node, window, WINDOW);
+      windowWeight += w;
+      evict();
+    }
+    return null;
+  }
+
+  /**
+   *  remove() removes the entry for key, if any.
+   *
+   *  @return the value that was cached for key, or null.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public V remove(K key) {
+    Node<K,V> node = index.remove(key);
+    if (node == null) {
+      return null;
+    }
+    unlink(node);
+    size--;
+    weight -= node.weight;
+    return node.value;
+  }
+
+  /**
+   *  keys() returns a list of the cached keys, in the order they were first
+   *  put.
+   *
+   *  Performance:  runs in O(n) time.
+   **/
+  public ImmutableList<K> keys() {
+    return index.keys();
+  }
+
+  /**
+   *  forEach() calls action once for each cached entry, in the order the
+   *  keys were first put.  Unlike get(), it does not count as a use of the
+   *  entries or change the hit and miss counts.
+   *
+   *  Performance:  runs in O(n) time.
+   **/
+  public void forEach(java.util.function.BiConsumer<? super K, ? super V> action) {
+    index.forEach((key, node) -> action.accept(key, node.value));
+  }
+
+  /**
+   *  clear() removes every entry.  The statistics and, under TINY_LFU, the
+   *  frequency history are kept.
+   **/
+  public void clear() {
+    index.clear();
+    window = new DList<Node<K,V>>();
+    probation = new DList<Node<K,V>>();
+    protectedQueue = new DList<Node<K,V>>();
+    frequencies.clear();
+    minFrequency = 0;
+    size = 0;
+    weight = 0;
+    windowWeight = 0;
+    protectedWeight = 0;
+  }
+
+  /**
+   *  countCollisions() returns the number of collisions in the key index.
+   **/
+  public int countCollisions() {
+    return index.countCollisions();
+  }
+
+  /**
+   *  touch() records a use of a cached node.
+   **/
+  private void touch(Node<K,V> node) {
+    try {
+      if (policy == Policy.LFU) {
+        DList<Node<K,V>> list = frequencies.get(node.frequency);
+        node.handle.remove();
+        if (list.isEmpty()) {
+          frequencies.remove(node.frequency);
+          if (minFrequency == node.frequency) {
+            minFrequency++;
+          }
+        }
+        node.frequency++;
+        link(node, frequencyList(node.frequency), WINDOW);
+      } else if (node.queue == WINDOW) {
+        window.moveToBack(node.handle);
+      } else if (node.queue == PROTECTED) {
+        protectedQueue.moveToBack(node.handle);
+        demote();
+      } else {
+        node.handle.remove();
+        link(node, protectedQueue, PROTECTED);
+        protectedWeight += node.weight;
+        demote();
+      }
+    } catch (InvalidNodeException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   *  demote() moves the least recently used protected nodes to probation
+   *  until the protected segment is within its share of the bound, or
+   *  holds a single node.  It is called after a node is promoted, and after
+   *  a put() changes the weight of a protected node.
+   **/
+  private void demote() throws InvalidNodeException {
+    while (protectedWeight > protectedMax && protectedQueue.length() > 1) {
+      Node<K,V> demoted = first(protectedQueue);
+      demoted.handle.remove();
+      protectedWeight -= demoted.weight;
+      link(demoted, probation, PROBATION);
+    }
+  }
+
+  /**
+   *  evict() evicts entries until the cache is within its bound.  Under
+   *  TINY_LFU, entries that overflow the window first compete for admission
+   *  to the main space.
+   **/
+  private void evict() {
+    if (policy == Policy.TINY_LFU) {
+      while (windowWeight > windowMax) {
+        Node<K,V> candidate = first(window);
+        unlink(candidate);
+        link(candidate, probation, PROBATION);
+        if (weight <= maxWeight) {
+          continue;
+        }
+        Node<K,V> victim = first(probation);
+        if (victim == candidate) {
+          victim = first(protectedQueue);
+        }
+        if (victim != null) {
+          if (sketch.frequency(candidate.key.hashCode()) >
+              sketch.frequency(victim.key.hashCode())) {
+            evictNode(victim);
+          } else {
+            evictNode(candidate);
+          }
+        }
+      }
+      while (weight > maxWeight) {
+        Node<K,V> victim = first(probation);
+        if (victim == null) {
+          victim = first(protectedQueue);
+        }
+        if (victim == null) {
+          victim = first(window);
+        }
+        evictNode(victim);
+      }
+    } else {
+      while (weight > maxWeight) {
+        evictNode(policy == Policy.LRU ? first(window) : leastFrequent());
+      }
+    }
+  }
+
+  private void evictNode(Node<K,V> node) {
+    index.remove(node.key);
+    unlink(node);
+    size--;
+    weight -= node.weight;
+    evictions++;
+  }
+
+  /**
+   *  link() appends node to list and records the list's queue in node.
+   **/
+  private void link(Node<K,V> node, DList<Node<K,V>> list, int queue) {
+    list.insertBack(node);
+    node.handle = list.back();
+    node.queue = queue;
+  }
+
+  /**
+   *  unlink() removes node from its list, leaving it in the index.
+   **/
+  private void unlink(Node<K,V> node) {
+    try {
+      node.handle.remove();
+    } catch (InvalidNodeException e) {
+      e.printStackTrace();
+    }
+    if (policy == Policy.LFU) {
+      DList<Node<K,V>> list = frequencies.get(node.frequency);
+      if (list.isEmpty()) {
+        frequencies.remove(node.frequency);
+        if (minFrequency == node.frequency) {
+          minFrequency = 0;
+        }
+      }
+    } else if (node.queue == WINDOW) {
+      windowWeight -= node.weight;
+    } else if (node.queue == PROTECTED) {
+      protectedWeight -= node.weight;
+    }
+  }
+
+  private DList<Node<K,V>> frequencyList(int frequency) {
+    DList<Node<K,V>> list = frequencies.get(frequency);
+    if (list == null) {
+      list = new DList<Node<K,V>>();
+      frequencies.put(frequency, list);
+    }
+    return list;
+  }
+
+  /**
+   *  leastFrequent() returns the LFU victim:  the oldest node among those
+   *  with the smallest use count.
+   **/
+  private Node<K,V> leastFrequent() {
+    if (minFrequency == 0) {
+      minFrequency = findMinFrequency();
+    }
+    return first(frequencies.get(minFrequency));
+  }
+
+  /**
+   *  findMinFrequency() returns the smallest use count that has a list, or
+   *  0 if there is none.
+   *
+   *  Performance:  runs in O(f) time, where f is the number of distinct use
+   *  counts.
+   **/
+  private int findMinFrequency() {
+    int output = 0;
+    for (int f : frequencies.keys()) {
+      if (output == 0 || f < output) {
+        output = f;
+      }
+    }
+    return output;
+  }
+
+  /**
+   *  first() returns the node at the front of list, or null if list is
+   *  null or empty.
+   **/
+  private static <K,V> Node<K,V> first(DList<Node<K,V>> list) {
+    if (list == null || list.isEmpty()) {
+      return null;
+    }
+    try {
+      return list.front().item();
+    } catch (InvalidNodeException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+
+  private static void expect(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  /**
+   *  checkInvariants() throws an exception unless the cache is within its
+   *  bound and its bookkeeping agrees with its lists:  every node in a list
+   *  is the index's node for its key (so an evicted entry cannot linger in
+   *  a list), the lists hold size nodes whose weights add up to weight, and
+   *  under LFU each list holds the nodes of its use count and minFrequency
+   *  is the smallest count or 0.  Under TINY_LFU, each node's queue names
+   *  its list, windowWeight and protectedWeight are the weights of those
+   *  segments, and the window and protected segments are within their
+   *  shares of the bound (except that protected may hold one entry that
+   *  is heavier than its share).
+   **/
+  private void checkInvariants() {
+    expect(weight <= maxWeight, policy + ": weight " + weight + " > " + maxWeight);
+    expect(index.size() == size, policy + ": index holds " + index.size() + " of " + size);
+    long total = 0;
+    int count = 0;
+    if (policy == Policy.LFU) {
+      int min = 0;
+      for (int f : frequencies.keys()) {
+        DList<Node<K,V>> list = frequencies.get(f);
+        expect(!list.isEmpty(), policy + ": empty list for use count " + f);
+        for (Node<K,V> node : list) {
+          expect(node.frequency == f, policy + ": node with count " + node.frequency +
+                 " in list " + f);
+          expect(index.get(node.key) == node, policy + ": stray node for " + node.key);
+          total += node.weight;
+          count++;
+        }
+        min = min == 0 ? f : Math.min(min, f);
+      }
+      expect(minFrequency == 0 || minFrequency == min,
+             policy + ": minFrequency " + minFrequency + " != " + min);
+    } else {
+      long[] queueWeights = new long[3];
+      DList<?>[] queues = { window, probation, protectedQueue };
+      for (int queue = WINDOW; queue <= PROTECTED; queue++) {
+        @SuppressWarnings("unchecked")
+        DList<Node<K,V>> list = (DList<Node<K,V>>) queues[queue];
+        for (Node<K,V> node : list) {
+          expect(node.queue == queue, policy + ": node in the wrong queue");
+          expect(index.get(node.key) == node, policy + ": stray node for " + node.key);
+          queueWeights[queue] += node.weight;
+          total += node.weight;
+          count++;
+        }
+      }
+      expect(queueWeights[WINDOW] == windowWeight, policy + ": windowWeight is wrong");
+      expect(queueWeights[PROTECTED] == protectedWeight, policy + ": protectedWeight is wrong");
+      if (policy == Policy.TINY_LFU) {
+        expect(windowWeight <= windowMax, policy + ": window weighs " + windowWeight +
+               " > " + windowMax);
+        expect(protectedWeight <= protectedMax || protectedQueue.length() == 1,
+               policy + ": protected weighs " + protectedWeight + " > " + protectedMax);
+      } else {
+        expect(probation.isEmpty() && protectedQueue.isEmpty(), policy + ": segments in use");
+      }
+    }
+    expect(count == size, policy + ": lists hold " + count + " nodes of " + size);
+    expect(total == weight, policy + ": weights add up to " + total + ", not " + weight);
+  }
+
+  /**
+   *  checkModel() runs random get()s, put()s, remove()s and clear()s on a
+   *  cache of each policy, with unit weights and with weights of 1 to 5
+   *  (which change when a key is put again), and checks the invariants after every operation (see
+   *  checkInvariants()).  It also checks that each get() hit returns the
+   *  last value put, that each put() counts exactly the entries that left
+   *  the cache as evictions, that clear() resets minFrequency, and, under
+   *  LFU with unit weights, that a put() into a full cache evicts the
+   *  oldest of the least used entries.
+   **/
+  private static void checkModel() {
+    for (Policy policy : Policy.values()) {
+      for (int weighted = 0; weighted < 2; weighted++) {
+        String context = policy + (weighted == 0 ? "" : ", weighted");
+        BoundedCache<Integer,Integer> cache = new BoundedCache<Integer,Integer>(
+          100, policy, weighted == 0 ? null : (k, v) -> 1 + (k + v) % 5);
+        java.util.Map<Integer,Integer> model = new java.util.HashMap<Integer,Integer>();
+        // Under LFU, each key's use count and the operation that set it.
+        java.util.Map<Integer,long[]> uses = new java.util.HashMap<Integer,long[]>();
+        Random random = new Random(policy.ordinal() * 2 + weighted);
+        for (int op = 1; op <= 200000; op++) {
+          int key = (int) Math.floor(Math.pow(500, random.nextDouble()));
+          int action = random.nextInt(100);
+          if (action < 60) {
+            Integer value = cache.get(key);
+            expect(java.util.Objects.equals(value, model.get(key)),
+                   context + ": get(" + key + ") is wrong");
+            if (value != null) {
+              uses.put(key, new long[] { uses.get(key)[0] + 1, op });
+            }
+          } else if (action < 95) {
+            java.util.Set<Integer> before = new java.util.HashSet<Integer>(model.keySet());
+            before.add(key);
+            Integer victim = null;
+            if (policy == Policy.LFU && weighted == 0 && !model.containsKey(key) &&
+                cache.size() == cache.maxWeight()) {
+              for (java.util.Map.Entry<Integer,long[]> entry : uses.entrySet()) {
+                long[] u = entry.getValue();
+                long[] v = victim == null ? null : uses.get(victim);
+                if (v == null || u[0] < v[0] || (u[0] == v[0] && u[1] < v[1])) {
+                  victim = entry.getKey();
+                }
+              }
+            }
+            long evictions = cache.evictionCount();
+            expect(java.util.Objects.equals(cache.put(key, op), model.put(key, op)),
+                   context + ": put(" + key + ") is wrong");
+            long[] u = uses.get(key);
+            uses.put(key, new long[] { u == null ? 1 : u[0] + 1, op });
+            java.util.Set<Integer> after = new java.util.HashSet<Integer>();
+            for (Integer k : cache.keys()) {
+              after.add(k);
+            }
+            before.removeAll(after);
+            expect(cache.evictionCount() - evictions == before.size(),
+                   context + ": " + before.size() + " entries left but " +
+                   (cache.evictionCount() - evictions) + " evictions were counted");
+            expect(victim == null || before.equals(java.util.Collections.singleton(victim)),
+                   context + ": evicted " + before + " instead of " + victim);
+            for (Integer k : before) {
+              expect(cache.index.get(k) == null, context + ": evicted " + k + " is still cached");
+              model.remove(k);
+              uses.remove(k);
+            }
+          } else if (action < 99) {
+            expect(java.util.Objects.equals(cache.remove(key), model.remove(key)),
+                   context + ": remove(" + key + ") is wrong");
+            uses.remove(key);
+          } else if (random.nextInt(100) == 0) {
+            cache.clear();
+            model.clear();
+            uses.clear();
+            expect(cache.minFrequency == 0, context + ": clear() kept minFrequency");
+          }
+          cache.checkInvariants();
+          expect(cache.size() == model.size(), context + ": size " + cache.size() +
+                 " != " + model.size());
+        }
+      }
+    }
+    System.out.println("LRU, LFU and TINY_LFU stay within their bounds and agree with " +
+                       "the model");
+  }
+
+  /**
+   *  Checks the policies' invariants (see checkModel()), then compares their
+   *  hit rates on a skewed (Zipf-like) workload that is interrupted by long
+   *  scans of keys seen only once.
+   */
+  public static void main(String[] argv) {
+    checkModel();
+    int capacity = 1000;
+    int requests = 1000000;
+    int[] trace = new int[requests];
+    Random random = new Random(17);
+    int scanKey = 1 << 30;
+    for (int i = 0; i < requests; i++) {
+      if ((i / 50000) % 4 == 3) {
+        trace[i] = scanKey++;
+      } else {
+        trace[i] = (int) Math.floor(Math.pow(100000, random.nextDouble())) -
+          (((i / 200000) & 1) == 0 ? 0 : 5000);
+      }
+    }
+    for (Policy policy : Policy.values()) {
+      BoundedCache<Integer,Integer> cache =
+        new BoundedCache<Integer,Integer>(capacity, policy);
+      long start = System.nanoTime();
+      for (int key : trace) {
+        if (cache.get(key) == null) {
+          cache.put(key, key);
+        }
+      }
+      long elapsed = System.nanoTime() - start;
+      System.out.printf("%-8s hit rate %.3f, %d evictions, %d ms%n", policy,
+                        cache.hitRate(), cache.evictionCount(),
+                        elapsed / 1000000);
+    }
+  }
+
+}
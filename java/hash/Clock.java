@@ -0,0 +1,24 @@
+/* Clock.java */
+
+package hash;
+
+/**
+ *  A Clock tells an ExpiringMap what time it is.  Tests can supply a Clock
+ *  that they advance by hand, so that entries expire exactly when the test
+ *  says.
+ **/
+
+public interface Clock {
+
+  /**
+   *  SYSTEM reads System.nanoTime().
+   **/
+  Clock SYSTEM = System::nanoTime;
+
+  /**
+   *  nanoTime() returns the current time in nanoseconds, measured from an
+   *  arbitrary origin.  Successive calls must never return smaller values.
+   **/
+  long nanoTime();
+
+}
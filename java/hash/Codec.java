@@ -0,0 +1,60 @@
+/* Codec.java */
+
+package hash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ *  A Codec converts keys or values to and from bytes, so that a HashMap can
+ *  be written to a snapshot file and read back by MappedHashMap.
+ *
+ *  Two keys must encode to the same bytes if and only if they are equal,
+ *  since a MappedHashMap compares keys by their encodings.  A Codec is
+ *  never given null:  snapshots mark null values themselves.
+ **/
+
+public interface Codec<T> {
+
+  /**
+   *  encode() returns the bytes that represent item, which is not null.
+   **/
+  byte[] encode(T item);
+
+  /**
+   *  decode() rebuilds an item from the length bytes of buffer that start
+   *  at offset.  It must not change the buffer's position or limit.
+   **/
+  T decode(ByteBuffer buffer, int offset, int length);
+
+  /**
+   *  STRING encodes Strings as UTF-8.
+   **/
+  Codec<String> STRING = new Codec<String>() {
+    public byte[] encode(String item) {
+      return item.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public String decode(ByteBuffer buffer, int offset, int length) {
+      byte[] bytes = new byte[length];
+      buffer.get(offset, bytes);
+      return new String(bytes, StandardCharsets.UTF_8);
+    }
+  };
+
+  /**
+   *  INTEGER encodes Integers as four big-endian bytes.
+   **/
+  Codec<Integer> INTEGER = new Codec<Integer>() {
+    public byte[] encode(Integer item) {
+      int i = item.intValue();
+      return new byte[] { (byte) (i >>> 24), (byte) (i >>> 16),
+                          (byte) (i >>> 8), (byte) i };
+    }
+
+    public Integer decode(ByteBuffer buffer, int offset, int length) {
+      return buffer.getInt(offset);
+    }
+  };
+
+}
@@ -0,0 +1,653 @@
+/* ConcurrentHashMap.java */
+
+package hash;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import list.ImmutableList;
+
+/**
+ *  ConcurrentHashMap is a thread-safe hash map with chaining.
+ *
+ *  Writers lock a single stripe of buckets:  bucket i is guarded by lock
+ *  i mod (number of stripes), so writers to different stripes never wait
+ *  for each other.  Readers take no lock at all.  Chains are published
+ *  through an AtomicReferenceArray and every node's next and value fields
+ *  are volatile, so a reader always sees either the old or the new state of
+ *  a chain, never a half-built one.
+ *
+ *  Resizing is cooperative.  The thread that crosses the load factor
+ *  allocates a table twice as large; after that, every writer that runs
+ *  into a bucket that has already moved (or that itself crosses the load
+ *  factor) claims a chunk of old buckets and moves them before retrying.
+ *  Each moved bucket is replaced by a forwarding node that sends readers
+ *  and writers to the new table, so the map never stops the world.
+ *
+ *  Since the table length is always a multiple of the number of stripes,
+ *  old bucket i and its two new buckets i and i + oldLength share a lock.
+ *
+ *  All objects used as keys must have a valid hashCode() method; null keys
+ *  are not allowed.
+ **/
+
+public class ConcurrentHashMap<K,V> extends Map<K,V> {
+
+  /**
+   *  A Node is one entry of a bucket's chain.  Only writers holding the
+   *  bucket's lock change value or next.
+   **/
+  static class Node<K,V> {
+    final int hash;
+    final K key;
+    volatile V value;
+    volatile Node<K,V> next;
+
+    Node(int hash, K key, V value, Node<K,V> next) {
+      this.hash = hash;
+      this.key = key;
+      this.value = value;
+      this.next = next;
+    }
+  }
+
+  /**
+   *  A ForwardingNode replaces a bucket that has been moved by a resize.
+   **/
+  static class ForwardingNode<K,V> extends Node<K,V> {
+    final Resize<K,V> resize;
+
+    ForwardingNode(Resize<K,V> resize) {
+      super(0, null, null, null);
+      this.resize = resize;
+    }
+  }
+
+  /**
+   *  A Resize records one table doubling.  Buckets of table are handed out
+   *  to helpers in chunks, from the top down, through transferIndex;
+   *  binsDone counts the buckets that have been moved.
+   **/
+  static class Resize<K,V> {
+    final AtomicReferenceArray<Node<K,V>> table;
+    final AtomicReferenceArray<Node<K,V>> nextTable;
+    final AtomicInteger transferIndex;
+    final AtomicInteger binsDone = new AtomicInteger();
+
+    Resize(AtomicReferenceArray<Node<K,V>> table) {
+      this.table = table;
+      this.nextTable = new AtomicReferenceArray<Node<K,V>>(table.length() * 2);
+      this.transferIndex = new AtomicInteger(table.length());
+    }
+  }
+
+  private volatile AtomicReferenceArray<Node<K,V>> table;
+  private volatile Resize<K,V> resize;
+  private final Object resizeLock = new Object();
+  private final Object[] stripes;
+  private final LongAdder count = new LongAdder();
+  private final double loadFactor;
+  private final static double defaultLoadFactor = .75;
+  private final static int defaultSize = 64;
+  private final static int maxSize = 1 << 30;
+  private final static int transferChunk = 16;
+
+  /**
+   *  Construct a new empty map with a default size, load factor and number
+   *  of stripes.
+   **/
+  public ConcurrentHashMap() {
+    this(defaultSize);
+  }
+
+  /**
+   *  Construct a new empty map intended to hold roughly sizeEstimate
+   *  entries.
+   **/
+  public ConcurrentHashMap(int sizeEstimate) {
+    this(sizeEstimate, defaultLoadFactor,
+         4 * Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   *  Construct a new empty map intended to hold roughly sizeEstimate
+   *  entries with a load factor of loadFactor, whose buckets are guarded by
+   *  roughly stripeCount locks (rounded up to a power of two).
+   **/
+  public ConcurrentHashMap(int sizeEstimate, double loadFactor,
+                           int stripeCount) {
+    if (loadFactor <= 0) {
+      throw new IllegalArgumentException("loadFactor must be positive");
+    }
+    this.loadFactor = loadFactor;
+    int s = 1;
+    while (s < stripeCount && s < (1 << 16)) {
+      s <<= 1;
+    }
+    stripes = new Object[s];
+    for (int i = 0; i < s; i++) {
+      stripes[i] = new Object();
+    }
+    int n = s;
+    while (n < sizeEstimate / loadFactor && n < maxSize) {
+      n <<= 1;
+    }
+    table = new AtomicReferenceArray<Node<K,V>>(n);
+  }
+
+  /**
+   *  lockFor() returns the lock guarding bucket i.
+   **/
+  private Object lockFor(int i) {
+    return stripes[i & (stripes.length - 1)];
+  }
+
+  /**
+   *  size() returns the number of entries in the map.  While other threads
+   *  are writing, the result is only an estimate.
+   **/
+  public int size() {
+    long n = count.sum();
+    return n < 0 ? 0 : n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) n;
+  }
+
+  /**
+   *  isEmpty() returns true if size() is 0.
+   **/
+  public boolean isEmpty() {
+    return count.sum() <= 0;
+  }
+
+  /**
+   *  Search for an entry with the specified key, without taking any lock.
+   *
+   *  @param key the search key.
+   *  @return the value associated with key, or null if no entry contains
+   *          the specified key.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public V get(K key) {
+    int h = HashMap.spread(key.hashCode());
+    AtomicReferenceArray<Node<K,V>> tab = table;
+    while (true) {
+      Node<K,V> e = tab.get(h & (tab.length() - 1));
+      if (e instanceof ForwardingNode) {
+        tab = ((ForwardingNode<K,V>) e).resize.nextTable;
+        continue;
+      }
+      for (; e != null; e = e.next) {
+        if (e.hash == h && (e.key == key || key.equals(e.key))) {
+          return e.value;
+        }
+      }
+      return null;
+    }
+  }
+
+  /**
+   *  If key is already in map, updates the value associated with the key to
+   *  input parameter value. Otherwise, adds an entry to map with key and value.
+   *  Locks only the stripe that holds key's bucket.
+   *
+   *  @param key the key by which the entry can be retrieved.
+   *  @param value an arbitrary object.
+   *  @return the previous value.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public V put(K key, V value) {
+    int h = HashMap.spread(key.hashCode());
+    AtomicReferenceArray<Node<K,V>> tab = table;
+    while (true) {
+      int i = h & (tab.length() - 1);
+      Resize<K,V> moved = null;
+      synchronized (lockFor(i)) {
+        Node<K,V> first = tab.get(i);
+        if (first instanceof ForwardingNode) {
+          moved = ((ForwardingNode<K,V>) first).resize;
+        } else {
+          for (Node<K,V> e = first; e != null; e = e.next) {
+            if (e.hash == h && (e.key == key || key.equals(e.key))) {
+              V oldValue = e.value;
+              e.value = value;
+              return oldValue;
+            }
+          }
+          tab.set(i, new Node<K,V>(h, key, value, first));
+        }
+      }
+      if (moved != null) {
+        helpTransfer(moved);
+        tab = moved.nextTable;
+        continue;
+      }
+      count.increment();
+      Resize<K,V> r = resize;
+      if (r != null) {
+        helpTransfer(r);
+      } else if (count.sum() > tab.length() * loadFactor) {
+        startResize(tab);
+      }
+      return null;
+    }
+  }
+
+  /**
+   *  Remove the entry with the specified key.  Locks only the stripe that
+   *  holds key's bucket.
+   *
+   *  @param key the search key.
+   *  @return value associated with the specified key, or null if no entry
+   *          contains the specified key.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public V remove(K key) {
+    int h = HashMap.spread(key.hashCode());
+    AtomicReferenceArray<Node<K,V>> tab = table;
+    while (true) {
+      int i = h & (tab.length() - 1);
+      Resize<K,V> moved = null;
+      synchronized (lockFor(i)) {
+        Node<K,V> first = tab.get(i);
+        if (first instanceof ForwardingNode) {
+          moved = ((ForwardingNode<K,V>) first).resize;
+        } else {
+          Node<K,V> prev = null;
+          for (Node<K,V> e = first; e != null; prev = e, e = e.next) {
+            if (e.hash == h && (e.key == key || key.equals(e.key))) {
+              if (prev == null) {
+                tab.set(i, e.next);
+              } else {
+                prev.next = e.next;
+              }
+              count.decrement();
+              return e.value;
+            }
+          }
+          return null;
+        }
+      }
+      helpTransfer(moved);
+      tab = moved.nextTable;
+    }
+  }
+
+  /**
+   *  Create a list of keys that cannot be modified.  The list is a copy
+   *  taken without locking, so it reflects some, but not necessarily all,
+   *  of the writes that run concurrently with it.
+   *
+   *  @return ImmutableList containing this map's keys.
+   **/
+  public ImmutableList<K> keys() {
+    ImmutableList.Builder<K> output = ImmutableList.builder();
+    AtomicReferenceArray<Node<K,V>> tab = table;
+    for (int i = 0; i < tab.length(); i++) {
+      collectKeys(tab, i, output);
+    }
+    return output.build();
+  }
+
+  private void collectKeys(AtomicReferenceArray<Node<K,V>> tab, int i,
+                           ImmutableList.Builder<K> output) {
+    Node<K,V> e = tab.get(i);
+    if (e instanceof ForwardingNode) {
+      AtomicReferenceArray<Node<K,V>> next =
+        ((ForwardingNode<K,V>) e).resize.nextTable;
+      collectKeys(next, i, output);
+      collectKeys(next, i + tab.length(), output);
+      return;
+    }
+    for (; e != null; e = e.next) {
+      output.add(e.key);
+    }
+  }
+
+  /**
+   *  forEach() calls action once for each entry of the map, walking the
+   *  buckets without locking.  Like keys(), it is weakly consistent:  it
+   *  sees every entry present for the whole walk, and may or may not see
+   *  entries added or removed during it.
+   *
+   *  Performance:  runs in O(capacity) time.
+   **/
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    AtomicReferenceArray<Node<K,V>> tab = table;
+    for (int i = 0; i < tab.length(); i++) {
+      forEach(tab, i, action);
+    }
+  }
+
+  private void forEach(AtomicReferenceArray<Node<K,V>> tab, int i,
+                       BiConsumer<? super K, ? super V> action) {
+    Node<K,V> e = tab.get(i);
+    if (e instanceof ForwardingNode) {
+      AtomicReferenceArray<Node<K,V>> next =
+        ((ForwardingNode<K,V>) e).resize.nextTable;
+      forEach(next, i, action);
+      forEach(next, i + tab.length(), action);
+      return;
+    }
+    for (; e != null; e = e.next) {
+      action.accept(e.key, e.value);
+    }
+  }
+
+  /**
+   *  Remove all entries from the map, one stripe-locked bucket at a time.
+   *  Entries put concurrently with clear() may survive it.
+   **/
+  public void clear() {
+    AtomicReferenceArray<Node<K,V>> tab = table;
+    for (int i = 0; i < tab.length(); i++) {
+      clearBucket(tab, i);
+    }
+  }
+
+  private void clearBucket(AtomicReferenceArray<Node<K,V>> tab, int i) {
+    Resize<K,V> moved = null;
+    synchronized (lockFor(i)) {
+      Node<K,V> e = tab.get(i);
+      if (e instanceof ForwardingNode) {
+        moved = ((ForwardingNode<K,V>) e).resize;
+      } else {
+        int removed = 0;
+        for (; e != null; e = e.next) {
+          removed++;
+        }
+        tab.set(i, null);
+        count.add(-removed);
+      }
+    }
+    if (moved != null) {
+      clearBucket(moved.nextTable, i);
+      clearBucket(moved.nextTable, i + tab.length());
+    }
+  }
+
+  /**
+   *  Counts total number of entries that are added to a bucket that already
+   *  has at least one other entry in it.
+   *
+   *  @return an integer counting total number of collisions
+   **/
+  public int countCollisions() {
+    int output = 0;
+    AtomicReferenceArray<Node<K,V>> tab = table;
+    for (int i = 0; i < tab.length(); i++) {
+      output += countCollisions(tab, i);
+    }
+    return output;
+  }
+
+  private int countCollisions(AtomicReferenceArray<Node<K,V>> tab, int i) {
+    Node<K,V> e = tab.get(i);
+    if (e instanceof ForwardingNode) {
+      AtomicReferenceArray<Node<K,V>> next =
+        ((ForwardingNode<K,V>) e).resize.nextTable;
+      return countCollisions(next, i) + countCollisions(next, i + tab.length());
+    }
+    int length = 0;
+    for (; e != null; e = e.next) {
+      length++;
+    }
+    return length > 1 ? length - 1 : 0;
+  }
+
+  /**
+   *  startResize() begins doubling tab, unless tab has already been
+   *  replaced or a resize is already running, and then helps move buckets.
+   **/
+  private void startResize(AtomicReferenceArray<Node<K,V>> tab) {
+    Resize<K,V> r;
+    synchronized (resizeLock) {
+      r = resize;
+      if (r == null) {
+        if (tab != table || tab.length() >= maxSize ||
+            count.sum() <= tab.length() * loadFactor) {
+          return;
+        }
+        r = new Resize<K,V>(tab);
+        resize = r;
+      }
+    }
+    helpTransfer(r);
+  }
+
+  /**
+   *  helpTransfer() claims chunks of r's old buckets and moves them until
+   *  none are left.  Whichever thread moves the last bucket installs the
+   *  new table.
+   **/
+  private void helpTransfer(Resize<K,V> r) {
+    int n = r.table.length();
+    while (true) {
+      int end = r.transferIndex.get();
+      if (end <= 0) {
+        return;
+      }
+      int start = Math.max(0, end - transferChunk);
+      if (!r.transferIndex.compareAndSet(end, start)) {
+        continue;
+      }
+      for (int i = start; i < end; i++) {
+        transferBucket(r, i);
+      }
+      if (r.binsDone.addAndGet(end - start) == n) {
+        synchronized (resizeLock) {
+          table = r.nextTable;
+          resize = null;
+        }
+        if (count.sum() > r.nextTable.length() * loadFactor) {
+          startResize(r.nextTable);
+        }
+        return;
+      }
+    }
+  }
+
+  /**
+   *  transferBucket() splits old bucket i into new buckets i and i + n,
+   *  copying the nodes so that readers still walking the old chain are not
+   *  disturbed, and then replaces the old bucket with a forwarding node.
+   **/
+  private void transferBucket(Resize<K,V> r, int i) {
+    int n = r.table.length();
+    synchronized (lockFor(i)) {
+      Node<K,V> lo = null;
+      Node<K,V> hi = null;
+      for (Node<K,V> e = r.table.get(i); e != null; e = e.next) {
+        if ((e.hash & n) == 0) {
+          lo = new Node<K,V>(e.hash, e.key, e.value, lo);
+        } else {
+          hi = new Node<K,V>(e.hash, e.key, e.value, hi);
+        }
+      }
+      r.nextTable.set(i, lo);
+      r.nextTable.set(i + n, hi);
+      r.table.set(i, new ForwardingNode<K,V>(r));
+    }
+  }
+
+  /**
+   *  Multi-threaded stress test:  each thread owns a disjoint range of keys
+   *  and also churns a range shared by all threads.  Afterwards every
+   *  thread's keys must hold exactly the values it last wrote.  An
+   *  exception thrown by any thread is rethrown once all have finished.
+   */
+  private static void stressTest(int threads) throws InterruptedException {
+    final ConcurrentHashMap<Integer,Integer> map =
+      new ConcurrentHashMap<Integer,Integer>(16);
+    final int perThread = 50000;
+    final int[][] expected = new int[threads][perThread];
+    final Throwable[] failures = new Throwable[threads];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      workers[t] = new Thread() {
+        public void run() {
+          Random random = new Random(id);
+          int[] mine = expected[id];
+          java.util.Arrays.fill(mine, -1);
+          for (int op = 0; op < 400000; op++) {
+            int k = random.nextInt(perThread);
+            int key = id * perThread + k;
+            switch (random.nextInt(5)) {
+            case 0:
+              map.remove(key);
+              mine[k] = -1;
+              break;
+            case 1:
+              map.put(-1 - random.nextInt(1000), op);
+              map.remove(-1 - random.nextInt(1000));
+              break;
+            case 2:
+              Integer v = map.get(key);
+              if ((v == null ? -1 : v.intValue()) != mine[k]) {
+                throw new IllegalStateException("stale read of " + key);
+              }
+              break;
+            default:
+              map.put(key, op);
+              mine[k] = op;
+            }
+          }
+        }
+      };
+      workers[t].setUncaughtExceptionHandler((thread, e) -> failures[id] = e);
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    rethrow(failures);
+    int live = 0;
+    for (int t = 0; t < threads; t++) {
+      for (int k = 0; k < perThread; k++) {
+        Integer v = map.get(t * perThread + k);
+        if ((v == null ? -1 : v.intValue()) != expected[t][k]) {
+          throw new IllegalStateException("lost update to " + (t * perThread + k));
+        }
+        if (v != null) {
+          live++;
+        }
+      }
+    }
+    int shared = 0;
+    for (int k = -1000; k < 0; k++) {
+      if (map.get(k) != null) {
+        shared++;
+      }
+    }
+    if (map.size() != live + shared || map.keys().length() != live + shared) {
+      throw new IllegalStateException("size " + map.size() + " should be " +
+                                      (live + shared));
+    }
+    System.out.println("stress test with " + threads + " threads passed: " +
+                       map.size() + " entries");
+  }
+
+  /**
+   *  Runs a 90% get / 10% put workload on map from the given number of
+   *  threads for about one second and returns operations per second.
+   */
+  private static double throughput(final Map<Integer,Integer> map,
+                                   int threads, final Object lock)
+      throws InterruptedException {
+    final int keys = 1 << 20;
+    for (int i = 0; i < keys; i++) {
+      map.put(i, i);
+    }
+    final long deadline = System.nanoTime() + 1000000000L;
+    final long[] ops = new long[threads];
+    final Throwable[] failures = new Throwable[threads];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      workers[t] = new Thread() {
+        public void run() {
+          Random random = new Random(id);
+          long done = 0;
+          while ((done & 1023) != 0 || System.nanoTime() < deadline) {
+            int key = random.nextInt(keys);
+            if (lock == null) {
+              if (random.nextInt(10) == 0) {
+                map.put(key, key);
+              } else {
+                map.get(key);
+              }
+            } else {
+              synchronized (lock) {
+                if (random.nextInt(10) == 0) {
+                  map.put(key, key);
+                } else {
+                  map.get(key);
+                }
+              }
+            }
+            done++;
+          }
+          ops[id] = done;
+        }
+      };
+      workers[t].setUncaughtExceptionHandler((thread, e) -> failures[id] = e);
+      workers[t].start();
+    }
+    long total = 0;
+    for (int t = 0; t < threads; t++) {
+      workers[t].join();
+      total += ops[t];
+    }
+    rethrow(failures);
+    return total;
+  }
+
+  /**
+   *  rethrow() throws the first Throwable in failures, if there is one, with
+   *  the others attached as suppressed exceptions.
+   */
+  private static void rethrow(Throwable[] failures) {
+    IllegalStateException e = null;
+    for (Throwable failure : failures) {
+      if (failure == null) {
+        continue;
+      }
+      if (e == null) {
+        e = new IllegalStateException("worker thread failed", failure);
+      } else {
+        e.addSuppressed(failure);
+      }
+    }
+    if (e != null) {
+      throw e;
+    }
+  }
+
+  /**
+   *  Runs the stress test, then compares throughput against a HashMap
+   *  behind one global lock from 1 thread up to the number of cores.
+   */
+  public static void main(String[] argv) throws InterruptedException {
+    int cores = Runtime.getRuntime().availableProcessors();
+    stressTest(Math.max(4, cores));
+    for (int threads = 1; ; threads = Math.min(threads * 2, cores)) {
+      double striped = throughput(new ConcurrentHashMap<Integer,Integer>(),
+                                  threads, null);
+      double global = throughput(new HashMap<Integer,Integer>(), threads,
+                                 new Object());
+      System.out.println(threads + " threads: ConcurrentHashMap " +
+                         (long) (striped / 1e6 * 1e3) / 1e3 + " Mops/s, " +
+                         "HashMap with a global lock " +
+                         (long) (global / 1e6 * 1e3) / 1e3 + " Mops/s");
+      if (threads == cores) {
+        break;
+      }
+    }
+  }
+
+}
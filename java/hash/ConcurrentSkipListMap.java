@@ -0,0 +1,855 @@
+/* ConcurrentSkipListMap.java */
+
+package hash;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import list.ImmutableList;
+
+/**
+ *  ConcurrentSkipListMap is a thread-safe map that keeps its keys sorted,
+ *  so besides get(), put() and remove() it answers floor and ceiling
+ *  queries and iterates over ranges of keys, all in O(log n) expected time
+ *  plus the length of the range.
+ *
+ *  The map is a lock-free skip list.  Every node is linked into the bottom
+ *  list, which holds all the keys in order, and into a random number of the
+ *  lists above it, each of which skips about three quarters of the nodes of
+ *  the list below.  Every link is an AtomicMarkableReference, and changes
+ *  are made by compare-and-set, so no thread ever waits for another.
+ *
+ *  A node is removed in three steps:  its value is set to null with a
+ *  compare-and-set (this is the moment it leaves the map), then its links
+ *  are marked from the top list down, and finally it is unlinked ("snipped")
+ *  from each list by whichever thread next walks past it.  A marked link is
+ *  never changed again, so a put() can never attach a new node behind a
+ *  removed one.
+ *
+ *  Keys are ordered by their natural ordering or by a Comparator given to
+ *  the constructor.  Neither keys nor values may be null.  Iterators and
+ *  keys() are weakly consistent:  they reflect some, but not necessarily
+ *  all, of the writes that run concurrently with them.
+ **/
+
+public class ConcurrentSkipListMap<K,V> extends Map<K,V>
+    implements Iterable<java.util.Map.Entry<K,V>> {
+
+  /**
+   *  A Node holds one key.  next[i] is its link in list i; its height is
+   *  next.length.  value is null once the node has been removed.
+   **/
+  static class Node<K,V> {
+    final K key;
+    volatile V value;
+    final AtomicMarkableReference<Node<K,V>>[] next;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    Node(K key, V value, int height) {
+      this.key = key;
+      this.value = value;
+      next = new AtomicMarkableReference[height];
+      for (int i = 0; i < height; i++) {
+        next[i] = new AtomicMarkableReference<Node<K,V>>(null, false);
+      }
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<Node,Object> VALUE =
+    AtomicReferenceFieldUpdater.newUpdater(Node.class, Object.class, "value");
+
+  /**
+   *  maxHeight is the number of lists.  With each list holding a quarter of
+   *  the nodes of the one below, 16 lists serve billions of keys.
+   **/
+  private final static int maxHeight = 16;
+
+  private final Node<K,V> head = new Node<K,V>(null, null, maxHeight);
+  private final Comparator<? super K> comparator;
+  private final LongAdder count = new LongAdder();
+
+  /**
+   *  Construct a new empty map ordered by its keys' natural ordering.  All
+   *  keys must implement Comparable.
+   **/
+  public ConcurrentSkipListMap() {
+    this(null);
+  }
+
+  /**
+   *  Construct a new empty map ordered by comparator, or by its keys'
+   *  natural ordering if comparator is null.
+   **/
+  public ConcurrentSkipListMap(Comparator<? super K> comparator) {
+    this.comparator = comparator;
+  }
+
+  @SuppressWarnings("unchecked")
+  private int compare(K a, K b) {
+    if (comparator != null) {
+      return comparator.compare(a, b);
+    }
+    return ((Comparable<? super K>) a).compareTo(b);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static <K,V> Node<K,V>[] newNodeArray() {
+    return (Node<K,V>[]) new Node[maxHeight];
+  }
+
+  /**
+   *  randomHeight() returns a node height from 1 to maxHeight, each height
+   *  a quarter as likely as the one below it.
+   **/
+  private static int randomHeight() {
+    int r = ThreadLocalRandom.current().nextInt();
+    return 1 + (Integer.numberOfTrailingZeros(r | (1 << (2 * maxHeight - 2))) >>> 1);
+  }
+
+  /**
+   *  find() locates key in every list, snipping each marked node it meets.
+   *  On return, for each list i, preds[i] is the last node whose key is less
+   *  than key (or head) and succs[i] is the node after it (or null).  preds
+   *  and succs may be null if only the snipping is wanted.
+   *
+   *  @return true if succs[0] holds key.
+   **/
+  private boolean find(K key, Node<K,V>[] preds, Node<K,V>[] succs) {
+    boolean[] marked = { false };
+    retry:
+    while (true) {
+      Node<K,V> pred = head;
+      Node<K,V> curr = null;
+      for (int level = maxHeight - 1; level >= 0; level--) {
+        curr = pred.next[level].getReference();
+        while (curr != null) {
+          Node<K,V> succ = curr.next[level].get(marked);
+          if (marked[0]) {
+            if (!pred.next[level].compareAndSet(curr, succ, false, false)) {
+              continue retry;
+            }
+            curr = succ;
+          } else if (compare(curr.key, key) < 0) {
+            pred = curr;
+            curr = succ;
+          } else {
+            break;
+          }
+        }
+        if (preds != null) {
+          preds[level] = pred;
+          succs[level] = curr;
+        }
+      }
+      return curr != null && compare(curr.key, key) == 0;
+    }
+  }
+
+  /**
+   *  lastBefore() returns the last node whose value is not null and whose
+   *  key is less than key (not greater, if inclusive), or head if there is
+   *  none.  If key is null, it returns the last node with a value.  Unlike
+   *  find(), it changes nothing, and it steps over removed nodes rather than
+   *  snipping them.
+   **/
+  private Node<K,V> lastBefore(K key, boolean inclusive) {
+    Node<K,V> pred = head;
+    for (int level = maxHeight - 1; level >= 0; level--) {
+      Node<K,V> curr = pred.next[level].getReference();
+      while (curr != null) {
+        if (curr.value != null) {
+          if (key != null) {
+            int c = compare(curr.key, key);
+            if (c > 0 || (c == 0 && !inclusive)) {
+              break;
+            }
+          }
+          pred = curr;
+        }
+        curr = curr.next[level].getReference();
+      }
+    }
+    return pred;
+  }
+
+  /**
+   *  firstAfter() returns the first node whose value is not null and whose
+   *  key is greater than key (not less, if inclusive), or null if there is
+   *  none.  If key is null, it returns the first node with a value.
+   *
+   *  The bottom list is walked from the node lastBefore() found, and a key
+   *  may have been put behind that node in the meantime, so every key is
+   *  checked against the bound again on the way.
+   **/
+  private Node<K,V> firstAfter(K key, boolean inclusive) {
+    Node<K,V> node = key == null ? head : lastBefore(key, !inclusive);
+    for (node = node.next[0].getReference(); node != null;
+         node = node.next[0].getReference()) {
+      if (key != null) {
+        int c = compare(node.key, key);
+        if (c < 0 || (c == 0 && !inclusive)) {
+          continue;
+        }
+      }
+      if (node.value != null) {
+        return node;
+      }
+    }
+    return null;
+  }
+
+  /**
+   *  markNode() marks every link of node, from the top list down, so that
+   *  nothing can be attached behind it and other threads will snip it.
+   **/
+  private static <K,V> void markNode(Node<K,V> node) {
+    for (int level = node.next.length - 1; level >= 0; level--) {
+      AtomicMarkableReference<Node<K,V>> link = node.next[level];
+      while (!link.isMarked()) {
+        Node<K,V> succ = link.getReference();
+        link.compareAndSet(succ, succ, false, true);
+      }
+    }
+  }
+
+  /**
+   *  size() returns the number of entries in the map.  While other threads
+   *  are writing, the count may be briefly out of date.
+   *
+   *  Performance:  runs in O(number of threads) time.
+   **/
+  public int size() {
+    return (int) Math.min(count.sum(), Integer.MAX_VALUE);
+  }
+
+  /**
+   *  isEmpty() returns true if size() is 0.
+   **/
+  public boolean isEmpty() {
+    return firstAfter(null, true) == null;
+  }
+
+  /**
+   *  Returns the value associated with key, or null if the map has no entry
+   *  with key.  Never blocks and never retries.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public V get(K key) {
+    Node<K,V> node = firstAfter(key, true);
+    if (node != null && compare(node.key, key) == 0) {
+      return node.value;
+    }
+    return null;
+  }
+
+  /**
+   *  Returns true if the map has an entry with key.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public boolean containsKey(K key) {
+    return get(key) != null;
+  }
+
+  /**
+   *  If key is already in map, updates the value associated with the key to
+   *  input parameter value.  Otherwise, adds an entry to map with key and
+   *  value.
+   *
+   *  @param key the key by which the entry can be retrieved, which must not
+   *         be null.
+   *  @param value an object, which must not be null.
+   *  @return the previous value, or null.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  @SuppressWarnings("unchecked")
+  public V put(K key, V value) {
+    if (key == null) {
+      throw new NullPointerException("null keys are not allowed");
+    }
+    if (value == null) {
+      throw new NullPointerException("null values are not allowed");
+    }
+    Node<K,V>[] preds = newNodeArray();
+    Node<K,V>[] succs = newNodeArray();
+    while (true) {
+      if (find(key, preds, succs)) {
+        Node<K,V> node = succs[0];
+        V oldValue = node.value;
+        if (oldValue == null) {
+          markNode(node);
+        } else if (VALUE.compareAndSet(node, oldValue, value)) {
+          return oldValue;
+        }
+        continue;
+      }
+      int height = randomHeight();
+      Node<K,V> node = new Node<K,V>(key, value, height);
+      for (int level = 0; level < height; level++) {
+        node.next[level].set(succs[level], false);
+      }
+      if (!preds[0].next[0].compareAndSet(succs[0], node, false, false)) {
+        continue;
+      }
+      count.increment();
+      linkAbove(node, preds, succs);
+      return null;
+    }
+  }
+
+  /**
+   *  linkAbove() links node, which is already in the bottom list, into the
+   *  lists above it, giving up if node is removed in the meantime.
+   **/
+  private void linkAbove(Node<K,V> node, Node<K,V>[] preds, Node<K,V>[] succs) {
+    for (int level = 1; level < node.next.length; level++) {
+      while (true) {
+        Node<K,V> succ = succs[level];
+        AtomicMarkableReference<Node<K,V>> link = node.next[level];
+        Node<K,V> oldSucc = link.getReference();
+        if (link.isMarked() ||
+            (oldSucc != succ && !link.compareAndSet(oldSucc, succ, false, false))) {
+          return;
+        }
+        if (preds[level].next[level].compareAndSet(succ, node, false, false)) {
+          break;
+        }
+        if (!find(node.key, preds, succs) || succs[0] != node) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   *  Remove the entry with the specified key.
+   *
+   *  @param key the search key.
+   *  @return value associated with the specified key, or null if no entry
+   *          contains the specified key.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  @SuppressWarnings("unchecked")
+  public V remove(K key) {
+    Node<K,V>[] preds = newNodeArray();
+    Node<K,V>[] succs = newNodeArray();
+    while (true) {
+      if (!find(key, preds, succs)) {
+        return null;
+      }
+      Node<K,V> node = succs[0];
+      V oldValue = node.value;
+      if (oldValue == null) {
+        markNode(node);
+      } else if (VALUE.compareAndSet(node, oldValue, null)) {
+        count.decrement();
+        markNode(node);
+        find(key, null, null);
+        return oldValue;
+      }
+    }
+  }
+
+  /**
+   *  firstKey() returns the smallest key, or null if the map is empty.
+   **/
+  public K firstKey() {
+    Node<K,V> node = firstAfter(null, true);
+    return node == null ? null : node.key;
+  }
+
+  /**
+   *  lastKey() returns the largest key, or null if the map is empty.
+   **/
+  public K lastKey() {
+    Node<K,V> node = lastBefore(null, true);
+    return node == head ? null : node.key;
+  }
+
+  /**
+   *  floorKey() returns the largest key not greater than key, or null.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public K floorKey(K key) {
+    Node<K,V> node = lastBefore(key, true);
+    return node == head ? null : node.key;
+  }
+
+  /**
+   *  lowerKey() returns the largest key less than key, or null.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public K lowerKey(K key) {
+    Node<K,V> node = lastBefore(key, false);
+    return node == head ? null : node.key;
+  }
+
+  /**
+   *  ceilingKey() returns the smallest key not less than key, or null.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public K ceilingKey(K key) {
+    Node<K,V> node = firstAfter(key, true);
+    return node == null ? null : node.key;
+  }
+
+  /**
+   *  higherKey() returns the smallest key greater than key, or null.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public K higherKey(K key) {
+    Node<K,V> node = firstAfter(key, false);
+    return node == null ? null : node.key;
+  }
+
+  /**
+   *  Create a list of the keys in ascending order that cannot be modified.
+   *  The list is a copy taken without locking, so it reflects some, but not
+   *  necessarily all, of the writes that run concurrently with it.
+   *
+   *  @return ImmutableList containing this map's keys.
+   **/
+  public ImmutableList<K> keys() {
+    return subMap(null, true, null, true).keys();
+  }
+
+  /**
+   *  forEach() calls action once for each entry of the map, in ascending
+   *  order of keys.  Like keys(), it is weakly consistent.
+   *
+   *  Performance:  runs in O(n) time.
+   **/
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (Node<K,V> node = head.next[0].getReference(); node != null;
+         node = node.next[0].getReference()) {
+      V value = node.value;
+      if (value != null) {
+        action.accept(node.key, value);
+      }
+    }
+  }
+
+  /**
+   *  iterator() returns an iterator over the map's entries in ascending
+   *  order of keys.  Its remove() removes the last key returned from the
+   *  map.
+   **/
+  public Iterator<java.util.Map.Entry<K,V>> iterator() {
+    return subMap(null, true, null, true).iterator();
+  }
+
+  /**
+   *  subMap() returns a view of the entries whose keys lie between from and
+   *  to.  The view reads and writes through to this map.
+   *
+   *  @param from the lowest key, or null for no lower bound.
+   *  @param fromInclusive true if from itself is in range.
+   *  @param to the highest key, or null for no upper bound.
+   *  @param toInclusive true if to itself is in range.
+   **/
+  public SubMap subMap(K from, boolean fromInclusive, K to, boolean toInclusive) {
+    if (from != null && to != null && compare(from, to) > 0) {
+      throw new IllegalArgumentException("from is greater than to");
+    }
+    return new SubMap(from, fromInclusive, to, toInclusive);
+  }
+
+  /**
+   *  Remove all entries from the map, one at a time.  Entries put
+   *  concurrently with clear() may survive it.
+   **/
+  public void clear() {
+    for (Node<K,V> node = head.next[0].getReference(); node != null;
+         node = node.next[0].getReference()) {
+      remove(node.key);
+    }
+  }
+
+  /**
+   *  A skip list has no buckets, so no key is ever away from its home slot.
+   *
+   *  @return 0.
+   **/
+  public int countCollisions() {
+    return 0;
+  }
+
+  /**
+   *  A SubMap is a view of the entries of its ConcurrentSkipListMap whose
+   *  keys lie in a range.  It holds no entries of its own:  every operation
+   *  goes to the whole map, so its size() takes time proportional to the
+   *  number of entries in range.  put() of a key out of range throws
+   *  IllegalArgumentException; get() and remove() of one return null.
+   **/
+  public class SubMap extends Map<K,V> implements Iterable<java.util.Map.Entry<K,V>> {
+
+    private final K from;
+    private final boolean fromInclusive;
+    private final K to;
+    private final boolean toInclusive;
+
+    SubMap(K from, boolean fromInclusive, K to, boolean toInclusive) {
+      this.from = from;
+      this.fromInclusive = fromInclusive;
+      this.to = to;
+      this.toInclusive = toInclusive;
+    }
+
+    private boolean tooLow(K key) {
+      if (from == null) {
+        return false;
+      }
+      int c = compare(key, from);
+      return c < 0 || (c == 0 && !fromInclusive);
+    }
+
+    private boolean tooHigh(K key) {
+      if (to == null) {
+        return false;
+      }
+      int c = compare(key, to);
+      return c > 0 || (c == 0 && !toInclusive);
+    }
+
+    /**
+     *  inRange() returns true if key lies in the view's range.
+     **/
+    public boolean inRange(K key) {
+      return !tooLow(key) && !tooHigh(key);
+    }
+
+    /**
+     *  first() returns the first live node in range, or null.
+     **/
+    private Node<K,V> first() {
+      Node<K,V> node = firstAfter(from, fromInclusive);
+      return node == null || tooHigh(node.key) ? null : node;
+    }
+
+    /**
+     *  size() counts the entries in range.
+     *
+     *  Performance:  runs in O(log n + k) time for k entries in range.
+     **/
+    public int size() {
+      int n = 0;
+      for (Iterator<java.util.Map.Entry<K,V>> i = iterator(); i.hasNext(); i.next()) {
+        n++;
+      }
+      return n;
+    }
+
+    public boolean isEmpty() {
+      return first() == null;
+    }
+
+    public V get(K key) {
+      return inRange(key) ? ConcurrentSkipListMap.this.get(key) : null;
+    }
+
+    public V put(K key, V value) {
+      if (!inRange(key)) {
+        throw new IllegalArgumentException("key out of range");
+      }
+      return ConcurrentSkipListMap.this.put(key, value);
+    }
+
+    public V remove(K key) {
+      return inRange(key) ? ConcurrentSkipListMap.this.remove(key) : null;
+    }
+
+    /**
+     *  firstKey() returns the smallest key in range, or null.
+     **/
+    public K firstKey() {
+      Node<K,V> node = first();
+      return node == null ? null : node.key;
+    }
+
+    /**
+     *  lastKey() returns the largest key in range, or null.
+     **/
+    public K lastKey() {
+      Node<K,V> node = lastBefore(to, toInclusive);
+      return node == head || tooLow(node.key) ? null : node.key;
+    }
+
+    /**
+     *  Create a list of the keys in range, in ascending order, that cannot
+     *  be modified.
+     **/
+    public ImmutableList<K> keys() {
+      ImmutableList.Builder<K> output = ImmutableList.builder();
+      for (java.util.Map.Entry<K,V> entry : this) {
+        output.add(entry.getKey());
+      }
+      return output.build();
+    }
+
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+      for (Node<K,V> node = first(); node != null && !tooHigh(node.key);
+           node = node.next[0].getReference()) {
+        V value = node.value;
+        if (value != null) {
+          action.accept(node.key, value);
+        }
+      }
+    }
+
+    /**
+     *  iterator() returns an iterator over the entries in range, in
+     *  ascending order of keys.  Each entry is a snapshot of the key and the
+     *  value it had when the iterator reached it.
+     **/
+    public Iterator<java.util.Map.Entry<K,V>> iterator() {
+      return new Iterator<java.util.Map.Entry<K,V>>() {
+        private Node<K,V> next = first();
+        private V nextValue = next == null ? null : next.value;
+        private K lastKey;
+
+        {
+          advance();
+        }
+
+        /**
+         *  Moves next forward to a live node in range, or to null.
+         **/
+        private void advance() {
+          while (next != null && nextValue == null) {
+            next = next.next[0].getReference();
+            nextValue = next == null ? null : next.value;
+          }
+          if (next != null && tooHigh(next.key)) {
+            next = null;
+          }
+        }
+
+        public boolean hasNext() {
+          return next != null;
+        }
+
+        public java.util.Map.Entry<K,V> next() {
+          if (next == null) {
+            throw new NoSuchElementException();
+          }
+          java.util.Map.Entry<K,V> entry =
+            new java.util.AbstractMap.SimpleImmutableEntry<K,V>(next.key, nextValue);
+          lastKey = next.key;
+          next = next.next[0].getReference();
+          nextValue = next == null ? null : next.value;
+          advance();
+          return entry;
+        }
+
+        public void remove() {
+          if (lastKey == null) {
+            throw new IllegalStateException();
+          }
+          ConcurrentSkipListMap.this.remove(lastKey);
+          lastKey = null;
+        }
+      };
+    }
+
+    /**
+     *  Remove every entry in range from the map.
+     **/
+    public void clear() {
+      for (Iterator<java.util.Map.Entry<K,V>> i = iterator(); i.hasNext(); ) {
+        i.next();
+        i.remove();
+      }
+    }
+
+    public int countCollisions() {
+      return 0;
+    }
+
+  }
+
+  /**
+   *  Has threads threads put, remove and get keys of their own while also
+   *  churning a range shared by all threads, checking that every read sees
+   *  the thread's last write.  Afterwards the map must hold exactly the
+   *  expected entries, in order.  An exception thrown by any thread is
+   *  rethrown once all of them have finished.
+   */
+  private static void stressTest(int threads) throws InterruptedException {
+    final ConcurrentSkipListMap<Integer,Integer> map =
+      new ConcurrentSkipListMap<Integer,Integer>();
+    final int perThread = 20000;
+    final int[][] expected = new int[threads][perThread];
+    final Throwable[] failures = new Throwable[threads];
+    Thread[] workers = new Thread[threads];
+    for (int t = 0; t < threads; t++) {
+      final int id = t;
+      workers[t] = new Thread() {
+        public void run() {
+          Random random = new Random(id);
+          int[] mine = expected[id];
+          java.util.Arrays.fill(mine, -1);
+          for (int op = 0; op < 200000; op++) {
+            int k = random.nextInt(perThread);
+            int key = k * threads + id;
+            switch (random.nextInt(5)) {
+            case 0:
+              map.remove(key);
+              mine[k] = -1;
+              break;
+            case 1:
+              map.put(-1 - random.nextInt(1000), op);
+              map.remove(-1 - random.nextInt(1000));
+              break;
+            case 2:
+              Integer v = map.get(key);
+              if ((v == null ? -1 : v.intValue()) != mine[k]) {
+                throw new IllegalStateException("stale read of " + key);
+              }
+              break;
+            default:
+              map.put(key, op);
+              mine[k] = op;
+            }
+          }
+        }
+      };
+      workers[t].setUncaughtExceptionHandler((thread, e) -> failures[id] = e);
+      workers[t].start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    rethrow(failures);
+    int live = 0;
+    for (int t = 0; t < threads; t++) {
+      for (int k = 0; k < perThread; k++) {
+        Integer v = map.get(k * threads + t);
+        if ((v == null ? -1 : v.intValue()) != expected[t][k]) {
+          throw new IllegalStateException("lost update to " + (k * threads + t));
+        }
+        if (v != null) {
+          live++;
+        }
+      }
+    }
+    int shared = map.subMap(null, true, 0, false).size();
+    Integer previous = null;
+    int listed = 0;
+    for (java.util.Map.Entry<Integer,Integer> entry : map) {
+      if (previous != null && previous >= entry.getKey()) {
+        throw new IllegalStateException("keys out of order at " + entry.getKey());
+      }
+      previous = entry.getKey();
+      listed++;
+    }
+    if (map.size() != live + shared || listed != live + shared) {
+      throw new IllegalStateException("size " + map.size() + " should be " +
+                                      (live + shared));
+    }
+    System.out.println("stress test with " + threads + " threads passed: " +
+                       map.size() + " entries");
+  }
+
+  /**
+   *  rethrow() throws the first Throwable in failures, if there is one, with
+   *  the others attached as suppressed exceptions.
+   */
+  static void rethrow(Throwable[] failures) {
+    IllegalStateException e = null;
+    for (Throwable failure : failures) {
+      if (failure == null) {
+        continue;
+      }
+      if (e == null) {
+        e = new IllegalStateException("stress test worker failed", failure);
+      } else {
+        e.addSuppressed(failure);
+      }
+    }
+    if (e != null) {
+      throw e;
+    }
+  }
+
+  /**
+   *  Fills a HashMap and a ConcurrentSkipListMap with n random keys, then
+   *  times range queries that sum the values of about width consecutive
+   *  keys:  on the HashMap by sorting a copy of keys() for every query, and
+   *  on the skip list with subMap().
+   */
+  private static void benchmarkRanges(int n, int width) {
+    Random random = new Random(0);
+    HashMap<Integer,Integer> hashMap = new HashMap<Integer,Integer>();
+    ConcurrentSkipListMap<Integer,Integer> skipList =
+      new ConcurrentSkipListMap<Integer,Integer>();
+    int bound = n * 4;
+    for (int i = 0; i < n; i++) {
+      int key = random.nextInt(bound);
+      hashMap.put(key, i);
+      skipList.put(key, i);
+    }
+    int span = width * 4;
+    int sortQueries = 10;
+    int skipQueries = 100000;
+    int[] from = new int[skipQueries];
+    for (int q = 0; q < skipQueries; q++) {
+      from[q] = random.nextInt(bound - span);
+    }
+    long sortSum = 0;
+    long start = System.nanoTime();
+    for (int q = 0; q < sortQueries; q++) {
+      Integer[] sorted = new Integer[hashMap.size()];
+      int i = 0;
+      for (Integer key : hashMap.keys()) {
+        sorted[i++] = key;
+      }
+      java.util.Arrays.sort(sorted);
+      i = java.util.Arrays.binarySearch(sorted, from[q]);
+      for (i = i < 0 ? -i - 1 : i; i < sorted.length && sorted[i] < from[q] + span; i++) {
+        sortSum += hashMap.get(sorted[i]);
+      }
+    }
+    long sortNanos = (System.nanoTime() - start) / sortQueries;
+    final long[] skipSum = { 0 };
+    long checkSum = 0;
+    start = System.nanoTime();
+    for (int q = 0; q < skipQueries; q++) {
+      if (q == sortQueries) {
+        checkSum = skipSum[0];
+      }
+      skipList.subMap(from[q], true, from[q] + span, false).forEach((k, v) -> skipSum[0] += v);
+    }
+    long skipNanos = (System.nanoTime() - start) / skipQueries;
+    if (checkSum != sortSum) {
+      throw new IllegalStateException("range sums differ");
+    }
+    System.out.println("range queries over " + n + " keys, about " + width +
+                       " keys each:  sort keys() per query " + sortNanos / 1000 +
+                       " us, skip list subMap() " + skipNanos / 1000.0 + " us");
+  }
+
+  /**
+   *  Runs the stress test with at least four threads, then compares range
+   *  queries on a skip list with sorting a HashMap's keys on demand.
+   */
+  public static void main(String[] argv) throws InterruptedException {
+    stressTest(Math.max(4, Runtime.getRuntime().availableProcessors()));
+    benchmarkRanges(200000, 100);
+  }
+
+}
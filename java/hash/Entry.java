@@ -0,0 +1,82 @@
+/* Entry.java */
+
+package hash;
+
+/**
+ *  A class for dictionary entries.
+ *
+ *  hash is the key's hash code as the map computes it (its hashCode(), or
+ *  its SipHash under keyed hashing), computed once when the entry is
+ *  created or when the map switches hashing; lookups compare it before
+ *  calling equals(), and rehashing uses it instead of hashing again.  next links the entries of one
+ *  bucket's chain; index is the entry's position in its map's insertion
+ *  order.  An Entry is also a java.util.Map.Entry, so that the map's
+ *  Spliterator can hand out its entries without copying them.
+ *
+ **/
+
+class Entry<K,V> implements java.util.Map.Entry<K,V> {
+
+  protected K key;
+  protected V value;
+  int hash;
+  Entry<K,V> next;
+  int index;
+  
+  Entry(K key, V value, int hash) {
+	  this.key = key;
+	  this.value = value;
+	  this.hash = hash;
+  }
+
+	/**
+   * key() returns the entry's key
+   *
+   * Running time:  O(1).
+   */
+  K key() {
+    return key;
+  }
+
+	/**
+   * value() returns the entry's value
+   *
+   * Running time:  O(1).
+   */
+  V value() {
+    return value;
+  }
+
+  public K getKey() {
+	  return key;
+  }
+
+  public V getValue() {
+	  return value;
+  }
+
+  /**
+   * setValue() replaces the entry's value in its map.
+   */
+  public V setValue(V value) {
+	  V oldValue = this.value;
+	  this.value = value;
+	  return oldValue;
+  }
+
+  /**
+   * equals() and hashCode() follow the java.util.Map.Entry contract.
+   */
+  public boolean equals(Object o) {
+	  if (!(o instanceof java.util.Map.Entry)) {
+		  return false;
+	  }
+	  java.util.Map.Entry<?,?> e = (java.util.Map.Entry<?,?>) o;
+	  return key.equals(e.getKey()) && java.util.Objects.equals(value, e.getValue());
+  }
+
+  public int hashCode() {
+	  return key.hashCode() ^ java.util.Objects.hashCode(value);
+  }
+
+}
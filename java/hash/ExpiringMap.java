@@ -0,0 +1,438 @@
+/* ExpiringMap.java */
+
+package hash;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import list.ImmutableList;
+
+/**
+ *  An ExpiringMap is a map whose entries expire:  each entry is given a
+ *  time to live when it is put, and once that time has passed the map
+ *  behaves as if the entry had been removed.  Time is read from a Clock, so
+ *  tests can drive it by hand.
+ *
+ *  Expired entries are reclaimed lazily.  get() and remove() reclaim the
+ *  entry they find if it has expired, and put() and cleanUp() reclaim every
+ *  entry whose time has passed, using a hierarchical timing wheel rather
+ *  than a sweep over all entries.
+ *
+ *  The wheel counts time in ticks of one millisecond and has six levels of
+ *  64 slots.  An entry due within 64 ticks sits in level 0, in the slot for
+ *  its tick; an entry due within 64^(l+1) ticks sits in level l, in the slot
+ *  for its tick divided by 64^l.  When time passes a slot, each of its
+ *  entries is either reclaimed or, if it is not yet due, moved down to a
+ *  finer level.  An entry is moved at most five times, so scheduling,
+ *  cancelling and reclaiming an entry all cost O(1) amortized time, and a
+ *  put() that advances the wheel does work proportional to the ticks and
+ *  entries that have expired since the last one.
+ *
+ *  Entries are found through a HashMap from keys to wheel nodes.  size()
+ *  counts expired entries until they are reclaimed; call cleanUp() first
+ *  for an exact count.  The map is not thread-safe.
+ **/
+
+public class ExpiringMap<K,V> extends Map<K,V> {
+
+  /**
+   *  A Node holds one entry.  deadline is the time (relative to origin) at
+   *  which it expires, tick the first tick that ends at or after deadline.
+   *  prev and next link the node into the circular list of its wheel slot.
+   **/
+  private static class Node<K,V> {
+    final K key;
+    V value;
+    long deadline;
+    long tick;
+    Node<K,V> prev;
+    Node<K,V> next;
+
+    Node(K key, V value) {
+      this.key = key;
+      this.value = value;
+    }
+  }
+
+  private final static int levelBits = 6;
+  private final static int slotsPerLevel = 1 << levelBits;
+  private final static int levels = 6;
+  private final static long tickNanos = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final HashMap<K,Node<K,V>> index = new HashMap<K,Node<K,V>>();
+  private final Node<K,V>[][] wheel;
+  private final Clock clock;
+  private final long origin;
+  private final long defaultTtl;
+  private long currentTick;
+  private long expirations;
+
+  /**
+   *  Construct an empty map whose entries live for defaultTtl units unless
+   *  put with a time to live of their own, timed by the system clock.
+   **/
+  public ExpiringMap(long defaultTtl, TimeUnit unit) {
+    this(defaultTtl, unit, Clock.SYSTEM);
+  }
+
+  /**
+   *  Construct an empty map whose entries live for defaultTtl units unless
+   *  put with a time to live of their own, timed by clock.
+   **/
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public ExpiringMap(long defaultTtl, TimeUnit unit, Clock clock) {
+    if (defaultTtl <= 0) {
+      throw new IllegalArgumentException("time to live must be positive");
+    }
+    if (clock == null) {
+      throw new IllegalArgumentException("clock must not be null");
+    }
+    this.defaultTtl = unit.toNanos(defaultTtl);
+    this.clock = clock;
+    origin = clock.nanoTime();
+    wheel = new Node[levels][slotsPerLevel];
+    for (int level = 0; level < levels; level++) {
+      for (int slot = 0; slot < slotsPerLevel; slot++) {
+        Node<K,V> sentinel = new Node<K,V>(null, null);
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+        wheel[level][slot] = sentinel;
+      }
+    }
+  }
+
+  /**
+   *  now() returns the clock's time relative to origin.
+   **/
+  private long now() {
+    return clock.nanoTime() - origin;
+  }
+
+  /**
+   *  expiredCount() returns the number of entries reclaimed because they
+   *  expired.
+   **/
+  public long expiredCount() {
+    return expirations;
+  }
+
+  /**
+   *  Returns the value associated with key, or null if there is no entry
+   *  with key or it has expired.  An expired entry is reclaimed.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public V get(K key) {
+    Node<K,V> node = index.get(key);
+    if (node == null) {
+      return null;
+    }
+    if (node.deadline <= now()) {
+      reclaim(node);
+      return null;
+    }
+    return node.value;
+  }
+
+  /**
+   *  Returns true if the map has an entry with key that has not expired.
+   *  An expired entry is reclaimed.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public boolean containsKey(K key) {
+    Node<K,V> node = index.get(key);
+    if (node != null && node.deadline <= now()) {
+      reclaim(node);
+      return false;
+    }
+    return node != null;
+  }
+
+  /**
+   *  reclaim() removes node, which has expired, from the wheel and the
+   *  index.
+   **/
+  private void reclaim(Node<K,V> node) {
+    unschedule(node);
+    index.remove(node.key);
+    size--;
+    expirations++;
+  }
+
+  /**
+   *  Associates value with key for the map's default time to live.
+   *
+   *  @return the previous value, or null if key had no entry or it had
+   *          expired.
+   *
+   *  Performance:  runs in O(1) amortized time.
+   **/
+  public V put(K key, V value) {
+    return put(key, value, defaultTtl, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   *  Associates value with key for ttl units of time, replacing any entry
+   *  with key and its time to live.  Reclaims every entry that has expired.
+   *
+   *  @return the previous value, or null if key had no entry or it had
+   *          expired.
+   *
+   *  Performance:  runs in O(1) amortized time.
+   **/
+  public V put(K key, V value, long ttl, TimeUnit unit) {
+    if (ttl <= 0) {
+      throw new IllegalArgumentException("time to live must be positive");
+    }
+    long now = now();
+    advance(now);
+    V oldValue = null;
+    Node<K,V> node = index.get(key);
+    if (node == null) {
+      node = new Node<K,V>(key, value);
+      index.put(key, node);
+      size++;
+    } else {
+      unschedule(node);
+      if (node.deadline > now) {
+        oldValue = node.value;
+      } else {
+        expirations++;
+      }
+      node.value = value;
+    }
+    long nanos = unit.toNanos(ttl);
+    node.deadline = nanos > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + nanos;
+    node.tick = node.deadline / tickNanos + (node.deadline % tickNanos == 0 ? 0 : 1);
+    schedule(node);
+    return oldValue;
+  }
+
+  /**
+   *  Remove the entry with the specified key.
+   *
+   *  @return the value associated with key, or null if key had no entry or
+   *          it had expired.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public V remove(K key) {
+    Node<K,V> node = index.remove(key);
+    if (node == null) {
+      return null;
+    }
+    unschedule(node);
+    size--;
+    if (node.deadline <= now()) {
+      expirations++;
+      return null;
+    }
+    return node.value;
+  }
+
+  /**
+   *  cleanUp() reclaims every entry whose time to live has passed.
+   *
+   *  Performance:  runs in O(1) amortized time per tick and per entry
+   *  reclaimed.
+   **/
+  public void cleanUp() {
+    advance(now());
+  }
+
+  /**
+   *  Create a list of the keys of entries that have not expired, in the
+   *  order they were first put.
+   *
+   *  @return ImmutableList containing this map's keys.
+   **/
+  public ImmutableList<K> keys() {
+    final ImmutableList.Builder<K> output = ImmutableList.builder();
+    forEach((key, value) -> output.add(key));
+    return output.build();
+  }
+
+  /**
+   *  forEach() calls action once for each entry that has not expired.  It
+   *  reclaims nothing, so action must not change the map.
+   **/
+  public void forEach(final BiConsumer<? super K, ? super V> action) {
+    final long now = now();
+    index.forEach((key, node) -> {
+        if (node.deadline > now) {
+          action.accept(key, node.value);
+        }
+      });
+  }
+
+  /**
+   *  Remove all entries from the map.
+   **/
+  public void clear() {
+    index.clear();
+    for (Node<K,V>[] level : wheel) {
+      for (Node<K,V> sentinel : level) {
+        sentinel.prev = sentinel;
+        sentinel.next = sentinel;
+      }
+    }
+    size = 0;
+  }
+
+  /**
+   *  countCollisions() returns the collisions of the map's index.
+   **/
+  public int countCollisions() {
+    return index.countCollisions();
+  }
+
+  /**
+   *  schedule() puts node, whose tick is after currentTick, into the wheel
+   *  slot for its tick at the finest level that reaches it.
+   **/
+  private void schedule(Node<K,V> node) {
+    long delta = node.tick - currentTick;
+    int level = 0;
+    while (level < levels - 1 && delta >= 1L << (levelBits * (level + 1))) {
+      level++;
+    }
+    Node<K,V> sentinel =
+      wheel[level][(int) (node.tick >>> (levelBits * level)) & (slotsPerLevel - 1)];
+    node.prev = sentinel.prev;
+    node.next = sentinel;
+    sentinel.prev.next = node;
+    sentinel.prev = node;
+  }
+
+  /**
+   *  unschedule() takes node out of its wheel slot.
+   **/
+  private static <K,V> void unschedule(Node<K,V> node) {
+    node.prev.next = node.next;
+    node.next.prev = node.prev;
+    node.prev = null;
+    node.next = null;
+  }
+
+  /**
+   *  advance() moves the wheel to the tick containing now, draining every
+   *  slot that time has passed:  at level l, the slots for the values that
+   *  currentTick / 64^l has moved through (all 64 if it has moved that
+   *  far).  A level whose value has not changed ends the walk, since no
+   *  coarser level's value can have changed either.
+   **/
+  private void advance(long now) {
+    long tick = now / tickNanos;
+    if (tick <= currentTick) {
+      return;
+    }
+    long previous = currentTick;
+    currentTick = tick;
+    for (int level = 0; level < levels; level++) {
+      long from = previous >>> (levelBits * level);
+      long to = tick >>> (levelBits * level);
+      if (from == to) {
+        break;
+      }
+      long slots = Math.min(to - from, slotsPerLevel);
+      for (long i = 1; i <= slots; i++) {
+        drain(level, (int) ((from + i) & (slotsPerLevel - 1)));
+      }
+    }
+  }
+
+  /**
+   *  drain() empties one wheel slot, reclaiming each node that is due and
+   *  rescheduling the rest at a finer level.
+   **/
+  private void drain(int level, int slot) {
+    Node<K,V> sentinel = wheel[level][slot];
+    Node<K,V> node = sentinel.next;
+    sentinel.prev = sentinel;
+    sentinel.next = sentinel;
+    while (node != sentinel) {
+      Node<K,V> next = node.next;
+      if (node.tick <= currentTick) {
+        node.prev = null;
+        node.next = null;
+        index.remove(node.key);
+        size--;
+        expirations++;
+      } else {
+        schedule(node);
+      }
+      node = next;
+    }
+  }
+
+  /**
+   *  A Clock that only moves when told to.
+   */
+  private static class ManualClock implements Clock {
+    long nanos;
+
+    public long nanoTime() {
+      return nanos;
+    }
+  }
+
+  /**
+   *  Puts n entries with random times to live of up to an hour on a manual
+   *  clock, then advances the clock ten seconds at a time.  At every step,
+   *  checks that exactly the entries that are due have been reclaimed, and
+   *  times the step against a sweep that scans a HashMap's keys() for
+   *  deadlines that have passed.
+   */
+  private static void benchmarkExpiry(int n) {
+    ManualClock clock = new ManualClock();
+    ExpiringMap<Integer,Integer> map =
+      new ExpiringMap<Integer,Integer>(1, TimeUnit.HOURS, clock);
+    HashMap<Integer,Long> swept = new HashMap<Integer,Long>();
+    Random random = new Random(0);
+    long[] deadline = new long[n];
+    for (int i = 0; i < n; i++) {
+      long ttl = 1 + random.nextInt(3600 * 1000);
+      deadline[i] = TimeUnit.MILLISECONDS.toNanos(ttl);
+      map.put(i, i, ttl, TimeUnit.MILLISECONDS);
+      swept.put(i, deadline[i]);
+    }
+    long step = TimeUnit.SECONDS.toNanos(10);
+    long wheelNanos = 0;
+    long sweepNanos = 0;
+    for (long now = step; now <= TimeUnit.HOURS.toNanos(1); now += step) {
+      clock.nanos = now;
+      long start = System.nanoTime();
+      map.cleanUp();
+      wheelNanos += System.nanoTime() - start;
+      start = System.nanoTime();
+      for (Integer key : swept.keys()) {
+        if (swept.get(key) <= now) {
+          swept.remove(key);
+        }
+      }
+      sweepNanos += System.nanoTime() - start;
+      if (map.size() != swept.size()) {
+        throw new IllegalStateException("at " + now + " ns, " + map.size() +
+                                        " entries remain instead of " + swept.size());
+      }
+    }
+    if (map.size() != 0 || map.expiredCount() != n) {
+      throw new IllegalStateException(map.expiredCount() + " of " + n + " entries expired");
+    }
+    int steps = 360;
+    System.out.println("expiry of " + n + " entries over an hour in " + steps +
+                       " steps:  timing wheel " + wheelNanos / steps / 1000 +
+                       " us per step, sweeping keys() " + sweepNanos / steps / 1000 +
+                       " us per step");
+  }
+
+  /**
+   *  Runs the expiry benchmark.
+   */
+  public static void main(String[] argv) {
+    benchmarkExpiry(100000);
+  }
+
+}
@@ -0,0 +1,101 @@
+/* FrequencySketch.java */
+
+package hash;
+
+/**
+ *  A FrequencySketch estimates how often each key has been seen recently.
+ *  It is a count-min sketch of four rows of 4-bit counters, packed sixteen
+ *  to a long.  A key's estimate is the smallest of its four counters, so it
+ *  may be too high (when other keys share all four counters) but is never
+ *  too low.
+ *
+ *  Counters saturate at 15.  Once sampleSize increments have been made,
+ *  every counter is halved, so that the sketch forgets old history and
+ *  keys that were popular long ago lose their advantage.
+ **/
+
+class FrequencySketch {
+
+  private final static int[] seeds = {
+    0x97cb3127, 0xb24b91d5, 0x1e2ab0d3, 0xf2f3d2ad
+  };
+  private final static long resetMask = 0x7777777777777777L;
+  private final static int maxTableSize = 1 << 24;
+
+  private final long[] table;
+  private final int mask;
+  private final int sampleSize;
+  private int additions;
+
+  /**
+   *  Construct a sketch sized for a cache of roughly capacity entries.
+   **/
+  FrequencySketch(long capacity) {
+    int n = 16;
+    while (n < capacity && n < maxTableSize) {
+      n <<= 1;
+    }
+    table = new long[n];
+    mask = n - 1;
+    sampleSize = 10 * n;
+  }
+
+  /**
+   *  mix() returns the hash for row i of the sketch.  The low bits choose
+   *  the long and the top four bits choose the counter within it.
+   **/
+  private static int mix(int hash, int i) {
+    return HashMap.spread(hash * seeds[i] + i);
+  }
+
+  /**
+   *  frequency() returns the estimated number of recent occurrences of the
+   *  key with hash code hash, between 0 and 15.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  int frequency(int hash) {
+    int output = 15;
+    for (int i = 0; i < 4; i++) {
+      int h = mix(hash, i);
+      int shift = (h >>> 28) << 2;
+      int count = (int) ((table[h & mask] >>> shift) & 15);
+      if (count < output) {
+        output = count;
+      }
+    }
+    return output;
+  }
+
+  /**
+   *  increment() records one occurrence of the key with hash code hash.
+   *
+   *  Performance:  runs in O(1) amortized time.
+   **/
+  void increment(int hash) {
+    boolean added = false;
+    for (int i = 0; i < 4; i++) {
+      int h = mix(hash, i);
+      int index = h & mask;
+      int shift = (h >>> 28) << 2;
+      if (((table[index] >>> shift) & 15) != 15) {
+        table[index] += 1L << shift;
+        added = true;
+      }
+    }
+    if (added && ++additions == sampleSize) {
+      reset();
+    }
+  }
+
+  /**
+   *  reset() halves every counter.
+   **/
+  private void reset() {
+    for (int i = 0; i < table.length; i++) {
+      table[i] = (table[i] >>> 1) & resetMask;
+    }
+    additions /= 2;
+  }
+
+}
@@ -3,8 +3,16 @@
 package hash;
 import list.*;
 
+import java.util.ConcurrentModificationException;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
 /**
- *  HashMap is a hash map with DList chaining.
+ *  HashMap is a hash map with separate chaining.
  *  All objects used as keys must have a valid hashCode() method, which is
  *  used to determine which bucket of the hash table an entry is stored in.
  *  Each object's hashCode() is presumed to return an int between
@@ -12,17 +20,151 @@ import list.*;
  *  implements only the compression function, which maps the hash code to
  *  a bucket in the table's range.
  *
+ *  Unless the three-argument constructor asks otherwise, the table has a
+ *  power-of-two number of buckets and the compression function masks a
+ *  mixed hash code.  (The one- and two-argument constructors used to size
+ *  tables by sizeEstimate/loadFactor and compress with modulo arithmetic;
+ *  pass powerOfTwo = false for that sizing.)
+ *
+ *  A bucket whose chain grows long (because many keys share a hash code,
+ *  for instance) is converted to a balanced tree, so that the worst-case
+ *  cost of an operation is O(log n) rather than O(n).
+ *
+ *  Entries are chained through their own next fields, and the map's
+ *  insertion order is kept in a dense array of entries, so an entry costs
+ *  one object and no list nodes.
+ *
+ *  enableMetrics() turns on probe-length, chain-length and rehash
+ *  statistics.  Rehashes and overfull buckets are also reported as Java
+ *  Flight Recorder events (hash.Rehash and hash.LongChain) whenever a
+ *  recording has them enabled.
+ *
  **/
 
-public class HashMap<K,V> {
+public class HashMap<K,V> extends Map<K,V> {
 
-  private List<Entry<K,V>>[] buckets;
-  private int size;
-  private List<K> keys;
+  private Entry<K,V>[] buckets;
   private double loadFactor;
   private final static double defaultLoadFactor = .75;
   private final int defaultSize = 89;
 
+  /*  Table sizing:
+   *  If powerOfTwo is true, buckets.length is always a power of two and
+   *  compFunction() selects a bucket by masking a mixed hash code.
+   *  Otherwise the original sizing is used:  buckets.length starts at
+   *  defaultSize (or sizeEstimate/loadFactor), grows to length*2+1, and
+   *  compFunction() reduces the hash code with two modulo operations.
+   */
+  private boolean powerOfTwo;
+  private final static int defaultPowerOfTwoSize = 64;
+  private final static int maxPowerOfTwoSize = 1 << 30;
+
+  /*  Shrinking:
+   *  If autoShrink is true (it is off unless setAutoShrink() turns it on),
+   *  a remove() that leaves the table less than a quarter as full as
+   *  loadFactor allows shrinks it to the smallest size at which it is no
+   *  more than half full, but never below minBuckets, the size the map was
+   *  constructed with; the insertion-order array likewise never shrinks
+   *  below minOrder, its length at construction.  Growing at loadFactor
+   *  and shrinking at a quarter of it leaves a factor of four between the
+   *  two, so a map whose size hovers near either threshold does not resize
+   *  over and over.
+   */
+  private boolean autoShrink;
+  private int minBuckets;
+  private int minOrder;
+
+  /*  Hash flooding:
+   *  seed is chosen at random for each map and mixed into every bucket
+   *  index, so which keys share a bucket cannot be worked out in advance.
+   *  Keys with equal hash codes share a bucket whatever the seed, though,
+   *  and equal String hash codes are easy to produce.  So once a bucket
+   *  holding a String key reaches keyedHashThreshold entries, the map turns
+   *  on keyedHashing:  from then on the hash of a String key is its SipHash
+   *  under the random key (sipKey0, sipKey1), which cannot be made to
+   *  collide without knowing that key.  Until then, tree bins keep the cost
+   *  of a crowded bucket logarithmic.
+   */
+  private final int seed = java.util.concurrent.ThreadLocalRandom.current().nextInt();
+  private boolean keyedHashing;
+  private boolean floodSuspected;
+  private long sipKey0;
+  private long sipKey1;
+  final static int keyedHashThreshold = 32;
+  private final static java.security.SecureRandom keyRandom = new java.security.SecureRandom();
+
+  /*  Incremental rehashing:
+   *  oldBuckets is the table being drained while an incremental rehash is in
+   *  progress, and null otherwise.  Every bucket of oldBuckets below
+   *  migrateIndex has already been moved into buckets (and set to null).
+   *  Each put/get/remove moves at most migrateStep buckets.
+   */
+  private boolean incrementalRehash;
+  private Entry<K,V>[] oldBuckets;
+  private int migrateIndex;
+  private final static int migrateStep = 4;
+
+  /*  Tree bins:
+   *  A bucket whose chain grows past treeifyThreshold entries is moved into
+   *  a TreeBin (a balanced tree) and trees[i] is used in place of
+   *  buckets[i]; at most one of the two is non-null.  A TreeBin that
+   *  shrinks below untreeifyThreshold entries is turned back into a chain.
+   *  oldTrees holds the tree bins of oldBuckets during an incremental rehash.
+   */
+  private TreeBin<K,V>[] trees;
+  private TreeBin<K,V>[] oldTrees;
+  final static int treeifyThreshold = 8;
+  final static int untreeifyThreshold = 6;
+
+  /*  Insertion order:
+   *  order[0...orderEnd-1] holds the entries in the order their keys were
+   *  first put, with null in the slots of entries that have been removed.
+   *  Every entry's index field is its position in order.  order is
+   *  compacted once more than half of its used slots are null, so removing
+   *  an entry costs O(1) amortized time.  modCount counts the changes to
+   *  order, so that iterators can detect them.
+   */
+  private Entry<K,V>[] order;
+  private int orderEnd;
+  private int modCount;
+  private final static int defaultOrderSize = 8;
+
+  /*  keys is the list last returned by keys(), and keysModCount the value
+   *  of modCount when it was made.
+   */
+  private ImmutableList<K> keys;
+  private int keysModCount;
+
+  /*  Metrics:
+   *  metrics is null unless enableMetrics() has been called, so a map
+   *  without metrics pays one null check per operation.
+   */
+  private HashMapMetrics metrics;
+
+  /*  Parallel rehashing:
+   *  If rehashPool is not null, a synchronous rehash of a map holding at
+   *  least parallelRehashThreshold entries is split across the pool.  See
+   *  relinkParallel().
+   */
+  private ForkJoinPool rehashPool;
+  final static int parallelRehashThreshold = 1 << 16;
+  private final static int rangesPerThread = 8;
+  private final static int maxRanges = 1024;
+
+  /*  Bloom filter:
+   *  If bloom is not null, it holds the hash code of every entry (and of
+   *  some removed ones), so a get() or remove() of a key whose hash code it
+   *  rejects returns after probing one cache line, without touching the
+   *  table.  It is sized for the number of entries the table holds before
+   *  it grows, and rebuilt from order whenever the table is resized, and
+   *  once bloomRemoves, the removals since it was built, exceed half the
+   *  entries (and minBloomRemoves), so removed keys do not clog it.
+   */
+  private BlockedBloomFilter bloom;
+  private int bloomRemoves;
+  private final static int bloomBitsPerEntry = 10;
+  private final static int minBloomRemoves = 64;
+
 
 
   /** 
@@ -35,13 +177,34 @@ public class HashMap<K,V> {
   
   /** 
    *  Construct a new empty hash map intended to hold roughly sizeEstimate
-   *  entries with a load factor of loadFactor.
+   *  entries with a load factor of loadFactor.  The table uses power-of-two
+   *  sizing; HashMap(sizeEstimate, loadFactor, false) gives the modulo
+   *  sizing this constructor used to have.
+   **/
+  public HashMap(int sizeEstimate, double loadFactor) {
+	  this(sizeEstimate, loadFactor, true);
+  }
+
+  /** 
+   *  Construct a new empty hash map intended to hold roughly sizeEstimate
+   *  entries with a load factor of loadFactor.  If powerOfTwo is true, the
+   *  table has a power-of-two number of buckets and a bucket is chosen by
+   *  masking a mixed hash code; otherwise the original modulo-based
+   *  compression function and length*2+1 growth are used.
    **/
   @SuppressWarnings("unchecked")
-public HashMap(int sizeEstimate, double loadFactor) {
-	  buckets = new List[(int)(sizeEstimate/loadFactor)];
+public HashMap(int sizeEstimate, double loadFactor, boolean powerOfTwo) {
+	  this.powerOfTwo = powerOfTwo;
+	  if (powerOfTwo) {
+		  buckets = newTable(tableSizeFor(sizeEstimate/loadFactor));
+	  } else {
+		  buckets = newTable(Math.max(1, (int)(sizeEstimate/loadFactor)));
+	  }
+	  minBuckets = buckets.length;
+	  trees = (TreeBin<K,V>[]) new TreeBin<?,?>[buckets.length];
+	  order = newTable(Math.max(defaultOrderSize, sizeEstimate));
+	  minOrder = order.length;
 	  size = 0;
-	  keys = new DList<K>();
 	  this.loadFactor = loadFactor;
   }
 
@@ -55,15 +218,278 @@ public HashMap(int sizeEstimate, double loadFactor) {
   
   /** 
    *  Construct a new empty hash map with a default size and load factor of loadFactor.
+   *  The table uses power-of-two sizing, starting at 64 buckets rather than
+   *  the 89 this constructor used to allocate.
    **/
   @SuppressWarnings("unchecked")
 public HashMap(double loadFactor) {
-	  buckets = new List[defaultSize];
+	  powerOfTwo = true;
+	  buckets = newTable(defaultPowerOfTwoSize);
+	  minBuckets = buckets.length;
+	  trees = (TreeBin<K,V>[]) new TreeBin<?,?>[buckets.length];
+	  order = newTable(defaultOrderSize);
+	  minOrder = order.length;
 	  size = 0;
-	  keys = new DList<K>();
 	  this.loadFactor = loadFactor;
   }
 
+  /**
+   *  Switches between synchronous and incremental rehashing.  By default the
+   *  put() that crosses the load factor rehashes every entry before it
+   *  returns.  With incremental rehashing on, that put() only allocates the
+   *  larger table; the old and new tables are then kept side by side and
+   *  each later put/get/remove moves a few buckets across, so no single
+   *  call pays for the whole resize.
+   *
+   *  Turning incremental rehashing off finishes any migration in progress.
+   *
+   *  @param incremental true to rehash incrementally, false to rehash
+   *         synchronously.
+   **/
+  public void setIncrementalRehash(boolean incremental) {
+	  incrementalRehash = incremental;
+	  if (!incremental) {
+		  migrate(Integer.MAX_VALUE);
+	  }
+  }
+
+  /**
+   *  Returns true if an incremental rehash is still migrating buckets.
+   **/
+  public boolean isRehashing() {
+	  return oldBuckets != null;
+  }
+
+  /**
+   *  Switches keyed hashing of String keys on or off.  With it on, a String
+   *  key is hashed with SipHash under a random secret key chosen when it is
+   *  switched on, instead of with hashCode(), so an attacker cannot choose
+   *  keys that fall into one bucket.  It costs a SipHash of the key (a few
+   *  nanoseconds per 8 chars) per operation, and switching rehashes the
+   *  table.  Other keys are always hashed with hashCode().
+   *
+   *  A map switches keyed hashing on by itself when a bucket holding a
+   *  String key reaches keyedHashThreshold entries, which ordinary String
+   *  keys essentially never do.
+   *
+   *  @param keyed true to hash String keys with SipHash, false to hash them
+   *         with hashCode().
+   **/
+  public void setKeyedHashing(boolean keyed) {
+	  floodSuspected = false;
+	  if (keyed == keyedHashing) {
+		  return;
+	  }
+	  migrate(Integer.MAX_VALUE);
+	  if (keyed) {
+		  sipKey0 = keyRandom.nextLong();
+		  sipKey1 = keyRandom.nextLong();
+	  }
+	  keyedHashing = keyed;
+	  for (int i = 0; i < orderEnd; i++) {
+		  Entry<K,V> entry = order[i];
+		  if (entry != null && entry.key instanceof String) {
+			  entry.hash = hashOf(entry.key);
+		  }
+	  }
+	  rehash(buckets.length, false, rehashPool);
+  }
+
+  /**
+   *  Returns true if String keys are hashed with SipHash.
+   **/
+  public boolean isKeyedHashing() {
+	  return keyedHashing;
+  }
+
+  /**
+   *  Returns the hash code the map uses for key:  its SipHash if keyed
+   *  hashing is on and key is a String, otherwise its hashCode().
+   **/
+  private int hashOf(Object key) {
+	  if (keyedHashing && key instanceof String) {
+		  long h = SipHash.hash(sipKey0, sipKey1, (String) key);
+		  return (int) (h ^ (h >>> 32));
+	  }
+	  return key.hashCode();
+  }
+
+  /**
+   *  Switches automatic shrinking on or off (the default).  With it on, a
+   *  remove() that leaves the table less than a quarter as full as the load
+   *  factor allows halves the table (or more) as part of the call, down to
+   *  the size the map was constructed with, so that remove() may take O(n)
+   *  time.
+   *
+   *  @param shrink true to shrink automatically, false to let the table
+   *         only grow.
+   **/
+  public void setAutoShrink(boolean shrink) {
+	  autoShrink = shrink;
+  }
+
+  /**
+   *  Sets the pool used to rehash large maps in parallel.  Once the map
+   *  holds parallelRehashThreshold entries, each synchronous rehash divides
+   *  the new table into bucket ranges and fills the ranges concurrently on
+   *  pool.  Incremental rehashing, if on, takes precedence.
+   *
+   *  @param pool the pool to rehash on, or null (the default) to always
+   *         rehash on the calling thread.
+   **/
+  public void setParallelRehash(ForkJoinPool pool) {
+	  rehashPool = pool;
+  }
+
+  /**
+   *  Switches the Bloom filter in front of the table on or off.  With it on,
+   *  a get() or remove() of a missing key usually returns after probing a
+   *  single cache line of the filter, instead of hashing into the table and
+   *  walking a chain.  The filter costs about 10 bits per entry the table
+   *  can hold, a few operations per put(), and an O(n) rebuild on each
+   *  rehash and after many removals, so it pays off when most lookups miss.
+   *
+   *  @param enabled true to build and maintain the filter, false (the
+   *         default) to discard it.
+   **/
+  public void setBloomFilter(boolean enabled) {
+	  if (!enabled) {
+		  bloom = null;
+	  } else if (bloom == null) {
+		  rebuildBloom();
+	  }
+  }
+
+  /**
+   *  Returns the map's Bloom filter, or null if it is not enabled.
+   **/
+  BlockedBloomFilter bloomFilter() {
+	  return bloom;
+  }
+
+  /**
+   *  Builds a new Bloom filter holding the hash code of every entry, sized
+   *  for the entries the current table can hold.
+   **/
+  private void rebuildBloom() {
+	  int capacity = Math.max(size, (int) Math.min(Integer.MAX_VALUE, buckets.length * loadFactor));
+	  if (bloom != null && bloom.capacity() == capacity) {
+		  bloom.clear();
+	  } else {
+		  bloom = new BlockedBloomFilter(capacity, bloomBitsPerEntry);
+	  }
+	  for (int i = 0; i < orderEnd; i++) {
+		  if (order[i] != null) {
+			  bloom.add(order[i].hash);
+		  }
+	  }
+	  bloomRemoves = 0;
+  }
+
+  /**
+   *  Counts a removal against the Bloom filter, rebuilding it once removed
+   *  keys may make up a third of the hash codes it holds.
+   **/
+  private void bloomRemoved() {
+	  if (bloom != null && ++bloomRemoves > Math.max(minBloomRemoves, size / 2)) {
+		  rebuildBloom();
+	  }
+  }
+
+  /**
+   *  Records a get() of a key that is not in the map, if metrics and the
+   *  Bloom filter are enabled.
+   *
+   *  @param falsePositive true if the filter failed to reject the key.
+   **/
+  private void recordFilterMiss(boolean falsePositive) {
+	  if (metrics != null) {
+		  metrics.recordFilterMiss(falsePositive);
+	  }
+  }
+
+  /**
+   *  Starts recording metrics (probe lengths, chain lengths, rehash counts
+   *  and times) for this map, if they are not already being recorded.
+   *
+   *  @return the metrics, which the map keeps up to date.
+   **/
+  public HashMapMetrics enableMetrics() {
+	  if (metrics == null) {
+		  metrics = new HashMapMetrics(this);
+	  }
+	  return metrics;
+  }
+
+  /**
+   *  Stops recording metrics.
+   **/
+  public void disableMetrics() {
+	  metrics = null;
+  }
+
+  /**
+   *  Returns the map's metrics, or null if they are not enabled.
+   **/
+  public HashMapMetrics metrics() {
+	  return metrics;
+  }
+
+  /**
+   *  Returns the number of buckets in the table.
+   **/
+  int bucketCount() {
+	  return buckets.length;
+  }
+
+  /**
+   *  Returns the number of buckets in the table being drained by an
+   *  incremental rehash, or 0.
+   **/
+  int oldBucketCount() {
+	  return oldBuckets == null ? 0 : oldBuckets.length;
+  }
+
+  /**
+   *  Returns the length of the insertion-order array.
+   **/
+  int orderCapacity() {
+	  return order.length;
+  }
+
+  /**
+   *  Records the probe length of one lookup, if metrics are enabled.
+   **/
+  private void recordProbe(int length) {
+	  if (metrics != null) {
+		  metrics.recordProbe(length);
+	  }
+  }
+
+  /**
+   *  Returns the probe length charged to a lookup in tree:  the depth of a
+   *  balanced tree of its size.
+   **/
+  private static int probeLength(TreeBin<?,?> tree) {
+	  return 32 - Integer.numberOfLeadingZeros(tree.size());
+  }
+
+  /**
+   *  Commits a LongChainEvent for bucket bucketNumber, which holds length
+   *  entries.
+   **/
+  private void longChain(int bucketNumber, int length, K key) {
+	  LongChainEvent event = new LongChainEvent();
+	  if (event.shouldCommit()) {
+		  event.keyClass = key.getClass().getName();
+		  event.length = length;
+		  event.bucket = bucketNumber;
+		  event.buckets = buckets.length;
+		  event.size = size;
+		  event.commit();
+	  }
+  }
+
   /**
    *  Calls compFunction with the HashMap's current buckets.
    **/
@@ -79,14 +505,83 @@ public HashMap(double loadFactor) {
    *  This function should have package protection (so we can test it), and
    *  should be used by insert, find, and remove.
    **/
-  int compFunction(int code, List<Entry<K,V>>[] buckets) {
-	  int n = ((buckets.length + 11) * code + 7) % (buckets.length * 13 + 17) % buckets.length;
+  int compFunction(int code, Entry<K,V>[] buckets) {
+	  return bucketIndex(code, buckets.length);
+  }
+
+  /**
+   *  Converts a hash code to a bucket index in a table of length buckets,
+   *  mixing in the map's seed.
+   **/
+  private int bucketIndex(int code, int length) {
+	  code ^= seed;
+	  if (powerOfTwo) {
+		  return spread(code) & (length - 1);
+	  }
+	  int n = ((length + 11) * code + 7) % (length * 13 + 17) % length;
 	  if(n >= 0) {
 		  return n;
 	  }
 	  return -n;
   }
   
+  /**
+   *  Mixes all 32 bits of a hash code into the low bits, using the
+   *  finalization step of MurmurHash3.  Masking the raw hash code would
+   *  only look at its low bits, so keys whose hash codes differ in their
+   *  high bits, or that are sums of small hash codes (such as VertexPair's),
+   *  would pile into a few buckets.
+   **/
+  static int spread(int code) {
+	  code ^= code >>> 16;
+	  code *= 0x85ebca6b;
+	  code ^= code >>> 13;
+	  code *= 0xc2b2ae35;
+	  code ^= code >>> 16;
+	  return code;
+  }
+
+  /**
+   *  Returns a new array of n null entries, for the buckets and the order
+   *  array.
+   **/
+  @SuppressWarnings("unchecked")
+  static <K,V> Entry<K,V>[] newTable(int n) {
+	  return (Entry<K,V>[]) new Entry<?,?>[n];
+  }
+
+  /**
+   *  Returns the smallest power of two that is at least n (and at least 2).
+   **/
+  private static int tableSizeFor(double n) {
+	  int output = 2;
+	  while (output < n && output < maxPowerOfTwoSize) {
+		  output <<= 1;
+	  }
+	  return output;
+  }
+
+  /**
+   *  Returns the number of buckets the table should grow to from length.
+   **/
+  private int grownSize(int length) {
+	  if (powerOfTwo) {
+		  return Math.min(length * 2, maxPowerOfTwoSize);
+	  }
+	  return length*2+1;
+  }
+
+  /**
+   *  Returns the number of buckets the table should shrink to from length;
+   *  the inverse of grownSize().
+   **/
+  private int shrunkSize(int length) {
+	  if (powerOfTwo) {
+		  return length / 2;
+	  }
+	  return (length - 1) / 2;
+  }
+
   /** 
    *  Returns the closest prime to n.
    *  @param int to find closest value to.
@@ -126,30 +621,6 @@ public HashMap(double loadFactor) {
 	  return true;
   }
 
-  /** 
-   *  Returns the number of entries stored in the dictionary.  Entries with
-   *  the same key (or even the same key and value) each still count as
-   *  a separate entry.
-   *  @return number of entries in the dictionary.
-   **/
-
-  public int size() {
-	  return size;
-  }
-
-  /** 
-   *  Tests if the dictionary is empty.
-   *
-   *  @return true if the dictionary has no entries; false otherwise.
-   **/
-
-  public boolean isEmpty() {
-    if (size < 1) {
-    	return true;
-    }
-    return false;
-  }
-
   /**
    *  If key is already in map, updates the value associated with the key to
    *  input parameter value. Otherwise, adds an entry to map with key and value.
@@ -166,24 +637,156 @@ public HashMap(double loadFactor) {
 	  if ((size+1.0)/buckets.length > loadFactor) {
 		  rehash();
 	  }
-	  int bucketNumber = compFunction(key.hashCode());
-	  if(buckets[bucketNumber] == null) {
-		  buckets[bucketNumber] = new DList<Entry<K,V>>();
+	  int hash = hashOf(key);
+	  if (oldBuckets != null) {
+		  migrate(migrateStep);
+		  migrateBucketOf(hash);
+	  }
+	  int bucketNumber = compFunction(hash);
+	  if (trees[bucketNumber] != null) {
+		  recordProbe(probeLength(trees[bucketNumber]));
+		  Entry<K,V> entry = trees[bucketNumber].find(hash, key);
+		  if (entry != null) {
+			  oldValue = entry.value;
+			  entry.value = value;
+			  return oldValue;
+		  }
 	  } else {
-		  for (Entry<K,V> entries: buckets[bucketNumber]) {
-			  if (entries.key().equals(key)) {
-				  oldValue = entries.value;
-				  entries.value = value;
+		  int probes = 0;
+		  for (Entry<K,V> entry = buckets[bucketNumber]; entry != null; entry = entry.next) {
+			  probes++;
+			  if (entry.hash == hash && (entry.key == key || entry.key.equals(key))) {
+				  recordProbe(probes);
+				  oldValue = entry.value;
+				  entry.value = value;
 				  return oldValue;
 			  }	
 		  }
+		  recordProbe(probes);
 	  }
-	  keys.insertBack(key);
-	  Entry<K,V> entry = new Entry<K,V>(keys.back(), value);
-	  buckets[bucketNumber].insertBack(entry);
+	  Entry<K,V> entry = new Entry<K,V>(key, value, hash);
+	  appendOrder(entry);
+	  addEntry(bucketNumber, hash, entry);
 	  size++;
+	  if (bloom != null) {
+		  bloom.add(hash);
+	  }
+	  if (floodSuspected) {
+		  setKeyedHashing(true);
+	  }
 	  return oldValue;
   }
+
+  /**
+   *  Adds entry, whose key hashes to hash and is not yet in the table, to
+   *  the bucket bucketNumber of buckets, turning the bucket into a tree bin
+   *  if its chain becomes too long, and noting a possible hash flood if it
+   *  becomes much too long.
+   **/
+  private void addEntry(int bucketNumber, int hash, Entry<K,V> entry) {
+	  int length = linkEntry(bucketNumber, hash, entry);
+	  if (metrics != null) {
+		  metrics.recordChain(length);
+	  }
+	  if (length >= keyedHashThreshold && !keyedHashing && entry.key instanceof String) {
+		  floodSuspected = true;
+	  }
+  }
+
+  /**
+   *  Same as addEntry(), but does not update the metrics.  It touches only
+   *  buckets[bucketNumber] and trees[bucketNumber], so threads may link
+   *  entries into different buckets at the same time.
+   *
+   *  @return the number of entries in the bucket (up to treeifyThreshold + 1
+   *          for a chain).
+   **/
+  private int linkEntry(int bucketNumber, int hash, Entry<K,V> entry) {
+	  TreeBin<K,V> bin = trees[bucketNumber];
+	  if (bin != null) {
+		  bin.insert(hash, entry);
+		  if (Integer.bitCount(bin.size()) == 1) {
+			  longChain(bucketNumber, bin.size(), entry.key);
+		  }
+		  return bin.size();
+	  }
+	  entry.next = buckets[bucketNumber];
+	  buckets[bucketNumber] = entry;
+	  int length = 0;
+	  for (Entry<K,V> e = entry; e != null && length <= treeifyThreshold; e = e.next) {
+		  length++;
+	  }
+	  if (length > treeifyThreshold) {
+		  longChain(bucketNumber, length, entry.key);
+		  TreeBin<K,V> tree = new TreeBin<K,V>();
+		  Entry<K,V> next;
+		  for (Entry<K,V> e = buckets[bucketNumber]; e != null; e = next) {
+			  next = e.next;
+			  e.next = null;
+			  tree.insert(e.hash, e);
+		  }
+		  trees[bucketNumber] = tree;
+		  buckets[bucketNumber] = null;
+	  }
+	  return length;
+  }
+
+  /**
+   *  Returns the entry of bucket bucketNumber whose key equals key, which
+   *  hashes to hash, or null.
+   **/
+  private Entry<K,V> findEntry(int bucketNumber, int hash, Object key) {
+	  if (trees[bucketNumber] != null) {
+		  return trees[bucketNumber].find(hash, key);
+	  }
+	  for (Entry<K,V> entry = buckets[bucketNumber]; entry != null; entry = entry.next) {
+		  if (entry.hash == hash && (entry.key == key || entry.key.equals(key))) {
+			  return entry;
+		  }
+	  }
+	  return null;
+  }
+
+  /**
+   *  Adds entry at the end of the insertion order.
+   **/
+  private void appendOrder(Entry<K,V> entry) {
+	  if (orderEnd == order.length) {
+		  order = java.util.Arrays.copyOf(order, order.length * 2);
+	  }
+	  entry.index = orderEnd;
+	  order[orderEnd++] = entry;
+	  modCount++;
+  }
+
+  /**
+   *  Removes entry from the insertion order, compacting order if it has
+   *  become more than half empty.  Must be called after size is updated.
+   **/
+  private void removeOrder(Entry<K,V> entry) {
+	  order[entry.index] = null;
+	  modCount++;
+	  if (orderEnd - size > orderEnd / 2 && orderEnd > defaultOrderSize) {
+		  compactOrder();
+	  }
+  }
+
+  /**
+   *  Slides the live entries of order to its front, keeping their order.
+   **/
+  private void compactOrder() {
+	  int j = 0;
+	  for (int i = 0; i < orderEnd; i++) {
+		  Entry<K,V> entry = order[i];
+		  if (entry != null) {
+			  entry.index = j;
+			  order[j++] = entry;
+		  }
+	  }
+	  java.util.Arrays.fill(order, j, orderEnd, null);
+	  orderEnd = j;
+	  modCount++;
+  }
   
 
   /** 
@@ -199,11 +802,30 @@ public HashMap(double loadFactor) {
    **/
 
   public V get(K key) {
-	  return get(key, buckets);
+	  int hash = hashOf(key);
+	  if (bloom != null && !bloom.mightContain(hash)) {
+		  recordFilterMiss(false);
+		  return null;
+	  }
+	  V output;
+	  if (oldBuckets == null) {
+		  output = get(key, hash, buckets, trees);
+	  } else {
+		  migrate(migrateStep);
+		  output = get(key, hash, buckets, trees);
+		  if (output == null && oldBuckets != null) {
+			  output = get(key, hash, oldBuckets, oldTrees);
+		  }
+	  }
+	  if (output == null && bloom != null) {
+		  recordFilterMiss(true);
+	  }
+	  return output;
   }
   
   /** 
-   *  Search for an entry with the specified key in the specified buckets.  If such an entry is found,
+   *  Search for an entry with the specified key in the specified buckets and
+   *  their tree bins.  If such an entry is found,
    *  return it; otherwise return null.  If several entries have the specified
    *  key, choose one arbitrarily and return it.
    *
@@ -213,15 +835,31 @@ public HashMap(double loadFactor) {
    *  @return an value associated with key, or null if
    *          no entry contains the specified key.
    **/
-  V get(K key, List<Entry<K,V>>[] buckets) {
-	  int bucketNumber = compFunction(key.hashCode(), buckets);
-	  if (buckets[bucketNumber] != null) {
-		  for (Entry<K,V> entry: buckets[bucketNumber]) {
-			  if (entry.key().equals(key)) {
-				  return entry.value;
-			  }	
-		  }
+  V get(K key, Entry<K,V>[] buckets, TreeBin<K,V>[] trees) {
+	  return get(key, hashOf(key), buckets, trees);
+  }
+
+  /**
+   *  Same as get(key, buckets, trees), for a key whose hash code, hash, the
+   *  caller has already computed.  Entries whose stored hash codes differ
+   *  from hash are skipped without calling equals().
+   **/
+  private V get(K key, int hash, Entry<K,V>[] buckets, TreeBin<K,V>[] trees) {
+	  int bucketNumber = compFunction(hash, buckets);
+	  if (trees[bucketNumber] != null) {
+		  recordProbe(probeLength(trees[bucketNumber]));
+		  Entry<K,V> entry = trees[bucketNumber].find(hash, key);
+		  return entry == null ? null : entry.value;
+	  }
+	  int probes = 0;
+	  for (Entry<K,V> entry = buckets[bucketNumber]; entry != null; entry = entry.next) {
+		  probes++;
+		  if (entry.hash == hash && (entry.key == key || entry.key.equals(key))) {
+			  recordProbe(probes);
+			  return entry.value;
+		  }	
 	  }
+	  recordProbe(probes);
 	  return null;
   }
 
@@ -239,62 +877,815 @@ public HashMap(double loadFactor) {
    */
 
   public V remove(K key) {
-	  int bucketNumber = compFunction(key.hashCode());
-	  if (buckets[bucketNumber] != null) {
-		  ListNode<Entry<K,V>> node = buckets[bucketNumber].front();
-		  try {
-			  while(node.isValidNode()){
-				  if ((node.item()).key().equals(key)) {
-					  Entry<K,V> output = node.item();
-					  output.key.remove();
-					  node.remove();
-					  size--;
-					  return output.value;
-				  }
-				  node = node.next();				  
+	  int hash = hashOf(key);
+	  if (bloom != null && !bloom.mightContain(hash)) {
+		  return null;
+	  }
+	  if (oldBuckets != null) {
+		  migrate(migrateStep);
+		  migrateBucketOf(hash);
+	  }
+	  int bucketNumber = compFunction(hash);
+	  TreeBin<K,V> tree = trees[bucketNumber];
+	  if (tree != null) {
+		  recordProbe(probeLength(tree));
+		  Entry<K,V> output = tree.remove(hash, key);
+		  if (output == null) {
+			  return null;
+		  }
+		  if (tree.size() < untreeifyThreshold) {
+			  buckets[bucketNumber] = tree.toChain();
+			  trees[bucketNumber] = null;
+		  }
+		  size--;
+		  removeOrder(output);
+		  shrinkIfSparse();
+		  bloomRemoved();
+		  return output.value;
+	  }
+	  Entry<K,V> prev = null;
+	  int probes = 0;
+	  for (Entry<K,V> entry = buckets[bucketNumber]; entry != null; prev = entry, entry = entry.next) {
+		  probes++;
+		  if (entry.hash == hash && (entry.key == key || entry.key.equals(key))) {
+			  recordProbe(probes);
+			  if (prev == null) {
+				  buckets[bucketNumber] = entry.next;
+			  } else {
+				  prev.next = entry.next;
 			  }
-		} catch (InvalidNodeException e) {
-			e.printStackTrace();
-		}
+			  entry.next = null;
+			  size--;
+			  removeOrder(entry);
+			  shrinkIfSparse();
+			  bloomRemoved();
+			  return entry.value;
+		  }
 	  }
+	  recordProbe(probes);
 	  return null;
   }
   
   /** 
-   *  Create a list of keys that cannot be modified.
+   *  Create a list of keys that cannot be modified, in the order the keys
+   *  were first put.  The list is a snapshot:  later changes to the map are
+   *  not reflected in it.  It is kept until the order changes, so calls to
+   *  keys() between changes return the same list.
    *
    *  @return ImmutableList containing this map's keys.
+   *
+   *  Performance:  runs in O(n) time after a change, and in O(1) time
+   *  otherwise.
    */
   public ImmutableList<K> keys() {
-	  return keys.createImmutable();
+	  if (keys != null && keysModCount == modCount) {
+		  return keys;
+	  }
+	  ImmutableList.Builder<K> output = ImmutableList.builder();
+	  for (int i = 0; i < orderEnd; i++) {
+		  if (order[i] != null) {
+			  output.add(order[i].key);
+		  }
+	  }
+	  keys = output.build();
+	  keysModCount = modCount;
+	  return keys;
   }
 
   /**
-   *  Remove all entries from the dictionary.
+   *  Calls action once for each entry, in insertion order, reading the
+   *  entries directly:  no key is looked up and nothing is allocated.
+   *
+   *  @param action the procedure to call with each key and its value.
+   *  @exception ConcurrentModificationException if action adds or removes
+   *             a key.
+   *
+   *  Performance:  runs in O(n) time.
    */
-  @SuppressWarnings("unchecked")
-public void clear() {
-	  buckets = new DList[this.defaultSize];
-	  keys = new DList<K>();
-	  size = 0;
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+	  int expectedModCount = modCount;
+	  Entry<K,V>[] order = this.order;
+	  int end = orderEnd;
+	  for (int i = 0; i < end; i++) {
+		  Entry<K,V> entry = order[i];
+		  if (entry != null) {
+			  action.accept(entry.key, entry.value);
+		  }
+	  }
+	  if (modCount != expectedModCount) {
+		  throw new ConcurrentModificationException();
+	  }
   }
-  
+
+  /**
+   *  Returns a new Cursor positioned before the first entry.
+   */
+  public Cursor<K,V> cursor() {
+	  return new Cursor<K,V>(this);
+  }
+
+  /**
+   *  A Cursor walks a HashMap's entries in insertion order without
+   *  allocating:  next() moves to the next entry, whose key and value are
+   *  then read with key() and value().  A Cursor can be rewound with
+   *  reset() and used for any number of walks.
+   *
+   *  The map may not gain or lose keys during a walk (setValue() is
+   *  allowed); if it does, the Cursor throws
+   *  ConcurrentModificationException.
+   */
+  public static class Cursor<K,V> {
+	  private final HashMap<K,V> map;
+	  private int index;
+	  private int expectedModCount;
+
+	  Cursor(HashMap<K,V> map) {
+		  this.map = map;
+		  reset();
+	  }
+
+	  /**
+	   *  Positions the cursor before the map's first entry.
+	   */
+	  public void reset() {
+		  index = -1;
+		  expectedModCount = map.modCount;
+	  }
+
+	  /**
+	   *  Moves to the next entry.
+	   *
+	   *  @return true if there is one; false if the walk is over.
+	   */
+	  public boolean next() {
+		  check();
+		  while (index + 1 < map.orderEnd) {
+			  index++;
+			  if (map.order[index] != null) {
+				  return true;
+			  }
+		  }
+		  index = map.orderEnd;
+		  return false;
+	  }
+
+	  /**
+	   *  Returns the key of the current entry.
+	   */
+	  public K key() {
+		  return current().key;
+	  }
+
+	  /**
+	   *  Returns the value of the current entry.
+	   */
+	  public V value() {
+		  return current().value;
+	  }
+
+	  /**
+	   *  Replaces the value of the current entry.
+	   *
+	   *  @return the previous value.
+	   */
+	  public V setValue(V value) {
+		  Entry<K,V> entry = current();
+		  V oldValue = entry.value;
+		  entry.value = value;
+		  return oldValue;
+	  }
+
+	  private Entry<K,V> current() {
+		  check();
+		  if (index < 0 || index >= map.orderEnd) {
+			  throw new java.util.NoSuchElementException();
+		  }
+		  return map.order[index];
+	  }
+
+	  private void check() {
+		  if (map.modCount != expectedModCount) {
+			  throw new ConcurrentModificationException();
+		  }
+	  }
+  }
+
+  /**
+   *  Returns a Spliterator over the map's entries, in insertion order.  The
+   *  entries are the map's own:  setValue() on one changes the map.
+   *
+   *  The Spliterator reads the insertion-order array in place, skipping the
+   *  holes left by removed keys, and splits it in half by position, which
+   *  lets a parallel stream divide the work evenly.  Creating it changes
+   *  nothing, so it leaves live Cursors and forEach() calls undisturbed.
+   *  If the array has no holes, the Spliterator is SIZED and SUBSIZED.  The
+   *  map may not gain or lose keys while the Spliterator is in use.
+   *
+   *  Performance:  runs in O(1) time.
+   */
+  public Spliterator<java.util.Map.Entry<K,V>> spliterator() {
+	  return new EntrySpliterator<K,V>(this, 0, orderEnd, orderEnd == size);
+  }
+
+  /**
+   *  An EntrySpliterator covers order[index...end-1], skipping nulls.  If
+   *  exact is true, that range held no nulls when the Spliterator was made.
+   */
+  private static class EntrySpliterator<K,V> implements Spliterator<java.util.Map.Entry<K,V>> {
+	  private final HashMap<K,V> map;
+	  private final int expectedModCount;
+	  private int index;
+	  private final int end;
+	  private final boolean exact;
+
+	  EntrySpliterator(HashMap<K,V> map, int index, int end, boolean exact) {
+		  this.map = map;
+		  this.expectedModCount = map.modCount;
+		  this.index = index;
+		  this.end = end;
+		  this.exact = exact;
+	  }
+
+	  public boolean tryAdvance(Consumer<? super java.util.Map.Entry<K,V>> action) {
+		  if (map.modCount != expectedModCount) {
+			  throw new ConcurrentModificationException();
+		  }
+		  Entry<K,V>[] order = map.order;
+		  while (index < end && order[index] == null) {
+			  index++;
+		  }
+		  if (index >= end) {
+			  return false;
+		  }
+		  action.accept(order[index++]);
+		  return true;
+	  }
+
+	  public void forEachRemaining(Consumer<? super java.util.Map.Entry<K,V>> action) {
+		  Entry<K,V>[] order = map.order;
+		  for (; index < end; index++) {
+			  if (order[index] != null) {
+				  action.accept(order[index]);
+			  }
+		  }
+		  if (map.modCount != expectedModCount) {
+			  throw new ConcurrentModificationException();
+		  }
+	  }
+
+	  public Spliterator<java.util.Map.Entry<K,V>> trySplit() {
+		  int mid = (index + end) >>> 1;
+		  if (mid <= index) {
+			  return null;
+		  }
+		  EntrySpliterator<K,V> prefix = new EntrySpliterator<K,V>(map, index, mid, exact);
+		  index = mid;
+		  return prefix;
+	  }
+
+	  /**
+	   *  Returns the number of slots left, which counts the entries exactly
+	   *  if the Spliterator is SIZED and is an upper bound otherwise.
+	   */
+	  public long estimateSize() {
+		  return end - index;
+	  }
+
+	  public int characteristics() {
+		  return (exact ? SIZED | SUBSIZED : 0) | ORDERED | DISTINCT | NONNULL;
+	  }
+  }
+
+
+  /**
+   *  Returns an immutable copy of this map that later changes to the map do
+   *  not affect, and that any number of threads may read without locking.
+   *
+   *  Performance:  runs in O(n) time.
+   */
+  public PersistentHashMap<K,V> toPersistent() {
+	  PersistentHashMap.Builder<K,V> builder = PersistentHashMap.builder();
+	  for (int i = 0; i < orderEnd; i++) {
+		  if (order[i] != null) {
+			  builder.put(order[i].key, order[i].value);
+		  }
+	  }
+	  return builder.build();
+  }
+
+  /**
+   *  Writes the map's entries, in insertion order, to file in the snapshot
+   *  format read by MappedHashMap.open(), replacing any existing file.
+   *  Null values are written as such, without calling valueCodec.
+   *
+   *  @param file the file to write.
+   *  @param keyCodec converts keys to bytes.
+   *  @param valueCodec converts values to bytes.
+   *  @exception java.io.IOException if the file cannot be written.
+   */
+  public void writeSnapshot(java.nio.file.Path file, Codec<? super K> keyCodec,
+		  Codec<? super V> valueCodec) throws java.io.IOException {
+	  Object[] keys = new Object[size];
+	  Object[] values = new Object[size];
+	  int n = 0;
+	  for (int i = 0; i < orderEnd; i++) {
+		  if (order[i] != null) {
+			  keys[n] = order[i].key;
+			  values[n] = order[i].value;
+			  n++;
+		  }
+	  }
+	  MappedHashMap.<K,V>write(file, keys, values, n, keyCodec, valueCodec);
+  }
+
+  /**
+   *  If automatic shrinking is on, trims order if it has become four times
+   *  larger than the map (but not below minOrder), and if the table is less than a quarter as full as
+   *  the load factor allows, shrinks it until it is between a quarter and
+   *  half full, or has minBuckets buckets.  The table is not shrunk while an
+   *  incremental rehash is still migrating buckets.
+   */
+  private void shrinkIfSparse() {
+	  if (!autoShrink) {
+		  return;
+	  }
+	  if (order.length > 4 * size && order.length > minOrder) {
+		  trimOrder(Math.max(2 * size, minOrder));
+	  }
+	  if (oldBuckets != null || buckets.length <= minBuckets ||
+			  size >= buckets.length * loadFactor / 4) {
+		  return;
+	  }
+	  int length = buckets.length;
+	  while (shrunkSize(length) >= minBuckets && size <= shrunkSize(length) * loadFactor / 2) {
+		  length = shrunkSize(length);
+	  }
+	  if (length != buckets.length) {
+		  rehash(length, incrementalRehash, rehashPool);
+	  }
+  }
+
+  /**
+   *  Shrinks the table to the smallest size that holds the current entries
+   *  within the load factor, finishing any incremental rehash, and shrinks
+   *  the insertion-order array to fit.  Unlike automatic shrinking, this
+   *  may go below the size the map was constructed with.  A later put()
+   *  grows the table again as usual.
+   *
+   *  Performance:  runs in O(size) time.
+   */
+  public void trimToSize() {
+	  migrate(Integer.MAX_VALUE);
+	  int length = powerOfTwo ? tableSizeFor(size / loadFactor)
+			  : Math.max(1, (int) Math.ceil(size / loadFactor));
+	  if (length < buckets.length) {
+		  rehash(length, false, rehashPool);
+	  }
+	  trimOrder(size);
+  }
+
   /**
-   *  Doubles bucket size, then rehashes all previous entries into the new buckets
+   *  Compacts order and shrinks it to capacity slots (at least size and
+   *  defaultOrderSize), if it is larger.
+   */
+  private void trimOrder(int capacity) {
+	  capacity = Math.max(capacity, Math.max(size, defaultOrderSize));
+	  if (order.length > capacity) {
+		  if (orderEnd > size) {
+			  compactOrder();
+		  }
+		  order = java.util.Arrays.copyOf(order, capacity);
+	  }
+  }
+
+  /**
+   *  Remove all entries from the dictionary, and shrink the table to its
+   *  default size.
    */
   @SuppressWarnings("unchecked")
-private void rehash() {
-	  List<Entry<K,V>>[] oldBuckets = buckets;
-	  List<K> oldKeys = keys;
-	  buckets = new DList[buckets.length*2+1];
-	  keys = new DList<K>();
+public void clear() {
+	  buckets = newTable(powerOfTwo ? defaultPowerOfTwoSize : this.defaultSize);
+	  trees = (TreeBin<K,V>[]) new TreeBin<?,?>[buckets.length];
+	  oldBuckets = null;
+	  oldTrees = null;
+	  order = newTable(defaultOrderSize);
+	  orderEnd = 0;
+	  size = 0;
+	  modCount++;
+	  if (bloom != null) {
+		  rebuildBloom();
+	  }
+  }
+
+  /**
+   *  Remove all entries from the dictionary.  If keepCapacity is true, the
+   *  table, insertion-order array and Bloom filter are kept and zeroed
+   *  instead of being replaced by small new ones, so a map that is
+   *  repeatedly filled and emptied allocates nothing once it has reached
+   *  its working size.  An incremental rehash in progress is abandoned and
+   *  the larger table kept.
+   *
+   *  @param keepCapacity true to keep the current capacity, false to
+   *         behave like clear().
+   *
+   *  Performance:  runs in O(capacity) time.
+   */
+  public void clear(boolean keepCapacity) {
+	  if (!keepCapacity) {
+		  clear();
+		  return;
+	  }
+	  java.util.Arrays.fill(buckets, null);
+	  java.util.Arrays.fill(trees, null);
+	  oldBuckets = null;
+	  oldTrees = null;
+	  java.util.Arrays.fill(order, 0, orderEnd, null);
+	  orderEnd = 0;
 	  size = 0;
-	  for (K key: oldKeys) {
-		  put(key, get(key, oldBuckets));
+	  modCount++;
+	  if (bloom != null) {
+		  bloom.clear();
+		  bloomRemoves = 0;
+	  }
+  }
+  
+  /**
+   *  Doubles bucket size, then moves all previous entries into the new
+   *  buckets.
+   */
+  private void rehash() {
+	  int length = grownSize(buckets.length);
+	  if (length == buckets.length) {
+		  return;
+	  }
+	  rehash(length, incrementalRehash, rehashPool);
+  }
+
+  /**
+   *  Moves all entries into a table of length buckets, which may be larger
+   *  or smaller than the current one, and records the rehash in the metrics
+   *  and as a RehashEvent.
+   *
+   *  @param incremental true to leave the entries to be migrated later.
+   *  @param pool the pool to rehash a large map on, or null.
+   */
+  private void rehash(int length, boolean incremental, ForkJoinPool pool) {
+	  RehashEvent event = new RehashEvent();
+	  event.begin();
+	  long start = metrics == null ? 0 : System.nanoTime();
+	  int oldLength = buckets.length;
+	  resize(length, incremental, pool);
+	  if (bloom != null) {
+		  rebuildBloom();
+	  }
+	  if (metrics != null) {
+		  metrics.recordRehash(System.nanoTime() - start, true);
+	  }
+	  event.end();
+	  if (event.shouldCommit()) {
+		  event.keyClass = size == 0 ? null : firstKey().getClass().getName();
+		  event.size = size;
+		  event.oldBuckets = oldLength;
+		  event.newBuckets = buckets.length;
+		  event.incremental = incremental;
+		  event.commit();
+	  }
+  }
+
+  /**
+   *  Returns the earliest-inserted key in the map, which must not be empty.
+   */
+  private K firstKey() {
+	  int i = 0;
+	  while (order[i] == null) {
+		  i++;
+	  }
+	  return order[i].key;
+  }
+
+  /**
+   *  Allocates length buckets, then moves all previous entries into them,
+   *  walking the insertion order rather than looking keys up and placing
+   *  each entry by its stored hash code, so no hashCode() is called.
+   *  If incremental is true, only allocates the new buckets and leaves
+   *  the entries to be migrated by later operations.  If pool is not null
+   *  and the map is large, the entries are moved in parallel.
+   */
+  @SuppressWarnings("unchecked")
+private void resize(int length, boolean incremental, ForkJoinPool pool) {
+	  migrate(Integer.MAX_VALUE);
+	  if (incremental) {
+		  oldBuckets = buckets;
+		  oldTrees = trees;
+		  migrateIndex = 0;
+		  buckets = newTable(length);
+		  trees = (TreeBin<K,V>[]) new TreeBin<?,?>[buckets.length];
+		  return;
+	  }
+	  buckets = newTable(length);
+	  trees = (TreeBin<K,V>[]) new TreeBin<?,?>[buckets.length];
+	  if (pool != null && size >= parallelRehashThreshold) {
+		  relinkParallel(pool);
+		  return;
+	  }
+	  for (int i = 0; i < orderEnd; i++) {
+		  Entry<K,V> entry = order[i];
+		  if (entry != null) {
+			  entry.next = null;
+			  addEntry(compFunction(entry.hash), entry.hash, entry);
+		  }
 	  }
   }
   
   
+  /**
+   *  Links every entry of order into the (empty) buckets, in parallel on
+   *  pool.  The entries are grouped by the range of buckets they belong in,
+   *  and each range is filled by one task, so no two tasks touch the same
+   *  bucket.  Within a bucket, entries are linked in insertion order, just
+   *  as the sequential rehash links them.  Chain lengths are not recorded
+   *  in the metrics.
+   */
+  private void relinkParallel(ForkJoinPool pool) {
+	  final int n = orderEnd;
+	  final int[] bucketOf = new int[n];
+	  final int ranges = rangeCount(pool);
+	  forEachParallel(pool, ranges, c -> {
+		  for (int i = chunkStart(c, n, ranges); i < chunkStart(c + 1, n, ranges); i++) {
+			  Entry<K,V> entry = order[i];
+			  if (entry == null) {
+				  bucketOf[i] = -1;
+			  } else {
+				  entry.next = null;
+				  bucketOf[i] = compFunction(entry.hash);
+			  }
+		  }
+	  });
+	  final int[] rangeStart = new int[ranges + 1];
+	  final int[] sorted = partition(pool, bucketOf, n, buckets.length, ranges, rangeStart);
+	  forEachParallel(pool, ranges, r -> {
+		  for (int j = rangeStart[r]; j < rangeStart[r + 1]; j++) {
+			  Entry<K,V> entry = order[sorted[j]];
+			  linkEntry(bucketOf[sorted[j]], entry.hash, entry);
+		  }
+	  });
+  }
+
+  /**
+   *  Adds every key of keys to the map, associated with the value at the
+   *  same index of values, as if by calling put() for each in turn (so a
+   *  key that occurs twice ends up with its later value, and new keys join
+   *  the insertion order in array order).  The table is grown once to its
+   *  final size, and the keys are hashed and placed in parallel on the
+   *  common ForkJoinPool.
+   *
+   *  @exception IllegalArgumentException if the arrays' lengths differ.
+   *  @exception NullPointerException if a key is null.
+   */
+  public void bulkLoad(K[] keys, V[] values) {
+	  bulkLoad(keys, values, ForkJoinPool.commonPool());
+  }
+
+  /**
+   *  Same as bulkLoad(keys, values), but runs on pool.
+   */
+  public void bulkLoad(K[] keys, V[] values, ForkJoinPool pool) {
+	  if (keys.length != values.length) {
+		  throw new IllegalArgumentException("keys and values differ in length");
+	  }
+	  load(keys, values, keys.length, pool);
+  }
+
+  /**
+   *  Adds every entry of entries to the map, as bulkLoad(keys, values, pool)
+   *  does.  The Spliterator is traversed on the calling thread, in
+   *  encounter order; hashing and placing the entries is done on pool.
+   */
+  public void bulkLoad(Spliterator<? extends java.util.Map.Entry<? extends K, ? extends V>> entries,
+		  ForkJoinPool pool) {
+	  long estimate = entries.estimateSize();
+	  int capacity = estimate < Integer.MAX_VALUE - 8 ? (int) Math.max(estimate, 16) : 1 << 20;
+	  Object[][] arrays = { new Object[capacity], new Object[capacity] };
+	  int[] n = { 0 };
+	  entries.forEachRemaining(entry -> {
+		  if (n[0] == arrays[0].length) {
+			  arrays[0] = java.util.Arrays.copyOf(arrays[0], n[0] * 2);
+			  arrays[1] = java.util.Arrays.copyOf(arrays[1], n[0] * 2);
+		  }
+		  arrays[0][n[0]] = entry.getKey();
+		  arrays[1][n[0]] = entry.getValue();
+		  n[0]++;
+	  });
+	  load(arrays[0], arrays[1], n[0], pool);
+  }
+
+  /**
+   *  Adds the first n keys and values, which must be of types K and V.
+   *  Keys are hashed in parallel before the map is changed, so a null key
+   *  or a failing hashCode() leaves the map as it was.
+   */
+  @SuppressWarnings("unchecked")
+  private void load(final Object[] keys, final Object[] values, final int n, ForkJoinPool pool) {
+	  migrate(Integer.MAX_VALUE);
+	  int length = buckets.length;
+	  while ((size + (double) n) / length > loadFactor && grownSize(length) != length) {
+		  length = grownSize(length);
+	  }
+	  final int[] hashes = new int[n];
+	  final int[] bucketOf = new int[n];
+	  final int lengthAfter = length;
+	  final int ranges = rangeCount(pool);
+	  forEachParallel(pool, ranges, c -> {
+		  for (int i = chunkStart(c, n, ranges); i < chunkStart(c + 1, n, ranges); i++) {
+			  hashes[i] = hashOf(keys[i]);
+			  bucketOf[i] = bucketIndex(hashes[i], lengthAfter);
+		  }
+	  });
+	  if (length != buckets.length) {
+		  rehash(length, false, pool);
+	  }
+	  final int[] rangeStart = new int[ranges + 1];
+	  final int[] sorted = partition(pool, bucketOf, n, length, ranges, rangeStart);
+	  final Entry<K,V>[] created = newTable(n);
+	  forEachParallel(pool, ranges, r -> {
+		  for (int j = rangeStart[r]; j < rangeStart[r + 1]; j++) {
+			  int i = sorted[j];
+			  Entry<K,V> entry = findEntry(bucketOf[i], hashes[i], keys[i]);
+			  if (entry != null) {
+				  entry.value = (V) values[i];
+			  } else {
+				  entry = new Entry<K,V>((K) keys[i], (V) values[i], hashes[i]);
+				  linkEntry(bucketOf[i], hashes[i], entry);
+				  created[i] = entry;
+			  }
+		  }
+	  });
+	  if (orderEnd + n > order.length) {
+		  order = java.util.Arrays.copyOf(order, Math.max(order.length * 2, orderEnd + n));
+	  }
+	  for (int i = 0; i < n; i++) {
+		  if (created[i] != null) {
+			  appendOrder(created[i]);
+			  size++;
+			  if (bloom != null) {
+				  bloom.add(created[i].hash);
+			  }
+		  }
+	  }
+  }
+
+  /**
+   *  Returns the number of bucket ranges to divide parallel work into.
+   */
+  private static int rangeCount(ForkJoinPool pool) {
+	  return Math.min(pool.getParallelism() * rangesPerThread, maxRanges);
+  }
+
+  /**
+   *  Returns the first index of chunk c when n indexes are split into
+   *  chunks equal parts.
+   */
+  private static int chunkStart(int c, int n, int chunks) {
+	  return (int) ((long) c * n / chunks);
+  }
+
+  /**
+   *  Sorts the indexes i in 0...n-1 with bucketOf[i] >= 0 by the range of
+   *  buckets that bucketOf[i] falls in, the buckets 0...bucketCount-1 being
+   *  split into ranges equal ranges.  Within a range, indexes stay in
+   *  increasing order.  This is a parallel counting sort:  each chunk of
+   *  indexes counts its members of each range, and then scatters them to
+   *  the positions that the counts give it.
+   *
+   *  @param rangeStart receives, for each range r, the position in the
+   *         result of the first index in range r; rangeStart[ranges] is the
+   *         number of indexes sorted.
+   *  @return the sorted indexes.
+   */
+  private static int[] partition(ForkJoinPool pool, final int[] bucketOf, final int n,
+		  final int bucketCount, final int ranges, int[] rangeStart) {
+	  final int[][] counts = new int[ranges][ranges];
+	  forEachParallel(pool, ranges, c -> {
+		  int[] count = counts[c];
+		  for (int i = chunkStart(c, n, ranges); i < chunkStart(c + 1, n, ranges); i++) {
+			  if (bucketOf[i] >= 0) {
+				  count[(int) ((long) bucketOf[i] * ranges / bucketCount)]++;
+			  }
+		  }
+	  });
+	  int position = 0;
+	  for (int r = 0; r < ranges; r++) {
+		  rangeStart[r] = position;
+		  for (int c = 0; c < ranges; c++) {
+			  int count = counts[c][r];
+			  counts[c][r] = position;
+			  position += count;
+		  }
+	  }
+	  rangeStart[ranges] = position;
+	  final int[] sorted = new int[position];
+	  forEachParallel(pool, ranges, c -> {
+		  int[] next = counts[c];
+		  for (int i = chunkStart(c, n, ranges); i < chunkStart(c + 1, n, ranges); i++) {
+			  if (bucketOf[i] >= 0) {
+				  sorted[next[(int) ((long) bucketOf[i] * ranges / bucketCount)]++] = i;
+			  }
+		  }
+	  });
+	  return sorted;
+  }
+
+  /**
+   *  Calls body on 0...tasks-1 in parallel on pool, and returns once every
+   *  call has finished.
+   */
+  private static void forEachParallel(ForkJoinPool pool, int tasks, IntConsumer body) {
+	  pool.invoke(new RangeAction(0, tasks, body));
+  }
+
+  /**
+   *  A RangeAction calls body on each of lo...hi-1, splitting the range in
+   *  half until each task has one index.
+   */
+  private static class RangeAction extends RecursiveAction {
+	  private static final long serialVersionUID = 1L;
+	  private final int lo;
+	  private final int hi;
+	  private final IntConsumer body;
+
+	  RangeAction(int lo, int hi, IntConsumer body) {
+		  this.lo = lo;
+		  this.hi = hi;
+		  this.body = body;
+	  }
+
+	  protected void compute() {
+		  if (hi - lo == 1) {
+			  body.accept(lo);
+		  } else if (hi > lo) {
+			  int mid = (lo + hi) >>> 1;
+			  invokeAll(new RangeAction(lo, mid, body), new RangeAction(mid, hi, body));
+		  }
+	  }
+  }
+
+  /**
+   *  Moves up to count buckets of oldBuckets into buckets, in index order.
+   *  Ends the incremental rehash once every bucket has been moved.
+   */
+  private void migrate(int count) {
+	  if (metrics != null && oldBuckets != null) {
+		  long start = System.nanoTime();
+		  migrateBuckets(count);
+		  metrics.recordRehash(System.nanoTime() - start, false);
+	  } else {
+		  migrateBuckets(count);
+	  }
+  }
+
+  private void migrateBuckets(int count) {
+	  while (oldBuckets != null && count > 0) {
+		  if (migrateIndex == oldBuckets.length) {
+			  oldBuckets = null;
+			  oldTrees = null;
+			  return;
+		  }
+		  migrateBucket(migrateIndex);
+		  migrateIndex++;
+		  count--;
+	  }
+  }
+
+  /**
+   *  Moves the bucket of oldBuckets that the hash code hash selects, so that
+   *  an update of a key with that hash code during an incremental rehash
+   *  only has to look in buckets.
+   */
+  private void migrateBucketOf(int hash) {
+	  if (oldBuckets != null) {
+		  migrateBucket(compFunction(hash, oldBuckets));
+	  }
+  }
+
+  /**
+   *  Moves every entry of oldBuckets[index] into buckets.  The entries keep
+   *  their places in order, so insertion order is unaffected.
+   */
+  private void migrateBucket(int index) {
+	  Entry<K,V> entry = oldBuckets[index];
+	  if (oldTrees[index] != null) {
+		  entry = oldTrees[index].toChain();
+	  }
+	  Entry<K,V> next;
+	  for (; entry != null; entry = next) {
+		  next = entry.next;
+		  entry.next = null;
+		  addEntry(compFunction(entry.hash), entry.hash, entry);
+	  }
+	  oldBuckets[index] = null;
+	  oldTrees[index] = null;
+  }
+
   /** 
    *  Counts total number of entries that are added to a bucket that already has
    *  at least one other entry in it.
@@ -302,56 +1693,464 @@ private void rehash() {
    *  @return an integer counting total number of collisions
    */
   public int countCollisions() {
+	  int output = countCollisions(buckets, trees);
+	  if (oldBuckets != null) {
+		  output += countCollisions(oldBuckets, oldTrees);
+	  }
+	  return output;
+  }
+
+  private int countCollisions(Entry<K,V>[] buckets, TreeBin<K,V>[] trees) {
 	  int output = 0;
-	  for (List<Entry<K,V>> bucket: buckets) {
-		  if (bucket != null && bucket.length() > 1) {
-			  output += bucket.length() - 1 ;
+	  for (Entry<K,V> bucket: buckets) {
+		  if (bucket != null) {
+			  for (Entry<K,V> entry = bucket.next; entry != null; entry = entry.next) {
+				  output++;
+			  }
+		  }
+	  }
+	  for (TreeBin<K,V> tree: trees) {
+		  if (tree != null) {
+			  output += tree.size() - 1;
 		  }
 	  }
 	  return output;
   }
 
-}
 
+  /**
+   *  A key whose hashCode() is the sum of two small hash codes, like
+   *  graph.VertexPair's, so that (1, 4) and (2, 3) hash alike.
+   */
+  private static class PairKey {
+	  private final int a;
+	  private final int b;
 
+	  PairKey(int a, int b) {
+		  this.a = a;
+		  this.b = b;
+	  }
 
+	  public int hashCode() {
+		  return Integer.valueOf(a).hashCode() + Integer.valueOf(b).hashCode();
+	  }
 
-/**
- *  A class for dictionary entries.
- *
- **/
+	  public boolean equals(Object o) {
+		  return o instanceof PairKey && ((PairKey) o).a == a && ((PairKey) o).b == b;
+	  }
+  }
 
-class Entry<K,V> {
+  /**
+   *  A key with an expensive hashCode() and equals(), each of which counts
+   *  its calls.
+   */
+  private static class SlowKey {
+	  static long hashCodeCalls;
+	  static long equalsCalls;
+	  private final int[] data;
 
-  protected ListNode<K> key;
-  protected V value;
-  
-  Entry(ListNode<K> key, V value) {
-	  this.key = key;
-	  this.value = value;
+	  SlowKey(int seed) {
+		  data = new int[32];
+		  for (int i = 0; i < data.length; i++) {
+			  data[i] = seed * 31 + i;
+		  }
+	  }
+
+	  public int hashCode() {
+		  hashCodeCalls++;
+		  return java.util.Arrays.hashCode(data);
+	  }
+
+	  public boolean equals(Object o) {
+		  equalsCalls++;
+		  return o instanceof SlowKey && java.util.Arrays.equals(data, ((SlowKey) o).data);
+	  }
   }
 
-	/**
-   * key() returns the entry's key
-   *
-   * Running time:  O(1).
+  /**
+   *  Puts n SlowKeys in a heavily loaded map, gets them with equal copies,
+   *  and prints how many hashCode() and equals() calls that took.  Since
+   *  entries cache their hash codes, each put or get calls hashCode() once
+   *  however many rehashes there are, and equals() is called only on
+   *  entries whose hash codes match.
    */
-  K key() {
-    try {
-		return key.item();
-	} catch (InvalidNodeException e) {
-		e.printStackTrace();
-	}
-    return null;
+  private static void benchmarkHashCaching(int n) {
+	  SlowKey[] keys = new SlowKey[n];
+	  SlowKey[] copies = new SlowKey[n];
+	  for (int i = 0; i < n; i++) {
+		  keys[i] = new SlowKey(i);
+		  copies[i] = new SlowKey(i);
+	  }
+	  HashMap<SlowKey,Integer> map = new HashMap<SlowKey,Integer>(4.0);
+	  HashMapMetrics metrics = map.enableMetrics();
+	  SlowKey.hashCodeCalls = 0;
+	  SlowKey.equalsCalls = 0;
+	  long start = System.nanoTime();
+	  for (int i = 0; i < n; i++) {
+		  map.put(keys[i], i);
+	  }
+	  for (int i = 0; i < n; i++) {
+		  map.get(copies[i]);
+	  }
+	  long elapsed = System.nanoTime() - start;
+	  System.out.println("hash caching: " + n + " puts and gets, " +
+			  metrics.rehashCount() + " rehashes, " + SlowKey.hashCodeCalls +
+			  " hashCode() calls, " + SlowKey.equalsCalls + " equals() calls for " +
+			  Math.round(metrics.meanProbeLength() * metrics.operations()) +
+			  " entries examined, " + elapsed / (2 * n) + " ns per operation");
   }
 
-	/**
-   * value() returns the entry's value
-   *
-   * Running time:  O(1).
+  /**
+   *  Throws an exception unless map holds exactly the entries of model, in
+   *  the same insertion order.
+   */
+  private static <K,V> void expectSame(HashMap<K,V> map, java.util.LinkedHashMap<K,V> model,
+		  String context) {
+	  if (map.size() != model.size()) {
+		  throw new IllegalStateException(context + ": size " + map.size() + " != " + model.size());
+	  }
+	  java.util.Iterator<K> expected = model.keySet().iterator();
+	  for (K key : map.keys()) {
+		  K other = expected.next();
+		  if (!key.equals(other)) {
+			  throw new IllegalStateException(context + ": key " + key + " where " + other +
+					  " was expected");
+		  }
+		  if (!java.util.Objects.equals(map.get(key), model.get(key))) {
+			  throw new IllegalStateException(context + ": wrong value for " + key);
+		  }
+	  }
+  }
+
+  /**
+   *  Checks a HashMap against a LinkedHashMap through ops random put()s,
+   *  remove()s and get()s, with occasional clear(), clear(true) and
+   *  trimToSize(), under every combination of modulo or power-of-two
+   *  sizing, incremental rehashing, automatic shrinking and the Bloom
+   *  filter.  The keys include ordinary Strings, 16 Strings with one
+   *  hashCode() and 41 PairKeys with one hashCode(), so buckets are
+   *  treeified and untreeified; keyed hashing is switched on a third of the
+   *  way through and off again at two thirds.  Every 1000 operations, and
+   *  after each clear(), it compares the entries in insertion order (which
+   *  checks the order array through its compactions), the forEach() order,
+   *  and get() of every key, present or not (which checks the Bloom filter
+   *  after removes and clears).
+   */
+  private static void checkModel(int ops) {
+	  java.util.ArrayList<Object> universe = new java.util.ArrayList<Object>();
+	  for (int i = 0; i < 3000; i++) {
+		  universe.add("key" + i);
+	  }
+	  for (int i = 0; i < 16; i++) {
+		  StringBuilder colliding = new StringBuilder();
+		  for (int bit = 0; bit < 4; bit++) {
+			  colliding.append((i & (1 << bit)) == 0 ? "Aa" : "BB");
+		  }
+		  universe.add(colliding.toString());
+	  }
+	  for (int i = 0; i <= 40; i++) {
+		  universe.add(new PairKey(i, 40 - i));
+	  }
+	  for (int options = 0; options < 16; options++) {
+		  boolean powerOfTwo = (options & 1) != 0;
+		  boolean incremental = (options & 2) != 0;
+		  boolean shrink = (options & 4) != 0;
+		  boolean bloom = (options & 8) != 0;
+		  String context = "model check (powerOfTwo " + powerOfTwo + ", incremental " +
+				  incremental + ", autoShrink " + shrink + ", Bloom filter " + bloom + ")";
+		  HashMap<Object,Integer> map = new HashMap<Object,Integer>(16, 0.75, powerOfTwo);
+		  java.util.LinkedHashMap<Object,Integer> model = new java.util.LinkedHashMap<Object,Integer>();
+		  map.setIncrementalRehash(incremental);
+		  map.setAutoShrink(shrink);
+		  map.setBloomFilter(bloom);
+		  java.util.Random random = new java.util.Random(options);
+		  boolean rehashed = false;
+		  for (int op = 1; op <= ops; op++) {
+			  if (op == ops / 3) {
+				  map.setKeyedHashing(true);
+			  } else if (op == 2 * ops / 3) {
+				  map.setKeyedHashing(false);
+			  }
+			  // Grow to a few thousand entries, then drain, then refill.
+			  boolean draining = (op / 20000) % 3 == 1;
+			  Object key = universe.get(random.nextInt(universe.size()));
+			  int action = random.nextInt(100000);
+			  if (action == 0) {
+				  map.clear();
+				  model.clear();
+			  } else if (action == 1) {
+				  map.clear(true);
+				  model.clear();
+			  } else if (action < 20) {
+				  map.trimToSize();
+			  } else if (action < (draining ? 70000 : 30000)) {
+				  if (!java.util.Objects.equals(map.remove(key), model.remove(key))) {
+					  throw new IllegalStateException(context + ": remove(" + key + ") is wrong");
+				  }
+			  } else if (action < 75000) {
+				  if (!java.util.Objects.equals(map.put(key, op), model.put(key, op))) {
+					  throw new IllegalStateException(context + ": put(" + key + ") is wrong");
+				  }
+			  } else if (!java.util.Objects.equals(map.get(key), model.get(key))) {
+				  throw new IllegalStateException(context + ": get(" + key + ") is wrong");
+			  }
+			  rehashed |= map.isRehashing();
+			  if (op % 1000 == 0 || action < 2) {
+				  expectSame(map, model, context);
+				  java.util.Iterator<Object> expected = model.keySet().iterator();
+				  map.forEach((k, v) -> {
+					  if (!k.equals(expected.next())) {
+						  throw new IllegalStateException(context + ": forEach() is out of order");
+					  }
+				  });
+				  for (Object k : universe) {
+					  if (!java.util.Objects.equals(map.get(k), model.get(k))) {
+						  throw new IllegalStateException(context + ": get(" + k + ") is wrong");
+					  }
+				  }
+			  }
+		  }
+		  if (incremental && !rehashed) {
+			  throw new IllegalStateException(context + ": no incremental rehash was seen");
+		  }
+	  }
+	  System.out.println("HashMap agrees with LinkedHashMap under every combination of options");
+  }
+
+  /**
+   *  Checks bulkLoad() and parallel rehashing against a LinkedHashMap on
+   *  pools of 1, 2 and 4 threads:  bulk loads of arrays and of Spliterators
+   *  with duplicate keys into maps that already hold some of the keys, a
+   *  bulk load with a null key (which must leave the map unchanged), and
+   *  enough put()s and remove()s to rehash a large map several times on
+   *  the pool.
    */
-  V value() {
-    return value;
+  private static void checkBulkLoad() {
+	  java.util.Random random = new java.util.Random(3);
+	  for (int threads = 1; threads <= 4; threads *= 2) {
+		  ForkJoinPool pool = new ForkJoinPool(threads);
+		  for (int round = 0; round < 5; round++) {
+			  HashMap<Integer,Integer> map = new HashMap<Integer,Integer>();
+			  java.util.LinkedHashMap<Integer,Integer> model = new java.util.LinkedHashMap<Integer,Integer>();
+			  for (int i = 0; i < 1000; i++) {
+				  int key = random.nextInt(20000);
+				  map.put(key, i);
+				  model.put(key, i);
+			  }
+			  int n = 1 + random.nextInt(50000);
+			  Integer[] keys = new Integer[n];
+			  Integer[] values = new Integer[n];
+			  for (int i = 0; i < n; i++) {
+				  keys[i] = random.nextInt(20000 + n);
+				  values[i] = -i;
+				  model.put(keys[i], values[i]);
+			  }
+			  map.bulkLoad(keys, values, pool);
+			  expectSame(map, model, "bulkLoad() on " + threads + " threads");
+			  java.util.LinkedHashMap<Integer,Integer> more = new java.util.LinkedHashMap<Integer,Integer>();
+			  for (int i = 0; i < 1000; i++) {
+				  more.put(random.nextInt(100000), i);
+			  }
+			  map.bulkLoad(more.entrySet().spliterator(), pool);
+			  model.putAll(more);
+			  expectSame(map, model, "bulkLoad(Spliterator) on " + threads + " threads");
+			  keys[random.nextInt(n)] = null;
+			  try {
+				  map.bulkLoad(keys, values, pool);
+				  throw new IllegalStateException("bulkLoad() accepted a null key");
+			  } catch (NullPointerException e) {
+				  expectSame(map, model, "bulkLoad() with a null key");
+			  }
+		  }
+		  HashMap<Integer,Integer> map = new HashMap<Integer,Integer>();
+		  java.util.LinkedHashMap<Integer,Integer> model = new java.util.LinkedHashMap<Integer,Integer>();
+		  map.setParallelRehash(pool);
+		  for (int i = 0; i < 4 * parallelRehashThreshold; i++) {
+			  int key = random.nextInt(8 * parallelRehashThreshold);
+			  if (random.nextInt(4) == 0) {
+				  map.remove(key);
+				  model.remove(key);
+			  } else {
+				  map.put(key, i);
+				  model.put(key, i);
+			  }
+		  }
+		  expectSame(map, model, "parallel rehash on " + threads + " threads");
+		  pool.shutdown();
+	  }
+	  System.out.println("bulkLoad() and parallel rehashing agree with LinkedHashMap");
   }
 
-}
\ No newline at end of file
+  /**
+   *  Loads n Integer keys one put() at a time, then with bulkLoad() and
+   *  with put() plus parallel rehashing on pools of 1, 2, 4, ... threads
+   *  (up to the number of processors, and at least up to 4, so that a
+   *  machine with fewer cores shows the cost of oversubscribing them), and
+   *  prints the times.
+   */
+  private static void benchmarkBulkLoad(int n) {
+	  Integer[] keys = new Integer[n];
+	  for (int i = 0; i < n; i++) {
+		  keys[i] = i * 7919;
+	  }
+	  long start = System.nanoTime();
+	  HashMap<Integer,Integer> map = new HashMap<Integer,Integer>();
+	  HashMapMetrics metrics = map.enableMetrics();
+	  for (int i = 0; i < n; i++) {
+		  map.put(keys[i], keys[i]);
+	  }
+	  System.out.println("bulk load: " + n + " keys, put() loop " +
+			  (System.nanoTime() - start) / 1000000 + " ms, sequential rehashes " +
+			  metrics.rehashNanos() / 1000000 + " ms total");
+	  int processors = Runtime.getRuntime().availableProcessors();
+	  for (int threads = 1; threads <= Math.max(processors, 4); threads *= 2) {
+		  ForkJoinPool pool = new ForkJoinPool(threads);
+		  map = new HashMap<Integer,Integer>();
+		  start = System.nanoTime();
+		  map.bulkLoad(keys, keys, pool);
+		  long bulkNanos = System.nanoTime() - start;
+		  map = new HashMap<Integer,Integer>();
+		  map.setParallelRehash(pool);
+		  metrics = map.enableMetrics();
+		  for (int i = 0; i < n; i++) {
+			  map.put(keys[i], keys[i]);
+		  }
+		  System.out.println("  " + threads + " threads on " + processors +
+				  " processors: bulkLoad() " + bulkNanos / 1000000 +
+				  " ms, parallel rehashes " + metrics.rehashNanos() / 1000000 + " ms total");
+		  pool.shutdown();
+	  }
+  }
+
+  /**
+   *  Puts and gets 2^k distinct Strings with equal hashCode()s (built from
+   *  the colliding pairs "Aa" and "BB"), then as many ordinary Strings with
+   *  keyed hashing off and on, and prints the time of the last of five
+   *  rounds of each.
+   */
+  private static void benchmarkFlooding(int k) {
+	  int n = 1 << k;
+	  String[] flood = new String[n];
+	  String[] plain = new String[n];
+	  for (int i = 0; i < n; i++) {
+		  StringBuilder key = new StringBuilder();
+		  for (int j = 0; j < k; j++) {
+			  key.append(((i >> j) & 1) == 0 ? "Aa" : "BB");
+		  }
+		  flood[i] = key.toString();
+		  plain[i] = "plain-key-" + i;
+	  }
+	  for (int pass = 0; pass < 3; pass++) {
+		  String[] keys = pass == 0 ? flood : plain;
+		  HashMap<String,String> map = null;
+		  long elapsed = 0;
+		  for (int round = 0; round < 5; round++) {
+			  map = new HashMap<String,String>();
+			  map.setKeyedHashing(pass == 2);
+			  long start = System.nanoTime();
+			  for (int i = 0; i < n; i++) {
+				  map.put(keys[i], keys[i]);
+			  }
+			  for (int i = 0; i < n; i++) {
+				  map.get(keys[i]);
+			  }
+			  elapsed = System.nanoTime() - start;
+		  }
+		  System.out.println("flooding: " + n + (pass == 0 ? " colliding" : " ordinary") +
+				  " Strings, keyed hashing " + (map.isKeyedHashing() ? "on" : "off") +
+				  ", " + elapsed / (2 * n) + " ns per operation");
+	  }
+  }
+
+  /**
+   *  Fills maps with and without a Bloom filter with n String keys, looks
+   *  up n keys that are not in them, and prints the times and the filter's
+   *  measured false-positive rate.
+   */
+  private static void benchmarkBloomFilter(int n) {
+	  String[] keys = new String[n];
+	  String[] missing = new String[n];
+	  for (int i = 0; i < n; i++) {
+		  keys[i] = "key" + i;
+		  missing[i] = "missing" + i;
+		  missing[i].hashCode();
+	  }
+	  for (int pass = 0; pass < 2; pass++) {
+		  HashMap<String,String> map = new HashMap<String,String>();
+		  map.setBloomFilter(pass == 1);
+		  HashMapMetrics metrics = map.enableMetrics();
+		  for (int i = 0; i < n; i++) {
+			  map.put(keys[i], keys[i]);
+		  }
+		  long start = System.nanoTime();
+		  for (int round = 0; round < 5; round++) {
+			  for (int i = 0; i < n; i++) {
+				  map.get(missing[i]);
+			  }
+		  }
+		  long elapsed = System.nanoTime() - start;
+		  System.out.println("bloom filter " + (pass == 1 ? "on" : "off") + ": " + n +
+				  " keys, " + elapsed / (5L * n) + " ns per missed get()" +
+				  (pass == 1 ? String.format(", false-positive rate %.4f (expected %.4f)",
+						  metrics.filterFalsePositiveRate(), metrics.expectedFilterFalsePositiveRate()) : ""));
+	  }
+  }
+
+  /**
+   *  Fills one map of each sizing strategy with keys and prints their
+   *  countCollisions().
+   */
+  private static void compareCollisions(String name, Object[] keys) {
+	  HashMap<Object,Object> legacy = new HashMap<Object,Object>(keys.length, defaultLoadFactor, false);
+	  HashMap<Object,Object> masked = new HashMap<Object,Object>(keys.length, defaultLoadFactor, true);
+	  for (Object key: keys) {
+		  legacy.put(key, key);
+		  masked.put(key, key);
+	  }
+	  System.out.println(name + ": " + keys.length + " keys, modulo sizing " +
+			  legacy.countCollisions() + " collisions in " + legacy.buckets.length +
+			  " buckets, power-of-two sizing " + masked.countCollisions() +
+			  " collisions in " + masked.buckets.length + " buckets");
+  }
+
+  /**
+   *  Collision-distribution benchmark comparing the original modulo-based
+   *  compression function with power-of-two sizing and hash mixing, using
+   *  countCollisions() as the metric, followed by a benchmark of hash code
+   *  caching with keys whose hashCode() and equals() are expensive, a
+   *  scaling benchmark of bulk loading and parallel rehashing, a benchmark
+   *  of missed lookups with and without the Bloom filter, and a benchmark
+   *  of hash flooding.
+   */
+  public static void main(String[] argv) {
+	  int n = 100000;
+	  Object[] keys = new Object[n];
+	  for (int i = 0; i < n; i++) {
+		  keys[i] = i;
+	  }
+	  compareCollisions("sequential Integers", keys);
+	  for (int i = 0; i < n; i++) {
+		  keys[i] = i << 10;
+	  }
+	  compareCollisions("Integers with empty low bits", keys);
+	  for (int i = 0; i < n; i++) {
+		  keys[i] = "key" + i;
+	  }
+	  compareCollisions("Strings", keys);
+	  int side = (int) Math.sqrt(n);
+	  keys = new Object[side * side];
+	  for (int i = 0; i < side; i++) {
+		  for (int j = 0; j < side; j++) {
+			  keys[i * side + j] = new PairKey(i, j);
+		  }
+	  }
+	  compareCollisions("additive pair hashes", keys);
+	  checkModel(300000);
+	  benchmarkHashCaching(n);
+	  checkBulkLoad();
+	  benchmarkBulkLoad(20 * n);
+	  benchmarkBloomFilter(10 * n);
+	  benchmarkFlooding(15);
+  }
+
+}
@@ -0,0 +1,258 @@
+/* HashMapMetrics.java */
+
+package hash;
+
+/**
+ *  A HashMapMetrics records how well a HashMap is performing.  It is
+ *  created by HashMap.enableMetrics() and updated by the map as it works,
+ *  so reading it never scans the table.
+ *
+ *  The probe length of an operation is the number of entries whose keys
+ *  were compared with the search key.  A lookup in a tree bin is counted as
+ *  the depth of a balanced tree of the bin's size.  During an incremental
+ *  rehash, a get() that searches both tables records one probe length for
+ *  each.
+ *
+ *  If the map's Bloom filter is enabled, each get() of a key that is not in
+ *  the map is counted as a filter rejection or, if the filter let it
+ *  through to the table, a false positive.  (A get() that finds a null
+ *  value is counted as a false positive too.)
+ *
+ *  A HashMapMetrics is not thread-safe; it belongs to its map.
+ **/
+
+public class HashMapMetrics {
+
+  /**
+   *  histogramSize is the number of probe-length classes; the last one
+   *  counts every probe length of histogramSize - 1 or more.
+   **/
+  public final static int histogramSize = 17;
+
+  /*  Sizes used by bytesPerEntry(), assuming compressed references:
+   *  an Entry has a 12-byte header, four 4-byte fields, and is padded to 8.
+   */
+  private final static int referenceBytes = 4;
+  private final static int arrayHeaderBytes = 16;
+  private final static int entryBytes = 32;
+
+  private final HashMap<?,?> map;
+  private final long[] histogram = new long[histogramSize];
+  private long operations;
+  private long probes;
+  private int maxProbeLength;
+  private int maxChainLength;
+  private int rehashCount;
+  private long rehashNanos;
+  private long maxRehashNanos;
+  private long filterRejections;
+  private long filterFalsePositives;
+
+  HashMapMetrics(HashMap<?,?> map) {
+    this.map = map;
+  }
+
+  /**
+   *  recordProbe() records one operation that examined length entries.
+   **/
+  void recordProbe(int length) {
+    histogram[Math.min(length, histogramSize - 1)]++;
+    operations++;
+    probes += length;
+    if (length > maxProbeLength) {
+      maxProbeLength = length;
+    }
+  }
+
+  /**
+   *  recordChain() records that a bucket has reached length entries.
+   **/
+  void recordChain(int length) {
+    if (length > maxChainLength) {
+      maxChainLength = length;
+    }
+  }
+
+  /**
+   *  recordRehash() records a rehash, or part of an incremental one, that
+   *  took nanos nanoseconds.  count is false for the later parts of an
+   *  incremental rehash, so that each rehash is counted once.
+   **/
+  void recordRehash(long nanos, boolean count) {
+    if (count) {
+      rehashCount++;
+    }
+    rehashNanos += nanos;
+    if (nanos > maxRehashNanos) {
+      maxRehashNanos = nanos;
+    }
+  }
+
+  /**
+   *  recordFilterMiss() records a get() of a missing key that the Bloom
+   *  filter rejected or, if falsePositive, let through.
+   **/
+  void recordFilterMiss(boolean falsePositive) {
+    if (falsePositive) {
+      filterFalsePositives++;
+    } else {
+      filterRejections++;
+    }
+  }
+
+  /**
+   *  probeHistogram() returns a copy of the probe-length histogram:
+   *  element i is the number of operations that examined i entries (the
+   *  last element counts all longer probes).
+   **/
+  public long[] probeHistogram() {
+    return histogram.clone();
+  }
+
+  /**
+   *  operations() returns the number of probe lengths recorded.
+   **/
+  public long operations() {
+    return operations;
+  }
+
+  /**
+   *  meanProbeLength() returns the average probe length, or 0 if no
+   *  operations have been recorded.
+   **/
+  public double meanProbeLength() {
+    return operations == 0 ? 0 : (double) probes / operations;
+  }
+
+  /**
+   *  maxProbeLength() returns the longest probe length recorded.
+   **/
+  public int maxProbeLength() {
+    return maxProbeLength;
+  }
+
+  /**
+   *  maxChainLength() returns the most entries any bucket has held, counting
+   *  tree bins, since the metrics were enabled or reset.  It is a high-water
+   *  mark:  it does not fall when entries are removed.
+   **/
+  public int maxChainLength() {
+    return maxChainLength;
+  }
+
+  /**
+   *  rehashCount() returns the number of times the table has been resized.
+   **/
+  public int rehashCount() {
+    return rehashCount;
+  }
+
+  /**
+   *  rehashNanos() returns the total time spent rehashing, including time
+   *  spent migrating buckets during incremental rehashes.
+   **/
+  public long rehashNanos() {
+    return rehashNanos;
+  }
+
+  /**
+   *  maxRehashNanos() returns the longest time any single operation spent
+   *  rehashing.  This is the latency spike a caller may see.
+   **/
+  public long maxRehashNanos() {
+    return maxRehashNanos;
+  }
+
+  /**
+   *  filterRejections() returns the number of get() calls the Bloom filter
+   *  answered without searching the table.
+   **/
+  public long filterRejections() {
+    return filterRejections;
+  }
+
+  /**
+   *  filterFalsePositives() returns the number of get() calls for missing
+   *  keys that the Bloom filter failed to reject.
+   **/
+  public long filterFalsePositives() {
+    return filterFalsePositives;
+  }
+
+  /**
+   *  filterFalsePositiveRate() returns the fraction of get() calls for
+   *  missing keys that the Bloom filter failed to reject, or 0 if none have
+   *  been recorded.
+   **/
+  public double filterFalsePositiveRate() {
+    long misses = filterRejections + filterFalsePositives;
+    return misses == 0 ? 0 : (double) filterFalsePositives / misses;
+  }
+
+  /**
+   *  expectedFilterFalsePositiveRate() returns the false-positive rate
+   *  predicted for the Bloom filter as it is now filled, or 0 if the map has
+   *  no filter.
+   **/
+  public double expectedFilterFalsePositiveRate() {
+    BlockedBloomFilter bloom = map.bloomFilter();
+    return bloom == null ? 0 : bloom.expectedFalsePositiveRate();
+  }
+
+  /**
+   *  loadFactor() returns the map's current load:  entries per bucket.
+   **/
+  public double loadFactor() {
+    return (double) map.size() / map.bucketCount();
+  }
+
+  /**
+   *  bytesPerEntry() estimates the heap bytes the map uses per entry:  its
+   *  Entry objects, its bucket, tree and order arrays and its Bloom filter,
+   *  but not tree bin nodes or the keys and values themselves.  An empty
+   *  map returns the size of its arrays.
+   **/
+  public double bytesPerEntry() {
+    long bytes = (long) map.size() * entryBytes;
+    bytes += arrayHeaderBytes * 3 + (long) referenceBytes *
+      (2L * map.bucketCount() + map.orderCapacity());
+    if (map.isRehashing()) {
+      bytes += arrayHeaderBytes * 2 + 2L * referenceBytes * map.oldBucketCount();
+    }
+    BlockedBloomFilter bloom = map.bloomFilter();
+    if (bloom != null) {
+      bytes += arrayHeaderBytes + bloom.bytes();
+    }
+    return (double) bytes / Math.max(1, map.size());
+  }
+
+  /**
+   *  reset() zeroes every counter.
+   **/
+  public void reset() {
+    java.util.Arrays.fill(histogram, 0);
+    operations = 0;
+    probes = 0;
+    maxProbeLength = 0;
+    maxChainLength = 0;
+    rehashCount = 0;
+    rehashNanos = 0;
+    maxRehashNanos = 0;
+    filterRejections = 0;
+    filterFalsePositives = 0;
+  }
+
+  /**
+   *  toString() returns a one-line summary of the metrics.
+   **/
+  public String toString() {
+    return String.format("size=%d load=%.3f bytes/entry=%.1f ops=%d " +
+                         "meanProbe=%.3f maxProbe=%d maxChain=%d rehashes=%d " +
+                         "rehashMs=%.3f maxRehashMs=%.3f filterFpr=%.4f",
+                         map.size(), loadFactor(), bytesPerEntry(), operations,
+                         meanProbeLength(), maxProbeLength, maxChainLength,
+                         rehashCount, rehashNanos / 1e6, maxRehashNanos / 1e6,
+                         filterFalsePositiveRate());
+  }
+
+}
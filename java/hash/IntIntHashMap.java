@@ -0,0 +1,410 @@
+/* IntIntHashMap.java */
+
+package hash;
+
+/**
+ *  IntIntHashMap is a hash map from int keys to int values.  Keys and values
+ *  are stored unboxed in two parallel int arrays and collisions are resolved
+ *  by linear probing, so put, get and remove never allocate (except when
+ *  the table grows) and forEach() never boxes.
+ *
+ *  Slots holding the key 0 are indistinguishable from free slots, so the
+ *  entry for key 0, if any, is kept in separate fields.
+ *
+ *  get() and remove() return 0 for a missing key; use containsKey() to tell
+ *  a missing key from a key whose value is 0.
+ **/
+
+public class IntIntHashMap {
+
+  /**
+   *  keyTable and valueTable are parallel arrays; a keyTable slot holding 0
+   *  is free.  hasZeroKey and zeroValue hold the entry for key 0.
+   *  shift is 32 - log2(keyTable.length), used by slot().
+   **/
+
+  private int[] keyTable;
+  private int[] valueTable;
+  private boolean hasZeroKey;
+  private int zeroValue;
+  private int size;
+  private int shift;
+  private double loadFactor;
+  private final static double defaultLoadFactor = .5;
+  private final static int defaultSize = 32;
+
+  /**
+   *  Construct a new empty map with a default size and load factor.
+   **/
+  public IntIntHashMap() {
+    this(defaultSize);
+  }
+
+  /**
+   *  Construct a new empty map intended to hold roughly sizeEstimate
+   *  entries.
+   **/
+  public IntIntHashMap(int sizeEstimate) {
+    this(sizeEstimate, defaultLoadFactor);
+  }
+
+  /**
+   *  Construct a new empty map intended to hold roughly sizeEstimate
+   *  entries with a load factor of loadFactor, which must be less than 1.
+   **/
+  public IntIntHashMap(int sizeEstimate, double loadFactor) {
+    if (loadFactor <= 0 || loadFactor >= 1) {
+      throw new IllegalArgumentException("loadFactor must be in (0, 1)");
+    }
+    this.loadFactor = loadFactor;
+    allocate(capacityFor(sizeEstimate, loadFactor));
+  }
+
+  private static int capacityFor(int sizeEstimate, double loadFactor) {
+    int capacity = 2;
+    while (capacity < (1 << 30) && capacity * loadFactor < sizeEstimate + 1) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void allocate(int capacity) {
+    keyTable = new int[capacity];
+    valueTable = new int[capacity];
+    shift = 32 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  /**
+   *  slot() maps a key to its home slot by Fibonacci hashing.
+   **/
+  private int slot(int key) {
+    return (key * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   *  find() returns the slot holding key (which must not be 0), or -1.
+   **/
+  private int find(int key) {
+    int mask = keyTable.length - 1;
+    int i = slot(key);
+    int k;
+    while ((k = keyTable[i]) != 0) {
+      if (k == key) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   *  size() returns the number of entries in the map.
+   **/
+  public int size() {
+    return size;
+  }
+
+  /**
+   *  isEmpty() returns true if the map has no entries.
+   **/
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   *  containsKey() returns true if key is in the map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public boolean containsKey(int key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    return find(key) >= 0;
+  }
+
+  /**
+   *  get() returns the value associated with key, or 0 if key is not in the
+   *  map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public int get(int key) {
+    if (key == 0) {
+      return hasZeroKey ? zeroValue : 0;
+    }
+    int i = find(key);
+    return i < 0 ? 0 : valueTable[i];
+  }
+
+  /**
+   *  put() associates value with key.
+   *
+   *  @return the previous value, or 0 if key was not in the map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public int put(int key, int value) {
+    if (key == 0) {
+      int oldValue = hasZeroKey ? zeroValue : 0;
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        size++;
+      }
+      zeroValue = value;
+      return oldValue;
+    }
+    int i = insertionSlot(key);
+    int oldValue = valueTable[i];
+    valueTable[i] = value;
+    return oldValue;
+  }
+
+  /**
+   *  addTo() adds delta to the value associated with key, treating a
+   *  missing key as having the value 0.  Useful for counters.
+   *
+   *  @return the new value.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public int addTo(int key, int delta) {
+    if (key == 0) {
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        zeroValue = 0;
+        size++;
+      }
+      return zeroValue += delta;
+    }
+    int i = insertionSlot(key);
+    return valueTable[i] += delta;
+  }
+
+  /**
+   *  insertionSlot() returns the slot holding key (which must not be 0),
+   *  claiming a free slot with value 0 if key is not in the map.  The table
+   *  grows only when a key is actually added.
+   **/
+  private int insertionSlot(int key) {
+    int mask = keyTable.length - 1;
+    int i = slot(key);
+    int k;
+    while ((k = keyTable[i]) != 0) {
+      if (k == key) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    if (size + 1 > keyTable.length * loadFactor) {
+      rehash(keyTable.length << 1);
+      mask = keyTable.length - 1;
+      i = slot(key);
+      while (keyTable[i] != 0) {
+        i = (i + 1) & mask;
+      }
+    }
+    keyTable[i] = key;
+    valueTable[i] = 0;
+    size++;
+    return i;
+  }
+
+  /**
+   *  remove() removes key from the map.  The entries that follow it in its
+   *  probe run are shifted back, so no tombstones are needed.
+   *
+   *  @return the value that was associated with key, or 0.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public int remove(int key) {
+    if (key == 0) {
+      if (!hasZeroKey) {
+        return 0;
+      }
+      hasZeroKey = false;
+      size--;
+      return zeroValue;
+    }
+    int i = find(key);
+    if (i < 0) {
+      return 0;
+    }
+    int output = valueTable[i];
+    int mask = keyTable.length - 1;
+    int j = i;
+    int k;
+    while ((k = keyTable[j = (j + 1) & mask]) != 0) {
+      if (((j - slot(k)) & mask) >= ((j - i) & mask)) {
+        keyTable[i] = k;
+        valueTable[i] = valueTable[j];
+        i = j;
+      }
+    }
+    keyTable[i] = 0;
+    size--;
+    return output;
+  }
+
+  /**
+   *  clear() removes all entries, keeping the current capacity.
+   **/
+  public void clear() {
+    java.util.Arrays.fill(keyTable, 0);
+    hasZeroKey = false;
+    size = 0;
+  }
+
+  /**
+   *  forEach() calls procedure.apply() once for every entry, in table
+   *  order.  The map must not be modified while forEach() is running.
+   *
+   *  Performance:  runs in O(capacity) time.
+   **/
+  public void forEach(IntIntProcedure procedure) {
+    if (hasZeroKey) {
+      procedure.apply(0, zeroValue);
+    }
+    for (int i = 0; i < keyTable.length; i++) {
+      if (keyTable[i] != 0) {
+        procedure.apply(keyTable[i], valueTable[i]);
+      }
+    }
+  }
+
+  /**
+   *  keys() returns a new array holding every key, in table order.
+   **/
+  public int[] keys() {
+    int[] output = new int[size];
+    int n = 0;
+    if (hasZeroKey) {
+      output[n++] = 0;
+    }
+    for (int k : keyTable) {
+      if (k != 0) {
+        output[n++] = k;
+      }
+    }
+    return output;
+  }
+
+  /**
+   *  rehash() moves every entry into a table of the given capacity.
+   **/
+  private void rehash(int capacity) {
+    int[] oldKeys = keyTable;
+    int[] oldValues = valueTable;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      int k = oldKeys[j];
+      if (k != 0) {
+        int i = slot(k);
+        while (keyTable[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        keyTable[i] = k;
+        valueTable[i] = oldValues[j];
+      }
+    }
+  }
+
+  /**
+   *  testKeys() returns the keys the self-tests of the int-keyed maps use:
+   *  64 keys (0 among them) whose home slot is the first slot of every table
+   *  of up to 2^26 slots, 64 whose home slot is the last (so their probe
+   *  runs wrap around), and 2000 random keys.
+   **/
+  static int[] testKeys() {
+    int inverse = 0x9E3779B9;
+    for (int i = 0; i < 5; i++) {
+      inverse *= 2 - 0x9E3779B9 * inverse;
+    }
+    int[] keys = new int[2128];
+    java.util.Random random = new java.util.Random(1);
+    for (int j = 0; j < 64; j++) {
+      keys[j] = inverse * j;
+      keys[64 + j] = inverse * (-1 - j);
+    }
+    for (int j = 128; j < keys.length; j++) {
+      keys[j] = random.nextInt();
+    }
+    return keys;
+  }
+
+  private static void expect(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  /**
+   *  check() throws an exception unless map holds exactly model's entries,
+   *  comparing size(), keys(), forEach() and get() and containsKey() of
+   *  each of keys.
+   **/
+  private static void check(IntIntHashMap map, java.util.Map<Integer,Integer> model,
+                            int[] keys) {
+    expect(map.size() == model.size(), "size " + map.size() + " != " + model.size());
+    java.util.Set<Integer> seen = new java.util.HashSet<Integer>();
+    for (int key : map.keys()) {
+      expect(model.containsKey(key) && seen.add(key), "keys() has a wrong key " + key);
+    }
+    java.util.Map<Integer,Integer> visited = new java.util.HashMap<Integer,Integer>();
+    map.forEach((key, value) -> {
+      expect(visited.put(key, value) == null, "forEach() visited " + key + " twice");
+    });
+    expect(visited.equals(model), "forEach() does not match the model");
+    for (int key : keys) {
+      expect(map.containsKey(key) == model.containsKey(key), "containsKey(" + key + ") is wrong");
+      expect(map.get(key) == model.getOrDefault(key, 0), "get(" + key + ") is wrong");
+    }
+  }
+
+  /**
+   *  main() checks an IntIntHashMap against a java.util.HashMap through a
+   *  million random put()s, addTo()s, remove()s and get()s on testKeys(),
+   *  whose clusters of colliding keys exercise the backward shift in
+   *  remove(), and whose key 0 exercises the separate zero entry.
+   **/
+  public static void main(String[] argv) {
+    int[] keys = testKeys();
+    IntIntHashMap map = new IntIntHashMap(4);
+    java.util.Map<Integer,Integer> model = new java.util.HashMap<Integer,Integer>();
+    java.util.Random random = new java.util.Random(0);
+    for (int op = 1; op <= 1000000; op++) {
+      int key = keys[random.nextInt(keys.length)];
+      int value = random.nextInt(100) - 50;
+      switch (random.nextInt(6)) {
+      case 0:
+        Integer old = model.put(key, value);
+        expect(map.put(key, value) == (old == null ? 0 : old), "put(" + key + ") is wrong");
+        break;
+      case 1:
+        expect(map.addTo(key, value) == model.merge(key, value, Integer::sum),
+               "addTo(" + key + ") is wrong");
+        break;
+      case 2:
+      case 3:
+        old = model.remove(key);
+        expect(map.remove(key) == (old == null ? 0 : old), "remove(" + key + ") is wrong");
+        break;
+      case 4:
+        expect(map.get(key) == model.getOrDefault(key, 0), "get(" + key + ") is wrong");
+        break;
+      default:
+        if (random.nextInt(50000) == 0) {
+          map.clear();
+          model.clear();
+        }
+      }
+      if (op % 10000 == 0) {
+        check(map, model, keys);
+      }
+    }
+    System.out.println("IntIntHashMap agrees with java.util.HashMap");
+  }
+
+}
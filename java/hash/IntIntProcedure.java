@@ -0,0 +1,17 @@
+/* IntIntProcedure.java */
+
+package hash;
+
+/**
+ *  An IntIntProcedure is called once per entry by IntIntHashMap.forEach(),
+ *  with the key and value passed as unboxed ints.
+ **/
+
+public interface IntIntProcedure {
+
+  /**
+   *  apply() is called with one key and its value.
+   **/
+  void apply(int key, int value);
+
+}
@@ -0,0 +1,360 @@
+/* IntObjectHashMap.java */
+
+package hash;
+
+/**
+ *  IntObjectHashMap is a hash map from int keys to object values.  Keys are
+ *  stored unboxed in an int array with the values in a parallel Object
+ *  array, and collisions are resolved by linear probing, so put, get and
+ *  remove never box the key and never allocate (except when the table
+ *  grows).
+ *
+ *  Slots holding the key 0 are indistinguishable from free slots, so the
+ *  entry for key 0, if any, is kept in separate fields.
+ **/
+
+public class IntObjectHashMap<V> {
+
+  /**
+   *  keyTable and valueTable are parallel arrays; a keyTable slot holding 0
+   *  is free.  hasZeroKey and zeroValue hold the entry for key 0.
+   *  shift is 32 - log2(keyTable.length), used by slot().
+   **/
+
+  private int[] keyTable;
+  private Object[] valueTable;
+  private boolean hasZeroKey;
+  private V zeroValue;
+  private int size;
+  private int shift;
+  private double loadFactor;
+  private final static double defaultLoadFactor = .5;
+  private final static int defaultSize = 32;
+
+  /**
+   *  Construct a new empty map with a default size and load factor.
+   **/
+  public IntObjectHashMap() {
+    this(defaultSize);
+  }
+
+  /**
+   *  Construct a new empty map intended to hold roughly sizeEstimate
+   *  entries.
+   **/
+  public IntObjectHashMap(int sizeEstimate) {
+    this(sizeEstimate, defaultLoadFactor);
+  }
+
+  /**
+   *  Construct a new empty map intended to hold roughly sizeEstimate
+   *  entries with a load factor of loadFactor, which must be less than 1.
+   **/
+  public IntObjectHashMap(int sizeEstimate, double loadFactor) {
+    if (loadFactor <= 0 || loadFactor >= 1) {
+      throw new IllegalArgumentException("loadFactor must be in (0, 1)");
+    }
+    this.loadFactor = loadFactor;
+    allocate(capacityFor(sizeEstimate, loadFactor));
+  }
+
+  private static int capacityFor(int sizeEstimate, double loadFactor) {
+    int capacity = 2;
+    while (capacity < (1 << 30) && capacity * loadFactor < sizeEstimate + 1) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void allocate(int capacity) {
+    keyTable = new int[capacity];
+    valueTable = new Object[capacity];
+    shift = 32 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  /**
+   *  slot() maps a key to its home slot by Fibonacci hashing.
+   **/
+  private int slot(int key) {
+    return (key * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   *  find() returns the slot holding key (which must not be 0), or -1.
+   **/
+  private int find(int key) {
+    int mask = keyTable.length - 1;
+    int i = slot(key);
+    int k;
+    while ((k = keyTable[i]) != 0) {
+      if (k == key) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   *  size() returns the number of entries in the map.
+   **/
+  public int size() {
+    return size;
+  }
+
+  /**
+   *  isEmpty() returns true if the map has no entries.
+   **/
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   *  containsKey() returns true if key is in the map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public boolean containsKey(int key) {
+    if (key == 0) {
+      return hasZeroKey;
+    }
+    return find(key) >= 0;
+  }
+
+  /**
+   *  get() returns the value associated with key, or null if key is not in
+   *  the map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  @SuppressWarnings("unchecked")
+  public V get(int key) {
+    if (key == 0) {
+      return zeroValue;
+    }
+    int i = find(key);
+    return i < 0 ? null : (V) valueTable[i];
+  }
+
+  /**
+   *  put() associates value with key.
+   *
+   *  @return the previous value, or null if key was not in the map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  @SuppressWarnings("unchecked")
+  public V put(int key, V value) {
+    if (key == 0) {
+      V oldValue = zeroValue;
+      if (!hasZeroKey) {
+        hasZeroKey = true;
+        size++;
+      }
+      zeroValue = value;
+      return oldValue;
+    }
+    int mask = keyTable.length - 1;
+    int i = slot(key);
+    int k;
+    while ((k = keyTable[i]) != 0) {
+      if (k == key) {
+        V oldValue = (V) valueTable[i];
+        valueTable[i] = value;
+        return oldValue;
+      }
+      i = (i + 1) & mask;
+    }
+    if (size + 1 > keyTable.length * loadFactor) {
+      rehash(keyTable.length << 1);
+      mask = keyTable.length - 1;
+      i = slot(key);
+      while (keyTable[i] != 0) {
+        i = (i + 1) & mask;
+      }
+    }
+    keyTable[i] = key;
+    valueTable[i] = value;
+    size++;
+    return null;
+  }
+
+  /**
+   *  remove() removes key from the map.  The entries that follow it in its
+   *  probe run are shifted back, so no tombstones are needed.
+   *
+   *  @return the value that was associated with key, or null.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  @SuppressWarnings("unchecked")
+  public V remove(int key) {
+    if (key == 0) {
+      V output = zeroValue;
+      if (hasZeroKey) {
+        hasZeroKey = false;
+        zeroValue = null;
+        size--;
+      }
+      return output;
+    }
+    int i = find(key);
+    if (i < 0) {
+      return null;
+    }
+    V output = (V) valueTable[i];
+    int mask = keyTable.length - 1;
+    int j = i;
+    int k;
+    while ((k = keyTable[j = (j + 1) & mask]) != 0) {
+      if (((j - slot(k)) & mask) >= ((j - i) & mask)) {
+        keyTable[i] = k;
+        valueTable[i] = valueTable[j];
+        i = j;
+      }
+    }
+    keyTable[i] = 0;
+    valueTable[i] = null;
+    size--;
+    return output;
+  }
+
+  /**
+   *  clear() removes all entries, keeping the current capacity.
+   **/
+  public void clear() {
+    java.util.Arrays.fill(keyTable, 0);
+    java.util.Arrays.fill(valueTable, null);
+    hasZeroKey = false;
+    zeroValue = null;
+    size = 0;
+  }
+
+  /**
+   *  forEach() calls procedure.apply() once for every entry, in table
+   *  order.  The map must not be modified while forEach() is running.
+   *
+   *  Performance:  runs in O(capacity) time.
+   **/
+  @SuppressWarnings("unchecked")
+  public void forEach(IntObjectProcedure<? super V> procedure) {
+    if (hasZeroKey) {
+      procedure.apply(0, zeroValue);
+    }
+    for (int i = 0; i < keyTable.length; i++) {
+      if (keyTable[i] != 0) {
+        procedure.apply(keyTable[i], (V) valueTable[i]);
+      }
+    }
+  }
+
+  /**
+   *  keys() returns a new array holding every key, in table order.
+   **/
+  public int[] keys() {
+    int[] output = new int[size];
+    int n = 0;
+    if (hasZeroKey) {
+      output[n++] = 0;
+    }
+    for (int k : keyTable) {
+      if (k != 0) {
+        output[n++] = k;
+      }
+    }
+    return output;
+  }
+
+  /**
+   *  rehash() moves every entry into a table of the given capacity.
+   **/
+  private void rehash(int capacity) {
+    int[] oldKeys = keyTable;
+    Object[] oldValues = valueTable;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      int k = oldKeys[j];
+      if (k != 0) {
+        int i = slot(k);
+        while (keyTable[i] != 0) {
+          i = (i + 1) & mask;
+        }
+        keyTable[i] = k;
+        valueTable[i] = oldValues[j];
+      }
+    }
+  }
+
+  private static void expect(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  /**
+   *  check() throws an exception unless map holds exactly model's entries,
+   *  comparing size(), keys(), forEach() and get() and containsKey() of
+   *  each of keys.
+   **/
+  private static void check(IntObjectHashMap<String> map, java.util.Map<Integer,String> model,
+                            int[] keys) {
+    expect(map.size() == model.size(), "size " + map.size() + " != " + model.size());
+    java.util.Set<Integer> seen = new java.util.HashSet<Integer>();
+    for (int key : map.keys()) {
+      expect(model.containsKey(key) && seen.add(key), "keys() has a wrong key " + key);
+    }
+    java.util.Map<Integer,String> visited = new java.util.HashMap<Integer,String>();
+    map.forEach((key, value) -> {
+      expect(!visited.containsKey(key), "forEach() visited " + key + " twice");
+      visited.put(key, value);
+    });
+    expect(visited.equals(model), "forEach() does not match the model");
+    for (int key : keys) {
+      expect(map.containsKey(key) == model.containsKey(key), "containsKey(" + key + ") is wrong");
+      expect(java.util.Objects.equals(map.get(key), model.get(key)), "get(" + key + ") is wrong");
+    }
+  }
+
+  /**
+   *  main() checks an IntObjectHashMap against a java.util.HashMap through
+   *  a million random put()s (some of null values), remove()s and get()s on
+   *  IntIntHashMap.testKeys(), whose clusters of colliding keys exercise
+   *  the backward shift in remove(), and whose key 0 exercises the separate
+   *  zero entry.
+   **/
+  public static void main(String[] argv) {
+    int[] keys = IntIntHashMap.testKeys();
+    IntObjectHashMap<String> map = new IntObjectHashMap<String>(4);
+    java.util.Map<Integer,String> model = new java.util.HashMap<Integer,String>();
+    java.util.Random random = new java.util.Random(0);
+    for (int op = 1; op <= 1000000; op++) {
+      int key = keys[random.nextInt(keys.length)];
+      String value = random.nextInt(10) == 0 ? null : "value" + op;
+      switch (random.nextInt(5)) {
+      case 0:
+      case 1:
+        expect(java.util.Objects.equals(map.put(key, value), model.put(key, value)),
+               "put(" + key + ") is wrong");
+        break;
+      case 2:
+      case 3:
+        expect(java.util.Objects.equals(map.remove(key), model.remove(key)),
+               "remove(" + key + ") is wrong");
+        break;
+      default:
+        expect(java.util.Objects.equals(map.get(key), model.get(key)),
+               "get(" + key + ") is wrong");
+        if (random.nextInt(50000) == 0) {
+          map.clear();
+          model.clear();
+        }
+      }
+      if (op % 10000 == 0) {
+        check(map, model, keys);
+      }
+    }
+    System.out.println("IntObjectHashMap agrees with java.util.HashMap");
+  }
+
+}
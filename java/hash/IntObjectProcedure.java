@@ -0,0 +1,17 @@
+/* IntObjectProcedure.java */
+
+package hash;
+
+/**
+ *  An IntObjectProcedure is called once per entry by
+ *  IntObjectHashMap.forEach(), with the key passed as an unboxed int.
+ **/
+
+public interface IntObjectProcedure<V> {
+
+  /**
+   *  apply() is called with one key and its value.
+   **/
+  void apply(int key, V value);
+
+}
@@ -0,0 +1,40 @@
+/* LongChainEvent.java */
+
+package hash;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ *  A LongChainEvent is a Java Flight Recorder event committed when one
+ *  bucket of a HashMap collects so many entries that its chain is turned
+ *  into a tree bin, and again each time that tree bin doubles in size.
+ *  Such buckets almost always mean a poor hashCode() (or keys chosen to
+ *  collide), so the event names the key class.
+ **/
+
+@Name("hash.LongChain")
+@Label("HashMap Long Chain")
+@Category("Hash Tables")
+@Description("A HashMap bucket holds an unusually large number of entries")
+class LongChainEvent extends Event {
+
+  @Label("Key Class")
+  String keyClass;
+
+  @Label("Chain Length")
+  int length;
+
+  @Label("Bucket")
+  int bucket;
+
+  @Label("Buckets")
+  int buckets;
+
+  @Label("Size")
+  int size;
+
+}
@@ -0,0 +1,110 @@
+/* Map.java */
+
+package hash;
+
+import java.util.function.BiConsumer;
+
+import list.ImmutableList;
+
+/**
+ *  A Map is a mutable map ADT.  No implementation is provided.
+ *
+ *  HashMap (separate chaining) and OpenHashMap (open addressing) both
+ *  extend this class, so code that holds a Map can switch between them by
+ *  changing only the constructor call.
+ **/
+
+public abstract class Map<K,V> {
+
+  /**
+   *  size is the number of entries in the map.
+   **/
+
+  protected int size;
+
+  /**
+   *  size() returns the number of entries stored in the map.
+   *
+   *  @return number of entries in the map.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public int size() {
+    return size;
+  }
+
+  /**
+   *  isEmpty() returns true if this Map is empty, false otherwise.
+   *
+   *  @return true if the map has no entries; false otherwise.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   *  put() associates value with key.  If key is already in the map, its
+   *  value is replaced.
+   *
+   *  @param key the key by which the entry can be retrieved.
+   *  @param value an arbitrary object.
+   *  @return the previous value, or null if key was not in the map.
+   **/
+  public abstract V put(K key, V value);
+
+  /**
+   *  get() returns the value associated with key, or null if key is not in
+   *  the map.
+   *
+   *  @param key the search key.
+   *  @return the value associated with key, or null.
+   **/
+  public abstract V get(K key);
+
+  /**
+   *  remove() removes the entry with the specified key, if there is one.
+   *
+   *  @param key the search key.
+   *  @return the value that was associated with key, or null.
+   **/
+  public abstract V remove(K key);
+
+  /**
+   *  keys() returns a list of this map's keys that cannot be modified.
+   *
+   *  @return ImmutableList containing this map's keys.
+   **/
+  public abstract ImmutableList<K> keys();
+
+  /**
+   *  forEach() calls action once for each entry of the map.  The map must
+   *  not be changed by action.  This implementation calls get() for each
+   *  key of keys(); subclasses override it to walk their storage directly.
+   *
+   *  @param action the procedure to call with each key and its value.
+   *
+   *  Performance:  runs in O(n) time.
+   **/
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (K key : keys()) {
+      action.accept(key, get(key));
+    }
+  }
+
+  /**
+   *  clear() removes all entries from the map.
+   **/
+  public abstract void clear();
+
+  /**
+   *  countCollisions() returns a measure of how far the map's keys are from
+   *  the slots their hash codes select.  Zero means every key is in its
+   *  home slot.
+   *
+   *  @return an integer counting total number of collisions
+   **/
+  public abstract int countCollisions();
+
+}
@@ -0,0 +1,311 @@
+/* MappedHashMap.java */
+
+package hash;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import list.ImmutableList;
+
+/**
+ *  A MappedHashMap is a read-only hash map that answers get() straight from
+ *  a snapshot file mapped into memory with FileChannel.map().  Opening one
+ *  reads only the file's header, so startup cost does not depend on the
+ *  number of entries; each get() touches just the pages it probes.
+ *
+ *  Snapshots are written by HashMap.writeSnapshot().  The file layout is
+ *  (all integers big-endian):
+ *
+ *      header:  magic, version, size, slotCount  (4 ints)
+ *      slots:   slotCount pairs of (tag, recordOffset)  (2 ints each)
+ *      records: keyLength, key bytes, valueLength, value bytes
+ *
+ *  Keys and values are converted to and from bytes by Codecs.  A null
+ *  value is written as a valueLength of -1 with no bytes, and never reaches
+ *  the value Codec.  (Version 1 files, which predate null values, are read
+ *  the same way.)  A slot's
+ *  tag is the hash of the encoded key (never 0); a tag of 0 marks a free
+ *  slot.  The slot table is open-addressed with linear probing and at most
+ *  half full.  Records appear in the map's insertion order.
+ *
+ *  A snapshot file is limited to 2 GB, the largest region one MappedByteBuffer
+ *  can map.  The mapping is released when the MappedHashMap is collected.
+ **/
+
+public class MappedHashMap<K,V> {
+
+  private final static int magic = 0x484d4150;
+  private final static int version = 2;
+  private final static int headerSize = 16;
+
+  private final MappedByteBuffer buffer;
+  private final Codec<K> keyCodec;
+  private final Codec<V> valueCodec;
+  private final int size;
+  private final int slotCount;
+  private final int shift;
+
+  private MappedHashMap(MappedByteBuffer buffer, Codec<K> keyCodec,
+                        Codec<V> valueCodec) throws IOException {
+    this.buffer = buffer;
+    this.keyCodec = keyCodec;
+    this.valueCodec = valueCodec;
+    if (buffer.capacity() < headerSize || buffer.getInt(0) != magic) {
+      throw new IOException("not a hash map snapshot");
+    }
+    if (buffer.getInt(4) != version && buffer.getInt(4) != 1) {
+      throw new IOException("unsupported snapshot version " + buffer.getInt(4));
+    }
+    size = buffer.getInt(8);
+    slotCount = buffer.getInt(12);
+    if (Integer.bitCount(slotCount) != 1 ||
+        headerSize + 8L * slotCount > buffer.capacity()) {
+      throw new IOException("corrupt snapshot header");
+    }
+    shift = 32 - Integer.numberOfTrailingZeros(slotCount);
+  }
+
+  /**
+   *  open() maps the snapshot file read-only.  Only the header is read.
+   *
+   *  @param file a file written by HashMap.writeSnapshot().
+   *  @param keyCodec the codec the keys were written with.
+   *  @param valueCodec the codec the values were written with.
+   *  @exception IOException if the file cannot be mapped or is not a
+   *             snapshot.
+   **/
+  public static <K,V> MappedHashMap<K,V> open(Path file, Codec<K> keyCodec,
+                                              Codec<V> valueCodec)
+      throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+    try {
+      MappedByteBuffer buffer =
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new MappedHashMap<K,V>(buffer, keyCodec, valueCodec);
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   *  write() writes the first n keys and values to file in snapshot form.
+   *  The keys must be distinct and non-null; values may be null.
+   **/
+  static <K,V> void write(Path file, Object[] keys, Object[] values, int n,
+                          Codec<? super K> keyCodec,
+                          Codec<? super V> valueCodec) throws IOException {
+    byte[][] encodedKeys = new byte[n][];
+    byte[][] encodedValues = new byte[n][];
+    int slotCount = 2;
+    while (slotCount < 2L * n + 1) {
+      slotCount <<= 1;
+    }
+    int[] slots = new int[2 * slotCount];
+    long offset = headerSize + 8L * slotCount;
+    int shift = 32 - Integer.numberOfTrailingZeros(slotCount);
+    for (int j = 0; j < n; j++) {
+      @SuppressWarnings("unchecked")
+      byte[] key = keyCodec.encode((K) keys[j]);
+      @SuppressWarnings("unchecked")
+      byte[] value = values[j] == null ? null : valueCodec.encode((V) values[j]);
+      encodedKeys[j] = key;
+      encodedValues[j] = value;
+      int tag = tag(key);
+      int i = slot(tag, shift);
+      while (slots[2 * i] != 0) {
+        i = (i + 1) & (slotCount - 1);
+      }
+      slots[2 * i] = tag;
+      slots[2 * i + 1] = (int) offset;
+      offset += 8L + key.length + (value == null ? 0 : value.length);
+      if (offset > Integer.MAX_VALUE) {
+        throw new IOException("snapshot would exceed 2 GB");
+      }
+    }
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+      Files.newOutputStream(file), 1 << 16));
+    try {
+      out.writeInt(magic);
+      out.writeInt(version);
+      out.writeInt(n);
+      out.writeInt(slotCount);
+      for (int slot : slots) {
+        out.writeInt(slot);
+      }
+      for (int j = 0; j < n; j++) {
+        out.writeInt(encodedKeys[j].length);
+        out.write(encodedKeys[j]);
+        if (encodedValues[j] == null) {
+          out.writeInt(-1);
+        } else {
+          out.writeInt(encodedValues[j].length);
+          out.write(encodedValues[j]);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static int tag(byte[] key) {
+    int h = OffHeapHashMap.hashBytes(key, key.length);
+    return h == 0 ? 1 : h;
+  }
+
+  private static int slot(int tag, int shift) {
+    return (tag * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   *  size() returns the number of entries in the snapshot.
+   **/
+  public int size() {
+    return size;
+  }
+
+  /**
+   *  isEmpty() returns true if the snapshot has no entries.
+   **/
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   *  find() returns the offset of the record for the encoded key, or -1.
+   **/
+  private int find(byte[] key) {
+    int tag = tag(key);
+    int i = slot(tag, shift);
+    while (true) {
+      int position = headerSize + 8 * i;
+      int t = buffer.getInt(position);
+      if (t == 0) {
+        return -1;
+      }
+      if (t == tag) {
+        int record = buffer.getInt(position + 4);
+        if (keyEquals(record, key)) {
+          return record;
+        }
+      }
+      i = (i + 1) & (slotCount - 1);
+    }
+  }
+
+  /**
+   *  keyEquals() returns true if the record at offset record holds key.
+   **/
+  private boolean keyEquals(int record, byte[] key) {
+    if (buffer.getInt(record) != key.length) {
+      return false;
+    }
+    for (int i = 0; i < key.length; i++) {
+      if (buffer.get(record + 4 + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   *  get() returns the value associated with key, or null if key is not in
+   *  the snapshot or its value is null (containsKey() tells them apart).
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public V get(K key) {
+    byte[] encoded = keyCodec.encode(key);
+    int record = find(encoded);
+    if (record < 0) {
+      return null;
+    }
+    int valueAt = record + 4 + encoded.length;
+    int valueLength = buffer.getInt(valueAt);
+    return valueLength < 0 ? null : valueCodec.decode(buffer, valueAt + 4, valueLength);
+  }
+
+  /**
+   *  containsKey() returns true if key is in the snapshot.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public boolean containsKey(K key) {
+    return find(keyCodec.encode(key)) >= 0;
+  }
+
+  /**
+   *  keys() returns a list of the snapshot's keys in the original map's
+   *  insertion order.  This decodes every record, so it touches the whole
+   *  file.
+   *
+   *  Performance:  runs in O(n) time.
+   **/
+  public ImmutableList<K> keys() {
+    ImmutableList.Builder<K> output = ImmutableList.builder();
+    int record = headerSize + 8 * slotCount;
+    for (int j = 0; j < size; j++) {
+      int keyLength = buffer.getInt(record);
+      output.add(keyCodec.decode(buffer, record + 4, keyLength));
+      record += 4 + keyLength;
+      record += 4 + Math.max(0, buffer.getInt(record));
+    }
+    return output.build();
+  }
+
+  private static void expect(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  /**
+   *  main() writes a HashMap with some null values to a snapshot, opens it,
+   *  and checks that every key maps to the same value (null included), that
+   *  keys() is in insertion order, and that missing keys are not found.
+   **/
+  public static void main(String[] argv) throws IOException {
+    HashMap<String,Integer> map = new HashMap<String,Integer>();
+    java.util.LinkedHashMap<String,Integer> model = new java.util.LinkedHashMap<String,Integer>();
+    java.util.Random random = new java.util.Random(0);
+    for (int i = 0; i < 100000; i++) {
+      String key = "key" + random.nextInt(200000);
+      Integer value = random.nextInt(10) == 0 ? null : random.nextInt();
+      map.put(key, value);
+      model.put(key, value);
+    }
+    map.put("", null);
+    model.put("", null);
+    Path file = Files.createTempFile("snapshot", ".hm");
+    try {
+      map.writeSnapshot(file, Codec.STRING, Codec.INTEGER);
+      MappedHashMap<String,Integer> mapped = open(file, Codec.STRING, Codec.INTEGER);
+      expect(mapped.size() == model.size(), "size " + mapped.size() + " != " + model.size());
+      for (java.util.Map.Entry<String,Integer> entry : model.entrySet()) {
+        expect(mapped.containsKey(entry.getKey()), entry.getKey() + " is missing");
+        expect(java.util.Objects.equals(mapped.get(entry.getKey()), entry.getValue()),
+               "wrong value for " + entry.getKey());
+      }
+      expect(mapped.get("") == null && mapped.containsKey(""), "null value is wrong");
+      for (int i = 0; i < 1000; i++) {
+        String key = "miss" + i;
+        expect(mapped.get(key) == null && !mapped.containsKey(key), key + " was found");
+      }
+      java.util.Iterator<String> expected = model.keySet().iterator();
+      for (String key : mapped.keys()) {
+        expect(key.equals(expected.next()), "keys() is out of order at " + key);
+      }
+      expect(!expected.hasNext(), "keys() is too short");
+    } finally {
+      Files.delete(file);
+    }
+    System.out.println("A snapshot of " + model.size() +
+                       " entries, some with null values, reads back unchanged");
+  }
+
+}
@@ -0,0 +1,362 @@
+/* ObjectIntHashMap.java */
+
+package hash;
+
+import list.ImmutableList;
+
+/**
+ *  ObjectIntHashMap is a hash map from object keys to int values, such as
+ *  counters.  Keys are stored in an Object array with the values unboxed in
+ *  a parallel int array, and collisions are resolved by linear probing, so
+ *  put, get, addTo and remove never box the value and never allocate
+ *  (except when the table grows).
+ *
+ *  All objects used as keys must have a valid hashCode() method; null keys
+ *  are not allowed.  get() and remove() return 0 for a missing key; use
+ *  containsKey() to tell a missing key from a key whose value is 0.
+ **/
+
+public class ObjectIntHashMap<K> {
+
+  /**
+   *  keyTable and valueTable are parallel arrays; a null keyTable slot is
+   *  free.  shift is 32 - log2(keyTable.length), used by slot().
+   **/
+
+  private Object[] keyTable;
+  private int[] valueTable;
+  private int size;
+  private int shift;
+  private double loadFactor;
+  private final static double defaultLoadFactor = .5;
+  private final static int defaultSize = 32;
+
+  /**
+   *  Construct a new empty map with a default size and load factor.
+   **/
+  public ObjectIntHashMap() {
+    this(defaultSize);
+  }
+
+  /**
+   *  Construct a new empty map intended to hold roughly sizeEstimate
+   *  entries.
+   **/
+  public ObjectIntHashMap(int sizeEstimate) {
+    this(sizeEstimate, defaultLoadFactor);
+  }
+
+  /**
+   *  Construct a new empty map intended to hold roughly sizeEstimate
+   *  entries with a load factor of loadFactor, which must be less than 1.
+   **/
+  public ObjectIntHashMap(int sizeEstimate, double loadFactor) {
+    if (loadFactor <= 0 || loadFactor >= 1) {
+      throw new IllegalArgumentException("loadFactor must be in (0, 1)");
+    }
+    this.loadFactor = loadFactor;
+    allocate(capacityFor(sizeEstimate, loadFactor));
+  }
+
+  private static int capacityFor(int sizeEstimate, double loadFactor) {
+    int capacity = 2;
+    while (capacity < (1 << 30) && capacity * loadFactor < sizeEstimate + 1) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  private void allocate(int capacity) {
+    keyTable = new Object[capacity];
+    valueTable = new int[capacity];
+    shift = 32 - Integer.numberOfTrailingZeros(capacity);
+  }
+
+  /**
+   *  slot() maps a hash code to its home slot by Fibonacci hashing.
+   **/
+  private int slot(int code) {
+    return (code * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   *  find() returns the slot holding key, or -1.
+   **/
+  private int find(Object key) {
+    int mask = keyTable.length - 1;
+    int i = slot(key.hashCode());
+    Object k;
+    while ((k = keyTable[i]) != null) {
+      if (k == key || k.equals(key)) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   *  size() returns the number of entries in the map.
+   **/
+  public int size() {
+    return size;
+  }
+
+  /**
+   *  isEmpty() returns true if the map has no entries.
+   **/
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   *  containsKey() returns true if key is in the map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public boolean containsKey(K key) {
+    return find(key) >= 0;
+  }
+
+  /**
+   *  get() returns the value associated with key, or 0 if key is not in the
+   *  map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public int get(K key) {
+    int i = find(key);
+    return i < 0 ? 0 : valueTable[i];
+  }
+
+  /**
+   *  put() associates value with key.
+   *
+   *  @return the previous value, or 0 if key was not in the map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public int put(K key, int value) {
+    int i = insertionSlot(key);
+    int oldValue = valueTable[i];
+    valueTable[i] = value;
+    return oldValue;
+  }
+
+  /**
+   *  addTo() adds delta to the value associated with key, treating a
+   *  missing key as having the value 0.
+   *
+   *  @return the new value.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public int addTo(K key, int delta) {
+    int i = insertionSlot(key);
+    return valueTable[i] += delta;
+  }
+
+  /**
+   *  insertionSlot() returns the slot holding key, claiming a free slot with
+   *  value 0 if key is not in the map.  The table grows only when a key is
+   *  actually added.
+   **/
+  private int insertionSlot(K key) {
+    int code = key.hashCode();
+    int mask = keyTable.length - 1;
+    int i = slot(code);
+    Object k;
+    while ((k = keyTable[i]) != null) {
+      if (k == key || k.equals(key)) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    if (size + 1 > keyTable.length * loadFactor) {
+      rehash(keyTable.length << 1);
+      mask = keyTable.length - 1;
+      i = slot(code);
+      while (keyTable[i] != null) {
+        i = (i + 1) & mask;
+      }
+    }
+    keyTable[i] = key;
+    valueTable[i] = 0;
+    size++;
+    return i;
+  }
+
+  /**
+   *  remove() removes key from the map.  The entries that follow it in its
+   *  probe run are shifted back, so no tombstones are needed.
+   *
+   *  @return the value that was associated with key, or 0.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public int remove(K key) {
+    int i = find(key);
+    if (i < 0) {
+      return 0;
+    }
+    int output = valueTable[i];
+    int mask = keyTable.length - 1;
+    int j = i;
+    Object k;
+    while ((k = keyTable[j = (j + 1) & mask]) != null) {
+      if (((j - slot(k.hashCode())) & mask) >= ((j - i) & mask)) {
+        keyTable[i] = k;
+        valueTable[i] = valueTable[j];
+        i = j;
+      }
+    }
+    keyTable[i] = null;
+    size--;
+    return output;
+  }
+
+  /**
+   *  clear() removes all entries, keeping the current capacity.
+   **/
+  public void clear() {
+    java.util.Arrays.fill(keyTable, null);
+    size = 0;
+  }
+
+  /**
+   *  forEach() calls procedure.apply() once for every entry, in table
+   *  order.  The map must not be modified while forEach() is running.
+   *
+   *  Performance:  runs in O(capacity) time.
+   **/
+  @SuppressWarnings("unchecked")
+  public void forEach(ObjectIntProcedure<? super K> procedure) {
+    for (int i = 0; i < keyTable.length; i++) {
+      if (keyTable[i] != null) {
+        procedure.apply((K) keyTable[i], valueTable[i]);
+      }
+    }
+  }
+
+  /**
+   *  keys() returns a list of the map's keys, in table order.  The list is a
+   *  copy:  later changes to the map are not reflected in it.
+   **/
+  @SuppressWarnings("unchecked")
+  public ImmutableList<K> keys() {
+    ImmutableList.Builder<K> output = ImmutableList.builder();
+    for (Object k : keyTable) {
+      if (k != null) {
+        output.add((K) k);
+      }
+    }
+    return output.build();
+  }
+
+  /**
+   *  rehash() moves every entry into a table of the given capacity.
+   **/
+  private void rehash(int capacity) {
+    Object[] oldKeys = keyTable;
+    int[] oldValues = valueTable;
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      Object k = oldKeys[j];
+      if (k != null) {
+        int i = slot(k.hashCode());
+        while (keyTable[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keyTable[i] = k;
+        valueTable[i] = oldValues[j];
+      }
+    }
+  }
+
+  private static void expect(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  /**
+   *  check() throws an exception unless map holds exactly model's entries,
+   *  comparing size(), keys(), forEach() and get() and containsKey() of
+   *  each of keys.
+   **/
+  private static void check(ObjectIntHashMap<Object> map, java.util.Map<Object,Integer> model,
+                            Object[] keys) {
+    expect(map.size() == model.size(), "size " + map.size() + " != " + model.size());
+    java.util.Set<Object> seen = new java.util.HashSet<Object>();
+    for (Object key : map.keys()) {
+      expect(model.containsKey(key) && seen.add(key), "keys() has a wrong key " + key);
+    }
+    java.util.Map<Object,Integer> visited = new java.util.HashMap<Object,Integer>();
+    map.forEach((key, value) -> {
+      expect(visited.put(key, value) == null, "forEach() visited " + key + " twice");
+    });
+    expect(visited.equals(model), "forEach() does not match the model");
+    for (Object key : keys) {
+      expect(map.containsKey(key) == model.containsKey(key), "containsKey(" + key + ") is wrong");
+      expect(map.get(key) == model.getOrDefault(key, 0), "get(" + key + ") is wrong");
+    }
+  }
+
+  /**
+   *  main() checks an ObjectIntHashMap against a java.util.HashMap through
+   *  a million random put()s, addTo()s, remove()s and get()s.  The keys are
+   *  the Integers of IntIntHashMap.testKeys() (0 among them), whose
+   *  clusters of colliding hash codes exercise the backward shift in
+   *  remove(), and 64 Strings with one hashCode().
+   **/
+  public static void main(String[] argv) {
+    int[] ints = IntIntHashMap.testKeys();
+    Object[] keys = new Object[ints.length + 64];
+    for (int j = 0; j < ints.length; j++) {
+      keys[j] = ints[j];
+    }
+    for (int j = 0; j < 64; j++) {
+      StringBuilder colliding = new StringBuilder();
+      for (int bit = 0; bit < 6; bit++) {
+        colliding.append((j & (1 << bit)) == 0 ? "Aa" : "BB");
+      }
+      keys[ints.length + j] = colliding.toString();
+    }
+    ObjectIntHashMap<Object> map = new ObjectIntHashMap<Object>(4);
+    java.util.Map<Object,Integer> model = new java.util.HashMap<Object,Integer>();
+    java.util.Random random = new java.util.Random(0);
+    for (int op = 1; op <= 1000000; op++) {
+      Object key = keys[random.nextInt(keys.length)];
+      int value = random.nextInt(100) - 50;
+      switch (random.nextInt(6)) {
+      case 0:
+        Integer old = model.put(key, value);
+        expect(map.put(key, value) == (old == null ? 0 : old), "put(" + key + ") is wrong");
+        break;
+      case 1:
+        expect(map.addTo(key, value) == model.merge(key, value, Integer::sum),
+               "addTo(" + key + ") is wrong");
+        break;
+      case 2:
+      case 3:
+        old = model.remove(key);
+        expect(map.remove(key) == (old == null ? 0 : old), "remove(" + key + ") is wrong");
+        break;
+      case 4:
+        expect(map.get(key) == model.getOrDefault(key, 0), "get(" + key + ") is wrong");
+        break;
+      default:
+        if (random.nextInt(50000) == 0) {
+          map.clear();
+          model.clear();
+        }
+      }
+      if (op % 10000 == 0) {
+        check(map, model, keys);
+      }
+    }
+    System.out.println("ObjectIntHashMap agrees with java.util.HashMap");
+  }
+
+}
@@ -0,0 +1,17 @@
+/* ObjectIntProcedure.java */
+
+package hash;
+
+/**
+ *  An ObjectIntProcedure is called once per entry by
+ *  ObjectIntHashMap.forEach(), with the value passed as an unboxed int.
+ **/
+
+public interface ObjectIntProcedure<K> {
+
+  /**
+   *  apply() is called with one key and its value.
+   **/
+  void apply(K key, int value);
+
+}
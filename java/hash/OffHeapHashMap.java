@@ -0,0 +1,514 @@
+/* OffHeapHashMap.java */
+
+package hash;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ *  OffHeapHashMap is a hash map whose keys and values are fixed-width byte
+ *  strings stored outside the Java heap.  Every entry lives in a slot of a
+ *  direct-memory arena:
+ *
+ *      [ 4-byte tag | keyWidth key bytes | valueWidth value bytes ]
+ *
+ *  The tag is the key's hash code (never 0); a tag of 0 marks a free slot.
+ *  Collisions are resolved by linear probing, and remove() shifts later
+ *  entries of the probe run back instead of leaving tombstones.  The arena
+ *  is split into pages of at most 1 GB so that the table is not limited by
+ *  the 2 GB size of a single ByteBuffer.
+ *
+ *  Since entries are not Java objects, a map of hundreds of millions of
+ *  entries costs the garbage collector nothing.  get() copies the value
+ *  into an array supplied by the caller and allocates nothing.
+ *
+ *  The map owns its memory:  close() frees the arena at once, after which
+ *  every other method throws IllegalStateException, and a rehash frees the
+ *  old arena as soon as its entries are copied.  Java 17 has no supported
+ *  way to free a direct buffer, so the map uses sun.misc.Unsafe's
+ *  invokeCleaner(); on a JDK without it, the memory is returned when the
+ *  buffers are collected.  The map is not thread-safe.
+ **/
+
+public class OffHeapHashMap implements AutoCloseable {
+
+  private static final VarHandle LONGS =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+  private static final VarHandle INTS =
+    MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private final int keyWidth;
+  private final int valueWidth;
+  private final int slotWidth;
+  private final double loadFactor;
+  private final static double defaultLoadFactor = .5;
+  private final static int maxPageBytes = 1 << 30;
+  private final static int maxCapacity = 1 << 30;
+
+  /**
+   *  CLEANER is sun.misc.Unsafe.invokeCleaner() bound to the Unsafe
+   *  instance, or null if this JDK does not have it.
+   **/
+  private static final MethodHandle CLEANER = findCleaner();
+
+  private static MethodHandle findCleaner() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      return MethodHandles.lookup()
+        .findVirtual(unsafeClass, "invokeCleaner",
+                     MethodType.methodType(void.class, ByteBuffer.class))
+        .bindTo(theUnsafe.get(null));
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   *  pages[i] holds slots i << pageShift through ((i + 1) << pageShift) - 1.
+   *  capacity is the total number of slots, a power of two.
+   *  shift is 32 - log2(capacity), used by slot().
+   **/
+  private ByteBuffer[] pages;
+  private int pageShift;
+  private int capacity;
+  private int shift;
+  private int size;
+
+  /**
+   *  Construct a new empty map for keys of keyWidth bytes and values of
+   *  valueWidth bytes, intended to hold roughly sizeEstimate entries.
+   **/
+  public OffHeapHashMap(int keyWidth, int valueWidth, int sizeEstimate) {
+    this(keyWidth, valueWidth, sizeEstimate, defaultLoadFactor);
+  }
+
+  /**
+   *  Construct a new empty map for keys of keyWidth bytes and values of
+   *  valueWidth bytes, intended to hold roughly sizeEstimate entries with a
+   *  load factor of loadFactor, which must be less than 1.
+   **/
+  public OffHeapHashMap(int keyWidth, int valueWidth, int sizeEstimate,
+                        double loadFactor) {
+    if (keyWidth <= 0 || valueWidth < 0) {
+      throw new IllegalArgumentException("bad key or value width");
+    }
+    if (4L + keyWidth + valueWidth > maxPageBytes) {
+      throw new IllegalArgumentException("a slot of " + (4L + keyWidth + valueWidth) +
+                                         " bytes does not fit in a page of " +
+                                         maxPageBytes + " bytes");
+    }
+    if (loadFactor <= 0 || loadFactor >= 1) {
+      throw new IllegalArgumentException("loadFactor must be in (0, 1)");
+    }
+    this.keyWidth = keyWidth;
+    this.valueWidth = valueWidth;
+    this.slotWidth = 4 + keyWidth + valueWidth;
+    this.loadFactor = loadFactor;
+    int n = 16;
+    while (n < maxCapacity && n * loadFactor < sizeEstimate + 1) {
+      n <<= 1;
+    }
+    allocate(n);
+  }
+
+  /**
+   *  allocate() replaces the arena with a zeroed one of n slots.
+   **/
+  private void allocate(int n) {
+    int slotsPerPage = Integer.highestOneBit(maxPageBytes / slotWidth);
+    if (slotsPerPage > n) {
+      slotsPerPage = n;
+    }
+    pageShift = Integer.numberOfTrailingZeros(slotsPerPage);
+    pages = new ByteBuffer[n / slotsPerPage];
+    for (int i = 0; i < pages.length; i++) {
+      pages[i] = ByteBuffer.allocateDirect(slotsPerPage * slotWidth)
+                           .order(ByteOrder.nativeOrder());
+    }
+    capacity = n;
+    shift = 32 - Integer.numberOfTrailingZeros(n);
+  }
+
+  private ByteBuffer page(int slot) {
+    return pages[slot >>> pageShift];
+  }
+
+  private int offset(int slot) {
+    return (slot & ((1 << pageShift) - 1)) * slotWidth;
+  }
+
+  /**
+   *  slot() maps a tag to its home slot by Fibonacci hashing.
+   **/
+  private int slot(int tag) {
+    return (tag * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   *  tag() hashes the key bytes and returns the result, with 0 replaced so
+   *  that it cannot be mistaken for a free slot.
+   **/
+  private int tag(byte[] key) {
+    int h = hashBytes(key, keyWidth);
+    return h == 0 ? 1 : h;
+  }
+
+  /**
+   *  hashBytes() returns the MurmurHash3 (x86, 32-bit) hash of the first
+   *  length bytes of data.
+   **/
+  static int hashBytes(byte[] data, int length) {
+    int h = 0x9747b28c;
+    int i = 0;
+    for (; i + 4 <= length; i += 4) {
+      h ^= mixK((int) INTS.get(data, i));
+      h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+    }
+    int k = 0;
+    for (int j = length - 1; j >= i; j--) {
+      k = (k << 8) | (data[j] & 0xff);
+    }
+    h ^= mixK(k);
+    h ^= length;
+    return HashMap.spread(h);
+  }
+
+  private static int mixK(int k) {
+    k *= 0xcc9e2d51;
+    k = Integer.rotateLeft(k, 15);
+    return k * 0x1b873593;
+  }
+
+  private boolean keyEquals(ByteBuffer page, int offset, byte[] key) {
+    int i = 0;
+    for (; i + 8 <= keyWidth; i += 8) {
+      if (page.getLong(offset + i) != (long) LONGS.get(key, i)) {
+        return false;
+      }
+    }
+    for (; i < keyWidth; i++) {
+      if (page.get(offset + i) != key[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void checkOpen() {
+    if (pages == null) {
+      throw new IllegalStateException("map is closed");
+    }
+  }
+
+  private void checkKey(byte[] key) {
+    checkOpen();
+    if (key.length != keyWidth) {
+      throw new IllegalArgumentException("key must be " + keyWidth + " bytes");
+    }
+  }
+
+  /**
+   *  find() returns the slot holding key, or -1.
+   **/
+  private int find(byte[] key, int tag) {
+    int mask = capacity - 1;
+    int i = slot(tag);
+    while (true) {
+      ByteBuffer page = page(i);
+      int offset = offset(i);
+      int t = page.getInt(offset);
+      if (t == 0) {
+        return -1;
+      }
+      if (t == tag && keyEquals(page, offset + 4, key)) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  /**
+   *  size() returns the number of entries in the map.
+   **/
+  public int size() {
+    return size;
+  }
+
+  /**
+   *  isEmpty() returns true if the map has no entries.
+   **/
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   *  keyWidth() returns the number of bytes in every key.
+   **/
+  public int keyWidth() {
+    return keyWidth;
+  }
+
+  /**
+   *  valueWidth() returns the number of bytes in every value.
+   **/
+  public int valueWidth() {
+    return valueWidth;
+  }
+
+  /**
+   *  containsKey() returns true if key is in the map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public boolean containsKey(byte[] key) {
+    checkKey(key);
+    return find(key, tag(key)) >= 0;
+  }
+
+  /**
+   *  get() copies the value associated with key into valueOut, which must
+   *  hold at least valueWidth bytes.  Allocates nothing.
+   *
+   *  @return true if key was found; false (leaving valueOut untouched)
+   *          otherwise.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public boolean get(byte[] key, byte[] valueOut) {
+    checkKey(key);
+    int i = find(key, tag(key));
+    if (i < 0) {
+      return false;
+    }
+    page(i).get(offset(i) + 4 + keyWidth, valueOut, 0, valueWidth);
+    return true;
+  }
+
+  /**
+   *  put() associates the first valueWidth bytes of value with key.
+   *
+   *  @return true if key was added; false if it was already in the map and
+   *          its value was replaced.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public boolean put(byte[] key, byte[] value) {
+    checkKey(key);
+    if (value.length < valueWidth) {
+      throw new IllegalArgumentException("value must be " + valueWidth + " bytes");
+    }
+    if (size + 1 > capacity * loadFactor && capacity < maxCapacity) {
+      rehash(capacity << 1);
+    }
+    int tag = tag(key);
+    int mask = capacity - 1;
+    int i = slot(tag);
+    while (true) {
+      ByteBuffer page = page(i);
+      int offset = offset(i);
+      int t = page.getInt(offset);
+      if (t == 0) {
+        if (size + 1 >= capacity) {
+          throw new IllegalStateException("map is full");
+        }
+        page.putInt(offset, tag);
+        page.put(offset + 4, key, 0, keyWidth);
+        page.put(offset + 4 + keyWidth, value, 0, valueWidth);
+        size++;
+        return true;
+      }
+      if (t == tag && keyEquals(page, offset + 4, key)) {
+        page.put(offset + 4 + keyWidth, value, 0, valueWidth);
+        return false;
+      }
+      i = (i + 1) & mask;
+    }
+  }
+
+  /**
+   *  remove() removes key from the map.  The entries that follow it in its
+   *  probe run are shifted back, so no tombstones are needed.
+   *
+   *  @return true if key was in the map.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public boolean remove(byte[] key) {
+    checkKey(key);
+    int i = find(key, tag(key));
+    if (i < 0) {
+      return false;
+    }
+    int mask = capacity - 1;
+    int j = i;
+    while (true) {
+      j = (j + 1) & mask;
+      int t = page(j).getInt(offset(j));
+      if (t == 0) {
+        break;
+      }
+      if (((j - slot(t)) & mask) >= ((j - i) & mask)) {
+        page(i).put(offset(i), page(j), offset(j), slotWidth);
+        i = j;
+      }
+    }
+    page(i).putInt(offset(i), 0);
+    size--;
+    return true;
+  }
+
+  /**
+   *  clear() removes all entries, keeping the arena.
+   *
+   *  Performance:  runs in O(capacity) time.
+   **/
+  public void clear() {
+    checkOpen();
+    for (int i = 0; i < capacity; i++) {
+      page(i).putInt(offset(i), 0);
+    }
+    size = 0;
+  }
+
+  /**
+   *  close() frees the arena.  The map cannot be used afterward.  Calling
+   *  close() more than once has no effect.
+   **/
+  public void close() {
+    if (pages != null) {
+      free(pages);
+      pages = null;
+      size = 0;
+    }
+  }
+
+  /**
+   *  free() returns the memory of pages to the operating system, or, if
+   *  this JDK cannot free direct buffers, leaves it for the collector.  No
+   *  page may be used afterward.
+   **/
+  private static void free(ByteBuffer[] pages) {
+    if (CLEANER == null) {
+      return;
+    }
+    for (ByteBuffer page : pages) {
+      try {
+        CLEANER.invokeExact(page);
+      } catch (Throwable e) {
+        throw new IllegalStateException("cannot free direct buffer", e);
+      }
+    }
+  }
+
+  /**
+   *  rehash() moves every entry into a new arena of n slots.  Entries are
+   *  placed by their stored tags, so no key is hashed again.
+   **/
+  private void rehash(int n) {
+    ByteBuffer[] oldPages = pages;
+    int oldCapacity = capacity;
+    int oldPageShift = pageShift;
+    allocate(n);
+    int mask = n - 1;
+    int oldPageMask = (1 << oldPageShift) - 1;
+    for (int j = 0; j < oldCapacity; j++) {
+      ByteBuffer oldPage = oldPages[j >>> oldPageShift];
+      int oldOffset = (j & oldPageMask) * slotWidth;
+      int t = oldPage.getInt(oldOffset);
+      if (t != 0) {
+        int i = slot(t);
+        while (page(i).getInt(offset(i)) != 0) {
+          i = (i + 1) & mask;
+        }
+        page(i).put(offset(i), oldPage, oldOffset, slotWidth);
+      }
+    }
+    free(oldPages);
+  }
+
+  /**
+   *  directBytes() returns the bytes of direct buffer memory in use.
+   **/
+  private static long directBytes() {
+    for (BufferPoolMXBean pool :
+           ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+      if (pool.getName().equals("direct")) {
+        return pool.getMemoryUsed();
+      }
+    }
+    return -1;
+  }
+
+  private static void expect(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  /**
+   *  Checks an OffHeapHashMap of 8-byte keys and values against a HashMap
+   *  through random puts and removes over a range of keys small enough that
+   *  both are common, then checks that close() frees the arena and that a
+   *  closed map cannot be used.
+   */
+  public static void main(String[] argv) {
+    try {
+      new OffHeapHashMap(maxPageBytes, 8, 16);
+      throw new IllegalStateException("a slot wider than a page was accepted");
+    } catch (IllegalArgumentException e) {
+      System.out.println("A slot wider than a page is rejected: " + e.getMessage());
+    }
+
+    long before = directBytes();
+    OffHeapHashMap map = new OffHeapHashMap(8, 8, 16);
+    HashMap<Long,Long> model = new HashMap<Long,Long>();
+    Random random = new Random(0);
+    byte[] key = new byte[8];
+    byte[] value = new byte[8];
+    for (int op = 0; op < 1000000; op++) {
+      long k = random.nextInt(100000);
+      LONGS.set(key, 0, k);
+      if (random.nextInt(3) == 0) {
+        expect(map.remove(key) == (model.remove(k) != null), "remove(" + k + ") is wrong");
+      } else {
+        LONGS.set(value, 0, (long) op);
+        expect(map.put(key, value) == (model.put(k, (long) op) == null),
+               "put(" + k + ") is wrong");
+      }
+    }
+    expect(map.size() == model.size(), "size " + map.size() + " != " + model.size());
+    for (long k = 0; k < 100000; k++) {
+      LONGS.set(key, 0, k);
+      Long expected = model.get(k);
+      expect(map.get(key, value) == (expected != null), "get(" + k + ") is wrong");
+      expect(expected == null || (long) LONGS.get(value, 0) == expected,
+             "wrong value for " + k);
+    }
+    System.out.println("OffHeapHashMap agrees with HashMap on " + map.size() + " entries");
+
+    long open = directBytes();
+    map.close();
+    map.close();
+    System.out.println("Direct memory:  " + before + " bytes before, " + open +
+                       " with the map open, " + directBytes() + " after close()");
+    boolean threw = false;
+    try {
+      map.get(key, value);
+    } catch (IllegalStateException e) {
+      threw = true;
+    }
+    expect(threw, "get() on a closed map did not throw");
+    System.out.println("get() on a closed map throws IllegalStateException");
+  }
+
+}
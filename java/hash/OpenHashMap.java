@@ -0,0 +1,298 @@
+/* OpenHashMap.java */
+
+package hash;
+
+import java.util.function.BiConsumer;
+
+import list.ImmutableList;
+
+/**
+ *  OpenHashMap is a hash map with open addressing.  Keys and values are kept
+ *  in two parallel arrays and collisions are resolved by linear probing, so
+ *  a put allocates nothing unless the table has to grow, and a get touches
+ *  consecutive array slots instead of following list nodes.
+ *
+ *  Removed keys leave a tombstone behind so that probe sequences running
+ *  through the slot stay intact.  Tombstones are reused by later puts and
+ *  are swept out whenever the table is rebuilt.
+ *
+ *  All objects used as keys must have a valid hashCode() method.
+ **/
+
+public class OpenHashMap<K,V> extends Map<K,V> {
+
+  /**
+   *  keyTable and valueTable are parallel arrays; slot i holds keyTable[i]
+   *  and valueTable[i].  A null key marks a slot that has never been used;
+   *  TOMBSTONE marks a slot whose key was removed.
+   *  tombstones is the number of TOMBSTONE slots.
+   *  shift is 32 - log2(keyTable.length), used by slot().
+   **/
+
+  private static final Object TOMBSTONE = new Object();
+
+  private Object[] keyTable;
+  private Object[] valueTable;
+  private int tombstones;
+  private int shift;
+  private double loadFactor;
+  private final static double defaultLoadFactor = .5;
+  private final static int defaultSize = 64;
+
+  /**
+   *  Construct a new empty hash map intended to hold roughly sizeEstimate
+   *  entries.
+   **/
+  public OpenHashMap(int sizeEstimate) {
+    this(sizeEstimate, defaultLoadFactor);
+  }
+
+  /**
+   *  Construct a new empty hash map intended to hold roughly sizeEstimate
+   *  entries with a load factor of loadFactor.  loadFactor must be less
+   *  than 1, since every entry needs a slot of its own.
+   **/
+  public OpenHashMap(int sizeEstimate, double loadFactor) {
+    if (loadFactor <= 0 || loadFactor >= 1) {
+      throw new IllegalArgumentException("loadFactor must be in (0, 1)");
+    }
+    this.loadFactor = loadFactor;
+    allocate(capacityFor(sizeEstimate, loadFactor));
+  }
+
+  /**
+   *  Construct a new empty hash map with a default size and load factor.
+   **/
+  public OpenHashMap() {
+    this(defaultLoadFactor);
+  }
+
+  /**
+   *  Construct a new empty hash map with a default size and load factor of
+   *  loadFactor.
+   **/
+  public OpenHashMap(double loadFactor) {
+    this((int) (defaultSize * loadFactor), loadFactor);
+  }
+
+  /**
+   *  capacityFor() returns the smallest power of two that can hold
+   *  sizeEstimate entries without exceeding loadFactor.
+   **/
+  private static int capacityFor(int sizeEstimate, double loadFactor) {
+    int capacity = 2;
+    while (capacity < (1 << 30) && capacity * loadFactor < sizeEstimate + 1) {
+      capacity <<= 1;
+    }
+    return capacity;
+  }
+
+  /**
+   *  allocate() replaces the tables with empty tables of the given
+   *  capacity, which must be a power of two.
+   **/
+  private void allocate(int capacity) {
+    keyTable = new Object[capacity];
+    valueTable = new Object[capacity];
+    shift = 32 - Integer.numberOfTrailingZeros(capacity);
+    tombstones = 0;
+  }
+
+  /**
+   *  slot() maps a hash code to its home slot.  The hash code is multiplied
+   *  by 2^32 / phi and the top bits are kept (Fibonacci hashing), so keys
+   *  whose hash codes differ only in their high bits, or are consecutive,
+   *  still spread across the table.
+   **/
+  int slot(int code) {
+    return (code * 0x9E3779B9) >>> shift;
+  }
+
+  /**
+   *  find() returns the slot holding key, or -1 if key is not in the map.
+   **/
+  private int find(Object key) {
+    int mask = keyTable.length - 1;
+    int i = slot(key.hashCode());
+    Object k;
+    while ((k = keyTable[i]) != null) {
+      if (k != TOMBSTONE && (k == key || k.equals(key))) {
+        return i;
+      }
+      i = (i + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   *  If key is already in map, updates the value associated with the key to
+   *  input parameter value. Otherwise, adds an entry to map with key and value.
+   *
+   *  @param key the key by which the entry can be retrieved.
+   *  @param value an arbitrary object.
+   *  @return the previous value.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  @SuppressWarnings("unchecked")
+  public V put(K key, V value) {
+    if (size + tombstones + 1 > keyTable.length * loadFactor) {
+      rehash();
+    }
+    int mask = keyTable.length - 1;
+    int i = slot(key.hashCode());
+    int firstTombstone = -1;
+    Object k;
+    while ((k = keyTable[i]) != null) {
+      if (k == TOMBSTONE) {
+        if (firstTombstone < 0) {
+          firstTombstone = i;
+        }
+      } else if (k == key || k.equals(key)) {
+        V oldValue = (V) valueTable[i];
+        valueTable[i] = value;
+        return oldValue;
+      }
+      i = (i + 1) & mask;
+    }
+    if (firstTombstone >= 0) {
+      i = firstTombstone;
+      tombstones--;
+    }
+    keyTable[i] = key;
+    valueTable[i] = value;
+    size++;
+    return null;
+  }
+
+  /**
+   *  Search for an entry with the specified key.
+   *
+   *  @param key the search key.
+   *  @return the value associated with key, or null if no entry contains
+   *          the specified key.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  @SuppressWarnings("unchecked")
+  public V get(K key) {
+    int i = find(key);
+    return i < 0 ? null : (V) valueTable[i];
+  }
+
+  /**
+   *  Remove the entry with the specified key, leaving a tombstone in its
+   *  slot.
+   *
+   *  @param key the search key.
+   *  @return value associated with the specified key, or null if no entry
+   *          contains the specified key.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  @SuppressWarnings("unchecked")
+  public V remove(K key) {
+    int i = find(key);
+    if (i < 0) {
+      return null;
+    }
+    V output = (V) valueTable[i];
+    keyTable[i] = TOMBSTONE;
+    valueTable[i] = null;
+    tombstones++;
+    size--;
+    return output;
+  }
+
+  /**
+   *  Create a list of keys that cannot be modified.  The keys are listed in
+   *  table order, not insertion order, and the list is a copy: later changes
+   *  to the map are not reflected in it.
+   *
+   *  @return ImmutableList containing this map's keys.
+   *
+   *  Performance:  runs in O(capacity) time.
+   **/
+  @SuppressWarnings("unchecked")
+  public ImmutableList<K> keys() {
+    ImmutableList.Builder<K> output = ImmutableList.builder();
+    for (Object k : keyTable) {
+      if (k != null && k != TOMBSTONE) {
+        output.add((K) k);
+      }
+    }
+    return output.build();
+  }
+
+  /**
+   *  forEach() calls action once for each entry of the map, in table order,
+   *  reading the tables directly.
+   *
+   *  Performance:  runs in O(capacity) time.
+   **/
+  @SuppressWarnings("unchecked")
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    for (int i = 0; i < keyTable.length; i++) {
+      Object k = keyTable[i];
+      if (k != null && k != TOMBSTONE) {
+        action.accept((K) k, (V) valueTable[i]);
+      }
+    }
+  }
+
+  /**
+   *  Remove all entries from the map, shrinking the table back to its
+   *  default size.
+   **/
+  public void clear() {
+    allocate(capacityFor((int) (defaultSize * loadFactor), loadFactor));
+    size = 0;
+  }
+
+  /**
+   *  rehash() rebuilds the table, dropping all tombstones.  The capacity is
+   *  doubled unless the live entries alone would fit under half the load
+   *  factor, in which case the table is rebuilt at its current size.
+   **/
+  @SuppressWarnings("unchecked")
+  private void rehash() {
+    Object[] oldKeys = keyTable;
+    Object[] oldValues = valueTable;
+    int capacity = oldKeys.length;
+    if (size + 1 > capacity * loadFactor / 2) {
+      capacity <<= 1;
+    }
+    allocate(capacity);
+    int mask = capacity - 1;
+    for (int j = 0; j < oldKeys.length; j++) {
+      Object k = oldKeys[j];
+      if (k != null && k != TOMBSTONE) {
+        int i = slot(k.hashCode());
+        while (keyTable[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keyTable[i] = k;
+        valueTable[i] = oldValues[j];
+      }
+    }
+  }
+
+  /**
+   *  Counts the total number of probe steps needed to reach every key from
+   *  its home slot.  Zero means every key sits in its home slot.
+   *
+   *  @return an integer counting total number of collisions
+   **/
+  public int countCollisions() {
+    int output = 0;
+    int mask = keyTable.length - 1;
+    for (int i = 0; i < keyTable.length; i++) {
+      Object k = keyTable[i];
+      if (k != null && k != TOMBSTONE) {
+        output += (i - slot(k.hashCode())) & mask;
+      }
+    }
+    return output;
+  }
+
+}
@@ -0,0 +1,727 @@
+/* PersistentHashMap.java */
+
+package hash;
+
+import java.util.function.BiConsumer;
+
+import list.ImmutableList;
+
+/**
+ *  A PersistentHashMap is an immutable hash map.  put() and remove() leave
+ *  the map unchanged and return a new version that shares all but
+ *  O(log32 n) of its nodes with the old one, so old versions stay valid
+ *  and cost little to keep.  Because a version never changes, any number
+ *  of threads may read it without locks; see VersionedMap for publishing
+ *  new versions to readers.
+ *
+ *  The map is a hash array mapped trie.  Each level of the trie consumes
+ *  five bits of a key's (spread) hash code, so a node has up to 32
+ *  children, stored compactly:  a node's bitmap says which of the 32
+ *  slots are in use, and its array holds only those slots.  Keys whose
+ *  hash codes are equal in all 32 bits share a collision node.  remove()
+ *  undoes what put() does:  a child left holding a single entry, or just a
+ *  collision node, is replaced by it in its parent, so the shape of the
+ *  trie depends only on the keys it holds.
+ *
+ *  A Builder makes a batch of changes without copying a node more than
+ *  once:  nodes it has created itself are edited in place.
+ *
+ *  Keys must not be null.  Values may be null, although get() then cannot
+ *  tell a null value from a missing key; use containsKey().
+ **/
+
+public class PersistentHashMap<K,V> {
+
+  private final static PersistentHashMap<Object,Object> EMPTY =
+    new PersistentHashMap<Object,Object>(BitmapNode.EMPTY, 0);
+  private final static Object NOT_FOUND = new Object();
+
+  private final Node root;
+  private final int size;
+
+  private PersistentHashMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   *  empty() returns the empty map.
+   **/
+  @SuppressWarnings("unchecked")
+  public static <K,V> PersistentHashMap<K,V> empty() {
+    return (PersistentHashMap<K,V>) EMPTY;
+  }
+
+  /**
+   *  builder() returns a Builder that starts from the empty map.
+   **/
+  public static <K,V> Builder<K,V> builder() {
+    return PersistentHashMap.<K,V>empty().toBuilder();
+  }
+
+  /**
+   *  toBuilder() returns a Builder that starts from this map.  This map is
+   *  not affected by the Builder's changes.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public Builder<K,V> toBuilder() {
+    return new Builder<K,V>(root, size);
+  }
+
+  static int hash(Object key) {
+    return HashMap.spread(key.hashCode());
+  }
+
+  /**
+   *  size() returns the number of entries in the map.
+   **/
+  public int size() {
+    return size;
+  }
+
+  /**
+   *  isEmpty() returns true if the map has no entries.
+   **/
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   *  get() returns the value associated with key, or null if key is not in
+   *  the map.
+   *
+   *  Performance:  runs in O(log32 n) time.
+   **/
+  @SuppressWarnings("unchecked")
+  public V get(K key) {
+    Object output = root.find(0, hash(key), key);
+    return output == NOT_FOUND ? null : (V) output;
+  }
+
+  /**
+   *  containsKey() returns true if key is in the map.
+   *
+   *  Performance:  runs in O(log32 n) time.
+   **/
+  public boolean containsKey(K key) {
+    return root.find(0, hash(key), key) != NOT_FOUND;
+  }
+
+  /**
+   *  put() returns a map that is this map with key associated with value.
+   *  If key is already associated with value (the same object), returns
+   *  this map.
+   *
+   *  Performance:  runs in O(log32 n) time.
+   **/
+  public PersistentHashMap<K,V> put(K key, V value) {
+    Change change = new Change();
+    Node newRoot = root.put(null, 0, hash(key), key, value, change);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentHashMap<K,V>(newRoot, change.added ? size + 1 : size);
+  }
+
+  /**
+   *  remove() returns a map that is this map without key.  If key is not in
+   *  this map, returns this map.
+   *
+   *  Performance:  runs in O(log32 n) time.
+   **/
+  public PersistentHashMap<K,V> remove(K key) {
+    Change change = new Change();
+    Node newRoot = root.remove(null, 0, hash(key), key, change);
+    if (!change.removed) {
+      return this;
+    }
+    return new PersistentHashMap<K,V>(newRoot == null ? BitmapNode.EMPTY : newRoot,
+                                      size - 1);
+  }
+
+  /**
+   *  keys() returns a list of the map's keys, in no particular order.
+   *
+   *  Performance:  runs in O(n) time.
+   **/
+  @SuppressWarnings("unchecked")
+  public ImmutableList<K> keys() {
+    ImmutableList.Builder<K> output = ImmutableList.builder();
+    root.forEach((k, v) -> output.add((K) k));
+    return output.build();
+  }
+
+  /**
+   *  forEach() calls action once for each entry of the map, in no particular
+   *  order.
+   *
+   *  Performance:  runs in O(n) time.
+   **/
+  @SuppressWarnings("unchecked")
+  public void forEach(BiConsumer<? super K, ? super V> action) {
+    root.forEach((BiConsumer<Object,Object>) action);
+  }
+
+
+  /**
+   *  A Builder is a mutable map used to make many changes to a
+   *  PersistentHashMap cheaply.  Nodes the Builder creates are marked with
+   *  its owner token and are edited in place by later changes; nodes shared
+   *  with other versions are copied first, as in PersistentHashMap.put().
+   *  build() returns the result and gives the Builder a new token, so the
+   *  built map is never changed by the Builder's later edits.
+   *
+   *  A Builder is not thread-safe.
+   **/
+  public static class Builder<K,V> {
+
+    private Object owner = new Object();
+    private Node root;
+    private int size;
+
+    private Builder(Node root, int size) {
+      this.root = root;
+      this.size = size;
+    }
+
+    /**
+     *  size() returns the number of entries in the Builder.
+     **/
+    public int size() {
+      return size;
+    }
+
+    /**
+     *  get() returns the value associated with key, or null.
+     **/
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+      Object output = root.find(0, hash(key), key);
+      return output == NOT_FOUND ? null : (V) output;
+    }
+
+    /**
+     *  put() associates value with key.
+     *
+     *  @return this Builder.
+     *
+     *  Performance:  runs in O(log32 n) time, and allocates only for nodes
+     *  this Builder does not already own.
+     **/
+    public Builder<K,V> put(K key, V value) {
+      Change change = new Change();
+      root = root.put(owner, 0, hash(key), key, value, change);
+      if (change.added) {
+        size++;
+      }
+      return this;
+    }
+
+    /**
+     *  remove() removes key, if it is present.
+     *
+     *  @return this Builder.
+     *
+     *  Performance:  runs in O(log32 n) time.
+     **/
+    public Builder<K,V> remove(K key) {
+      Change change = new Change();
+      Node newRoot = root.remove(owner, 0, hash(key), key, change);
+      root = newRoot == null ? BitmapNode.EMPTY : newRoot;
+      if (change.removed) {
+        size--;
+      }
+      return this;
+    }
+
+    /**
+     *  build() returns a PersistentHashMap holding the Builder's entries.
+     *  The Builder may be used afterward; it copies the nodes it shares
+     *  with the built map before changing them.
+     *
+     *  Performance:  runs in O(1) time.
+     **/
+    public PersistentHashMap<K,V> build() {
+      owner = new Object();
+      if (size == 0) {
+        return empty();
+      }
+      return new PersistentHashMap<K,V>(root, size);
+    }
+  }
+
+
+  /**
+   *  A Change reports what a put() or remove() on a node did.
+   **/
+  private static class Change {
+    boolean added;
+    boolean removed;
+  }
+
+  /**
+   *  A Node is a node of the trie.  An operation on a node at depth
+   *  shift / 5 returns the node that replaces it, which is the node itself
+   *  if nothing changed.  owner is null for persistent operations, or a
+   *  Builder's token, in which case nodes carrying the same token are
+   *  changed in place.
+   **/
+  private static abstract class Node {
+    abstract Object find(int shift, int hash, Object key);
+    abstract Node put(Object owner, int shift, int hash, Object key,
+                      Object value, Change change);
+    abstract Node remove(Object owner, int shift, int hash, Object key,
+                         Change change);
+    abstract void forEach(BiConsumer<Object,Object> action);
+  }
+
+  /**
+   *  A BitmapNode holds up to 32 slots.  Slot i of the 32 is present if bit
+   *  i of bitmap is set; present slots are packed in order into array, two
+   *  elements each:  a key and its value, or null and a child Node.
+   **/
+  private static class BitmapNode extends Node {
+    final static BitmapNode EMPTY = new BitmapNode(null, 0, new Object[0]);
+
+    final Object owner;
+    int bitmap;
+    Object[] array;
+
+    BitmapNode(Object owner, int bitmap, Object[] array) {
+      this.owner = owner;
+      this.bitmap = bitmap;
+      this.array = array;
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    /**
+     *  editable() returns this node if owner may change it in place, and a
+     *  copy belonging to owner otherwise.
+     **/
+    private BitmapNode editable(Object owner) {
+      if (owner != null && owner == this.owner) {
+        return this;
+      }
+      return new BitmapNode(owner, bitmap, array.clone());
+    }
+
+    Object find(int shift, int hash, Object key) {
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int i = 2 * index(bit);
+      Object k = array[i];
+      if (k == null) {
+        return ((Node) array[i + 1]).find(shift + 5, hash, key);
+      }
+      return k == key || k.equals(key) ? array[i + 1] : NOT_FOUND;
+    }
+
+    Node put(Object owner, int shift, int hash, Object key, Object value,
+             Change change) {
+      int bit = 1 << ((hash >>> shift) & 31);
+      int i = 2 * index(bit);
+      if ((bitmap & bit) == 0) {
+        change.added = true;
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, i);
+        newArray[i] = key;
+        newArray[i + 1] = value;
+        System.arraycopy(array, i, newArray, i + 2, array.length - i);
+        if (owner != null && owner == this.owner) {
+          bitmap |= bit;
+          array = newArray;
+          return this;
+        }
+        return new BitmapNode(owner, bitmap | bit, newArray);
+      }
+      Object k = array[i];
+      Object v = array[i + 1];
+      if (k == null) {
+        Node child = ((Node) v).put(owner, shift + 5, hash, key, value, change);
+        if (child == v) {
+          return this;
+        }
+        BitmapNode output = editable(owner);
+        output.array[i + 1] = child;
+        return output;
+      }
+      if (k == key || k.equals(key)) {
+        if (v == value) {
+          return this;
+        }
+        BitmapNode output = editable(owner);
+        output.array[i + 1] = value;
+        return output;
+      }
+      change.added = true;
+      BitmapNode output = editable(owner);
+      output.array[i] = null;
+      output.array[i + 1] = pair(owner, shift + 5, hash(k), k, v, hash, key, value);
+      return output;
+    }
+
+    Node remove(Object owner, int shift, int hash, Object key, Change change) {
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+      int i = 2 * index(bit);
+      Object k = array[i];
+      Object v = array[i + 1];
+      if (k == null) {
+        Node child = ((Node) v).remove(owner, shift + 5, hash, key, change);
+        if (child != null) {
+          // A Builder may have shrunk the child in place, so check for a
+          // child to lift even if it is the same node.
+          Object[] entry = lift(child);
+          if (entry == null && child == v) {
+            return this;
+          }
+          BitmapNode output = editable(owner);
+          if (entry == null) {
+            output.array[i + 1] = child;
+          } else {
+            output.array[i] = entry[0];
+            output.array[i + 1] = entry[1];
+          }
+          return output;
+        }
+      } else if (k == key || k.equals(key)) {
+        change.removed = true;
+      } else {
+        return this;
+      }
+      if (bitmap == bit) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, i);
+      System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+      if (owner != null && owner == this.owner) {
+        bitmap &= ~bit;
+        array = newArray;
+        return this;
+      }
+      return new BitmapNode(owner, bitmap & ~bit, newArray);
+    }
+
+    void forEach(BiConsumer<Object,Object> action) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (array[i] == null) {
+          ((Node) array[i + 1]).forEach(action);
+        } else {
+          action.accept(array[i], array[i + 1]);
+        }
+      }
+    }
+  }
+
+  /**
+   *  lift() returns the array of child if it holds a single slot that its
+   *  parent can hold instead:  one entry, or (since a collision node may sit
+   *  at any depth) one collision node.  Otherwise it returns null.
+   **/
+  private static Object[] lift(Node child) {
+    Object[] array = child instanceof BitmapNode ? ((BitmapNode) child).array
+                                                 : ((CollisionNode) child).array;
+    return array.length == 2 && (array[0] != null || array[1] instanceof CollisionNode)
+      ? array : null;
+  }
+
+  /**
+   *  pair() returns a node at depth shift / 5 holding two entries whose
+   *  keys differ.
+   **/
+  private static Node pair(Object owner, int shift, int hash1, Object key1,
+                           Object value1, int hash2, Object key2,
+                           Object value2) {
+    if (hash1 == hash2) {
+      return new CollisionNode(owner, hash1,
+                               new Object[] { key1, value1, key2, value2 });
+    }
+    Change change = new Change();
+    return BitmapNode.EMPTY
+      .put(owner, shift, hash1, key1, value1, change)
+      .put(owner, shift, hash2, key2, value2, change);
+  }
+
+  /**
+   *  A CollisionNode holds the entries of keys that share the hash code
+   *  hash, as key/value pairs in array.
+   **/
+  private static class CollisionNode extends Node {
+    final Object owner;
+    final int hash;
+    Object[] array;
+
+    CollisionNode(Object owner, int hash, Object[] array) {
+      this.owner = owner;
+      this.hash = hash;
+      this.array = array;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (array[i] == key || array[i].equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    Object find(int shift, int hash, Object key) {
+      if (hash != this.hash) {
+        return NOT_FOUND;
+      }
+      int i = indexOf(key);
+      return i < 0 ? NOT_FOUND : array[i + 1];
+    }
+
+    Node put(Object owner, int shift, int hash, Object key, Object value,
+             Change change) {
+      if (hash != this.hash) {
+        BitmapNode parent = new BitmapNode(owner, 1 << ((this.hash >>> shift) & 31),
+                                           new Object[] { null, this });
+        return parent.put(owner, shift, hash, key, value, change);
+      }
+      int i = indexOf(key);
+      Object[] newArray;
+      if (i >= 0) {
+        if (array[i + 1] == value) {
+          return this;
+        }
+        newArray = array.clone();
+        newArray[i + 1] = value;
+      } else {
+        change.added = true;
+        newArray = java.util.Arrays.copyOf(array, array.length + 2);
+        newArray[array.length] = key;
+        newArray[array.length + 1] = value;
+      }
+      if (owner != null && owner == this.owner) {
+        array = newArray;
+        return this;
+      }
+      return new CollisionNode(owner, hash, newArray);
+    }
+
+    Node remove(Object owner, int shift, int hash, Object key, Change change) {
+      if (hash != this.hash) {
+        return this;
+      }
+      int i = indexOf(key);
+      if (i < 0) {
+        return this;
+      }
+      change.removed = true;
+      if (array.length == 2) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, i);
+      System.arraycopy(array, i + 2, newArray, i, array.length - i - 2);
+      if (owner != null && owner == this.owner) {
+        array = newArray;
+        return this;
+      }
+      return new CollisionNode(owner, hash, newArray);
+    }
+
+    void forEach(BiConsumer<Object,Object> action) {
+      for (int i = 0; i < array.length; i += 2) {
+        action.accept(array[i], array[i + 1]);
+      }
+    }
+  }
+
+
+  private static void expect(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  /**
+   *  nodes() returns the number of nodes in the trie under node.
+   **/
+  private static int nodes(Node node) {
+    if (node instanceof CollisionNode) {
+      return 1;
+    }
+    int output = 1;
+    Object[] array = ((BitmapNode) node).array;
+    for (int i = 0; i < array.length; i += 2) {
+      if (array[i] == null) {
+        output += nodes((Node) array[i + 1]);
+      }
+    }
+    return output;
+  }
+
+  /**
+   *  check() throws an exception unless map holds exactly model's entries,
+   *  and has the same number of nodes as a map built afresh from them,
+   *  which it does only if remove() collapsed every child it emptied down
+   *  to one entry.
+   **/
+  private static <K,V> void check(PersistentHashMap<K,V> map, java.util.Map<K,V> model,
+                                  String context) {
+    expect(map.size() == model.size(), context + ": size " + map.size() + " != " + model.size());
+    java.util.Map<K,V> visited = new java.util.HashMap<K,V>();
+    map.forEach((k, v) -> visited.put(k, v));
+    expect(visited.equals(model), context + ": forEach() does not match the model");
+    expect(map.keys().length() == model.size(), context + ": keys() has the wrong length");
+    PersistentHashMap<K,V> fresh = empty();
+    for (java.util.Map.Entry<K,V> entry : model.entrySet()) {
+      expect(map.containsKey(entry.getKey()) &&
+             java.util.Objects.equals(map.get(entry.getKey()), entry.getValue()),
+             context + ": wrong value for " + entry.getKey());
+      fresh = fresh.put(entry.getKey(), entry.getValue());
+    }
+    expect(nodes(map.root) == nodes(fresh.root),
+           context + ": " + nodes(map.root) + " nodes where a fresh map has " +
+           nodes(fresh.root));
+  }
+
+  /**
+   *  checkModel() checks PersistentHashMap and Builder against a
+   *  java.util.HashMap through random put()s and remove()s of keys that
+   *  include 64 Strings with one hash code (so collision nodes are made,
+   *  grown, shrunk and collapsed), keeping every hundredth version with a
+   *  copy of the model and checking at the end that none of them changed.
+   *  It also checks that a Builder leaves the map it started from, and the
+   *  maps it has built, unchanged when it is edited further.
+   **/
+  private static void checkModel() {
+    java.util.ArrayList<String> keys = new java.util.ArrayList<String>();
+    for (int i = 0; i < 2000; i++) {
+      keys.add("key" + i);
+    }
+    for (int i = 0; i < 64; i++) {
+      StringBuilder colliding = new StringBuilder();
+      for (int bit = 0; bit < 6; bit++) {
+        colliding.append((i & (1 << bit)) == 0 ? "Aa" : "BB");
+      }
+      keys.add(colliding.toString());
+    }
+    java.util.Random random = new java.util.Random(0);
+    PersistentHashMap<String,Integer> map = empty();
+    java.util.Map<String,Integer> model = new java.util.HashMap<String,Integer>();
+    java.util.List<PersistentHashMap<String,Integer>> versions =
+      new java.util.ArrayList<PersistentHashMap<String,Integer>>();
+    java.util.List<java.util.Map<String,Integer>> models =
+      new java.util.ArrayList<java.util.Map<String,Integer>>();
+    for (int op = 1; op <= 200000; op++) {
+      String key = keys.get(random.nextInt(keys.size()));
+      // Grow for 5000 operations, then drain for 5000.
+      if (random.nextInt(10) < ((op / 5000) % 2 == 0 ? 4 : 8)) {
+        PersistentHashMap<String,Integer> next = map.remove(key);
+        boolean present = model.remove(key) != null;
+        expect((next != map) == present, "remove(" + key + ") is wrong");
+        map = next;
+      } else {
+        map = map.put(key, op);
+        model.put(key, op);
+      }
+      if (op % 100 == 0) {
+        versions.add(map);
+        models.add(new java.util.HashMap<String,Integer>(model));
+      }
+      if (op % 5000 == 0) {
+        check(map, model, "persistent put()/remove()");
+      }
+    }
+    for (int i = 0; i < versions.size(); i++) {
+      expect(versions.get(i).size() == models.get(i).size(), "an old version changed size");
+      for (java.util.Map.Entry<String,Integer> entry : models.get(i).entrySet()) {
+        expect(entry.getValue().equals(versions.get(i).get(entry.getKey())),
+               "an old version changed");
+      }
+    }
+    check(versions.get(versions.size() / 2), models.get(models.size() / 2), "an old version");
+
+    java.util.Map<String,Integer> sourceModel = new java.util.HashMap<String,Integer>(model);
+    Builder<String,Integer> builder = map.toBuilder();
+    java.util.Map<String,Integer> builderModel = new java.util.HashMap<String,Integer>(model);
+    PersistentHashMap<String,Integer> built = null;
+    java.util.Map<String,Integer> builtModel = null;
+    for (int op = 1; op <= 100000; op++) {
+      String key = keys.get(random.nextInt(keys.size()));
+      if (random.nextInt(2) == 0) {
+        builder.remove(key);
+        builderModel.remove(key);
+      } else {
+        builder.put(key, -op);
+        builderModel.put(key, -op);
+      }
+      expect(builder.size() == builderModel.size(), "Builder.size() is wrong");
+      if (op % 10000 == 0) {
+        if (built != null) {
+          check(built, builtModel, "a built map after further Builder edits");
+        }
+        built = builder.build();
+        builtModel = new java.util.HashMap<String,Integer>(builderModel);
+        check(built, builtModel, "Builder.build()");
+      }
+    }
+    check(map, sourceModel, "the map a Builder started from");
+    check(built, builtModel, "the last built map");
+    for (String key : keys) {
+      map = map.remove(key);
+    }
+    expect(map.isEmpty() && nodes(map.root) == 1, "removing every key left nodes behind");
+    System.out.println("PersistentHashMap agrees with java.util.HashMap, and old versions " +
+                       "and Builder sources stay unchanged");
+  }
+
+  /**
+   *  Checks PersistentHashMap against java.util.HashMap (see checkModel()),
+   *  then compares building a map of n Integer keys with persistent put(),
+   *  with a Builder, and with a HashMap, and times lookups in the result.
+   */
+  public static void main(String[] argv) {
+    checkModel();
+    int n = 1000000;
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      PersistentHashMap<Integer,Integer> persistent = empty();
+      for (int i = 0; i < n; i++) {
+        persistent = persistent.put(i, i);
+      }
+      long persistentNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      Builder<Integer,Integer> builder = builder();
+      for (int i = 0; i < n; i++) {
+        builder.put(i, i);
+      }
+      PersistentHashMap<Integer,Integer> built = builder.build();
+      long builderNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      HashMap<Integer,Integer> mutable = new HashMap<Integer,Integer>();
+      for (int i = 0; i < n; i++) {
+        mutable.put(i, i);
+      }
+      long hashMapNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      long sum = 0;
+      for (int i = 0; i < n; i++) {
+        sum += built.get(i);
+      }
+      long getNanos = System.nanoTime() - start;
+      System.out.println(n + " puts: persistent " + persistentNanos / n +
+                         " ns, builder " + builderNanos / n + " ns, HashMap " +
+                         hashMapNanos / n + " ns per put; get " + getNanos / n +
+                         " ns (checksum " + (sum + persistent.size()) + ")");
+    }
+  }
+
+}
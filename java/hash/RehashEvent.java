@@ -0,0 +1,39 @@
+/* RehashEvent.java */
+
+package hash;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ *  A RehashEvent is a Java Flight Recorder event committed each time a
+ *  HashMap grows or shrinks its table.  The event's duration is the time the rehash
+ *  took; for an incremental rehash, that is only the time to allocate the
+ *  new table, since the entries are moved by later operations.
+ **/
+
+@Name("hash.Rehash")
+@Label("HashMap Rehash")
+@Category("Hash Tables")
+@Description("A HashMap resized its bucket table")
+class RehashEvent extends Event {
+
+  @Label("Key Class")
+  String keyClass;
+
+  @Label("Size")
+  int size;
+
+  @Label("Old Buckets")
+  int oldBuckets;
+
+  @Label("New Buckets")
+  int newBuckets;
+
+  @Label("Incremental")
+  boolean incremental;
+
+}
@@ -0,0 +1,138 @@
+/* SipHash.java */
+
+package hash;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ *  SipHash computes SipHash-2-4, a keyed hash function:  given a secret
+ *  128-bit key (k0, k1), its 64-bit results cannot be predicted, and so
+ *  inputs cannot be chosen to collide, by anyone who does not know the key.
+ *  A hash table that hashes attacker-supplied keys this way under a random
+ *  key is protected from hash flooding, where many keys with equal hash
+ *  codes turn every operation into a scan of one long chain.
+ *
+ *  A CharSequence is hashed as the little-endian bytes of its UTF-16 chars,
+ *  so hash(k0, k1, s) equals the hash of s.getBytes(UTF_16LE).
+ **/
+
+public final class SipHash {
+
+  private static final VarHandle LONGS =
+    MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+  private SipHash() {
+  }
+
+  /**
+   *  The four words of SipHash state.  A State never escapes hash(), so the
+   *  JIT compiler keeps its fields in registers.
+   **/
+  private static final class State {
+
+    long v0;
+    long v1;
+    long v2;
+    long v3;
+
+    State(long k0, long k1) {
+      v0 = k0 ^ 0x736f6d6570736575L;
+      v1 = k1 ^ 0x646f72616e646f6dL;
+      v2 = k0 ^ 0x6c7967656e657261L;
+      v3 = k1 ^ 0x7465646279746573L;
+    }
+
+    void round() {
+      v0 += v1;
+      v1 = Long.rotateLeft(v1, 13);
+      v1 ^= v0;
+      v0 = Long.rotateLeft(v0, 32);
+      v2 += v3;
+      v3 = Long.rotateLeft(v3, 16);
+      v3 ^= v2;
+      v0 += v3;
+      v3 = Long.rotateLeft(v3, 21);
+      v3 ^= v0;
+      v2 += v1;
+      v1 = Long.rotateLeft(v1, 17);
+      v1 ^= v2;
+      v2 = Long.rotateLeft(v2, 32);
+    }
+
+    /**
+     *  Absorbs one 8-byte word of input with two compression rounds.
+     **/
+    void compress(long m) {
+      v3 ^= m;
+      round();
+      round();
+      v0 ^= m;
+    }
+
+    /**
+     *  Absorbs the last word, which holds the input length in its top byte,
+     *  and returns the hash after four finalization rounds.
+     **/
+    long finish(long last) {
+      compress(last);
+      v2 ^= 0xff;
+      round();
+      round();
+      round();
+      round();
+      return v0 ^ v1 ^ v2 ^ v3;
+    }
+
+  }
+
+  /**
+   *  hash() returns the SipHash-2-4 of data under the key (k0, k1).
+   **/
+  public static long hash(long k0, long k1, byte[] data) {
+    return hash(k0, k1, data, 0, data.length);
+  }
+
+  /**
+   *  hash() returns the SipHash-2-4 of data[offset...offset+length-1] under
+   *  the key (k0, k1).
+   **/
+  public static long hash(long k0, long k1, byte[] data, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > data.length) {
+      throw new IndexOutOfBoundsException("bad offset or length");
+    }
+    State s = new State(k0, k1);
+    int end = offset + (length & ~7);
+    int i = offset;
+    for (; i < end; i += 8) {
+      s.compress((long) LONGS.get(data, i));
+    }
+    long last = (long) length << 56;
+    for (int shift = 0; i < offset + length; i++, shift += 8) {
+      last |= (data[i] & 0xffL) << shift;
+    }
+    return s.finish(last);
+  }
+
+  /**
+   *  hash() returns the SipHash-2-4 of the UTF-16LE bytes of chars under the
+   *  key (k0, k1).
+   **/
+  public static long hash(long k0, long k1, CharSequence chars) {
+    State s = new State(k0, k1);
+    int length = chars.length();
+    int end = length & ~3;
+    int i = 0;
+    for (; i < end; i += 4) {
+      s.compress(chars.charAt(i) | (long) chars.charAt(i + 1) << 16 |
+                 (long) chars.charAt(i + 2) << 32 | (long) chars.charAt(i + 3) << 48);
+    }
+    long last = (long) (2 * length) << 56;
+    for (int shift = 0; i < length; i++, shift += 16) {
+      last |= (long) chars.charAt(i) << shift;
+    }
+    return s.finish(last);
+  }
+
+}
@@ -0,0 +1,276 @@
+/* TreeBin.java */
+
+package hash;
+
+/**
+ *  A TreeBin holds the entries of one overfull HashMap bucket in an AVL
+ *  tree, so that a bucket with n entries is searched in O(log n) time
+ *  instead of by walking a chain.
+ *
+ *  Entries are ordered by hash code; entries with equal hash codes are
+ *  ordered by compareTo() if their keys are Comparable and of the same
+ *  class, and otherwise by identity hash code.  Identity order only decides
+ *  where a new entry is placed:  a key that is equal to, but not the same
+ *  object as, a stored key may sit on either side, so searches for keys
+ *  that tie on hash and compareTo() look in both subtrees.
+ **/
+
+class TreeBin<K,V> {
+
+  /**
+   *  A TreeNode holds one entry along with its key's hash code and the
+   *  height of the subtree rooted at the node.
+   **/
+  static class TreeNode<K,V> {
+    final int hash;
+    final Entry<K,V> entry;
+    TreeNode<K,V> left;
+    TreeNode<K,V> right;
+    int height = 1;
+
+    TreeNode(int hash, Entry<K,V> entry) {
+      this.hash = hash;
+      this.entry = entry;
+    }
+  }
+
+  private TreeNode<K,V> root;
+  private int size;
+  private Entry<K,V> removed;
+
+  /**
+   *  size() returns the number of entries in the tree.
+   **/
+  int size() {
+    return size;
+  }
+
+  /**
+   *  find() returns the entry whose key equals key, or null.
+   *
+   *  Performance:  runs in O(log n) time unless many keys tie on both hash
+   *  code and compareTo().
+   **/
+  Entry<K,V> find(int hash, Object key) {
+    return find(root, hash, key);
+  }
+
+  private Entry<K,V> find(TreeNode<K,V> p, int hash, Object key) {
+    while (p != null) {
+      if (hash < p.hash) {
+        p = p.left;
+      } else if (hash > p.hash) {
+        p = p.right;
+      } else {
+        K k = p.entry.key();
+        if (k == key || k.equals(key)) {
+          return p.entry;
+        }
+        int c = compareComparables(key, k);
+        if (c < 0) {
+          p = p.left;
+        } else if (c > 0) {
+          p = p.right;
+        } else {
+          Entry<K,V> output = find(p.right, hash, key);
+          if (output != null) {
+            return output;
+          }
+          p = p.left;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   *  insert() adds entry, whose key must not already be in the tree.
+   *
+   *  Performance:  runs in O(log n) time.
+   **/
+  void insert(int hash, Entry<K,V> entry) {
+    root = insert(root, new TreeNode<K,V>(hash, entry));
+    size++;
+  }
+
+  private TreeNode<K,V> insert(TreeNode<K,V> p, TreeNode<K,V> node) {
+    if (p == null) {
+      return node;
+    }
+    if (compare(node, p) < 0) {
+      p.left = insert(p.left, node);
+    } else {
+      p.right = insert(p.right, node);
+    }
+    return balance(p);
+  }
+
+  /**
+   *  remove() removes and returns the entry whose key equals key, or returns
+   *  null if there is none.
+   *
+   *  Performance:  runs in O(log n) time unless many keys tie on both hash
+   *  code and compareTo().
+   **/
+  Entry<K,V> remove(int hash, Object key) {
+    removed = null;
+    root = remove(root, hash, key);
+    Entry<K,V> output = removed;
+    removed = null;
+    if (output != null) {
+      size--;
+    }
+    return output;
+  }
+
+  private TreeNode<K,V> remove(TreeNode<K,V> p, int hash, Object key) {
+    if (p == null) {
+      return null;
+    }
+    if (hash < p.hash) {
+      p.left = remove(p.left, hash, key);
+    } else if (hash > p.hash) {
+      p.right = remove(p.right, hash, key);
+    } else {
+      K k = p.entry.key();
+      if (k == key || k.equals(key)) {
+        removed = p.entry;
+        return unlink(p);
+      }
+      int c = compareComparables(key, k);
+      if (c < 0) {
+        p.left = remove(p.left, hash, key);
+      } else if (c > 0) {
+        p.right = remove(p.right, hash, key);
+      } else {
+        p.right = remove(p.right, hash, key);
+        if (removed == null) {
+          p.left = remove(p.left, hash, key);
+        }
+      }
+    }
+    return balance(p);
+  }
+
+  /**
+   *  unlink() returns the subtree that replaces p once p is deleted.
+   **/
+  private TreeNode<K,V> unlink(TreeNode<K,V> p) {
+    if (p.left == null) {
+      return p.right;
+    }
+    if (p.right == null) {
+      return p.left;
+    }
+    TreeNode<K,V> successor = p.right;
+    while (successor.left != null) {
+      successor = successor.left;
+    }
+    successor.right = removeMin(p.right);
+    successor.left = p.left;
+    return balance(successor);
+  }
+
+  private TreeNode<K,V> removeMin(TreeNode<K,V> p) {
+    if (p.left == null) {
+      return p.right;
+    }
+    p.left = removeMin(p.left);
+    return balance(p);
+  }
+
+  /**
+   *  toChain() links the tree's entries, in tree order, through their next
+   *  fields and returns the first one.  The tree must not be used
+   *  afterward.
+   **/
+  Entry<K,V> toChain() {
+    return chain(root, null);
+  }
+
+  /**
+   *  chain() links the entries of the subtree rooted at p in front of rest.
+   **/
+  private Entry<K,V> chain(TreeNode<K,V> p, Entry<K,V> rest) {
+    if (p == null) {
+      return rest;
+    }
+    p.entry.next = chain(p.right, rest);
+    return chain(p.left, p.entry);
+  }
+
+  /**
+   *  compare() orders two nodes by hash code, then by compareTo() if that
+   *  applies, then by identity.  It never returns 0 for distinct nodes.
+   **/
+  private static <K,V> int compare(TreeNode<K,V> a, TreeNode<K,V> b) {
+    if (a.hash != b.hash) {
+      return a.hash < b.hash ? -1 : 1;
+    }
+    K ka = a.entry.key();
+    K kb = b.entry.key();
+    int c = compareComparables(ka, kb);
+    if (c != 0) {
+      return c;
+    }
+    return System.identityHashCode(ka) <= System.identityHashCode(kb) ? -1 : 1;
+  }
+
+  /**
+   *  compareComparables() returns a.compareTo(b) if a and b are Comparable
+   *  objects of the same class, and 0 otherwise.
+   **/
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  static int compareComparables(Object a, Object b) {
+    if (a instanceof Comparable && a.getClass() == b.getClass()) {
+      return ((Comparable) a).compareTo(b);
+    }
+    return 0;
+  }
+
+  private static <K,V> int height(TreeNode<K,V> p) {
+    return p == null ? 0 : p.height;
+  }
+
+  private static <K,V> TreeNode<K,V> rotateRight(TreeNode<K,V> p) {
+    TreeNode<K,V> l = p.left;
+    p.left = l.right;
+    l.right = p;
+    p.height = Math.max(height(p.left), height(p.right)) + 1;
+    l.height = Math.max(height(l.left), height(l.right)) + 1;
+    return l;
+  }
+
+  private static <K,V> TreeNode<K,V> rotateLeft(TreeNode<K,V> p) {
+    TreeNode<K,V> r = p.right;
+    p.right = r.left;
+    r.left = p;
+    p.height = Math.max(height(p.left), height(p.right)) + 1;
+    r.height = Math.max(height(r.left), height(r.right)) + 1;
+    return r;
+  }
+
+  /**
+   *  balance() restores the AVL property at p, whose subtrees are balanced
+   *  and differ in height by at most 2, and returns the new subtree root.
+   **/
+  private static <K,V> TreeNode<K,V> balance(TreeNode<K,V> p) {
+    int lh = height(p.left);
+    int rh = height(p.right);
+    if (lh > rh + 1) {
+      if (height(p.left.left) < height(p.left.right)) {
+        p.left = rotateLeft(p.left);
+      }
+      return rotateRight(p);
+    }
+    if (rh > lh + 1) {
+      if (height(p.right.right) < height(p.right.left)) {
+        p.right = rotateRight(p.right);
+      }
+      return rotateLeft(p);
+    }
+    p.height = Math.max(lh, rh) + 1;
+    return p;
+  }
+
+}
@@ -0,0 +1,108 @@
+/* VersionedMap.java */
+
+package hash;
+
+import java.util.function.UnaryOperator;
+
+/**
+ *  A VersionedMap publishes successive versions of a PersistentHashMap to
+ *  concurrent readers.  The current version is held in a volatile field:
+ *  readers take a snapshot() with a single volatile read and never lock,
+ *  and a snapshot never changes, however long it is held.  Writers build
+ *  the next version off to the side and publish it with a single volatile
+ *  write, so readers see either all of a change or none of it.
+ *
+ *  Writers are serialized by the VersionedMap's monitor.  A writer that
+ *  makes many changes at once should use update() with a
+ *  PersistentHashMap.Builder, so that each node is copied at most once.
+ **/
+
+public class VersionedMap<K,V> {
+
+  private volatile PersistentHashMap<K,V> current;
+
+  /**
+   *  Construct a VersionedMap whose first version is empty.
+   **/
+  public VersionedMap() {
+    this(PersistentHashMap.<K,V>empty());
+  }
+
+  /**
+   *  Construct a VersionedMap whose first version is initial.
+   **/
+  public VersionedMap(PersistentHashMap<K,V> initial) {
+    current = initial;
+  }
+
+  /**
+   *  snapshot() returns the current version.
+   *
+   *  Performance:  runs in O(1) time and never blocks.
+   **/
+  public PersistentHashMap<K,V> snapshot() {
+    return current;
+  }
+
+  /**
+   *  get() returns the value associated with key in the current version, or
+   *  null.
+   *
+   *  Performance:  runs in O(log32 n) time and never blocks.
+   **/
+  public V get(K key) {
+    return current.get(key);
+  }
+
+  /**
+   *  size() returns the number of entries in the current version.
+   **/
+  public int size() {
+    return current.size();
+  }
+
+  /**
+   *  put() publishes a version with key associated with value.
+   *
+   *  @return the value key had in the previous version, or null.
+   *
+   *  Performance:  runs in O(log32 n) time.
+   **/
+  public synchronized V put(K key, V value) {
+    PersistentHashMap<K,V> old = current;
+    current = old.put(key, value);
+    return old.get(key);
+  }
+
+  /**
+   *  remove() publishes a version without key.
+   *
+   *  @return the value key had in the previous version, or null.
+   *
+   *  Performance:  runs in O(log32 n) time.
+   **/
+  public synchronized V remove(K key) {
+    PersistentHashMap<K,V> old = current;
+    current = old.remove(key);
+    return old.get(key);
+  }
+
+  /**
+   *  update() publishes the version that function returns when applied to
+   *  the current version.  No other write can happen in between.  function
+   *  may, for example, apply a batch of changes with toBuilder() and
+   *  build().
+   *
+   *  @return the version published.
+   **/
+  public synchronized PersistentHashMap<K,V> update(
+      UnaryOperator<PersistentHashMap<K,V>> function) {
+    PersistentHashMap<K,V> next = function.apply(current);
+    if (next == null) {
+      throw new IllegalArgumentException("update function returned null");
+    }
+    current = next;
+    return next;
+  }
+
+}
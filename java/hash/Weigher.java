@@ -0,0 +1,18 @@
+/* Weigher.java */
+
+package hash;
+
+/**
+ *  A Weigher computes the weight of a cache entry, so that a BoundedCache
+ *  can be bounded by total weight (bytes, say) rather than by entry count.
+ **/
+
+public interface Weigher<K,V> {
+
+  /**
+   *  weigh() returns the weight of the entry for key and value.  The weight
+   *  must not be negative, and is computed once, when the entry is put.
+   **/
+  int weigh(K key, V value);
+
+}
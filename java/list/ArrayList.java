@@ -0,0 +1,468 @@
+/* ArrayList.java */
+
+package list;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ *  An ArrayList is a mutable list ADT that keeps its items in one array,
+ *  used as a circular buffer.  The items sit next to each other in memory,
+ *  so iteration reads the array in order instead of following a pointer per
+ *  item, and the list costs one reference per item rather than a node.
+ *
+ *  Inserting or removing at either end takes O(1) amortized time, and nth()
+ *  takes O(1) time.  Inserting or removing elsewhere moves every item
+ *  between that position and the nearer end.
+ *
+ *  The ListNodes of an ArrayList are handles on slots of the array; front(),
+ *  back(), next() and prev() create them on demand, at most one per item.
+ *  Once the list has handed out a handle, it keeps a second array, parallel
+ *  to the first, of the handle on each slot, and moves the handles along
+ *  with their items when insertions and removals shift them.  A handle thus
+ *  stays valid until its own item is removed, however many other changes
+ *  are made in the meantime.  Using an invalid handle throws an
+ *  InvalidNodeException, as using a removed DListNode does.
+ **/
+
+public class ArrayList<T> extends List<T> {
+
+  private final static int minCapacity = 8;
+  private final static int maxCapacity = 1 << 30;
+
+  /**
+   *  (inherited)  size is the number of items in the list.
+   *  items is the circular buffer; its length is a power of two.  Item i is
+   *  in items[(head + i) & (items.length - 1)], and unused slots are null.
+   *  handles is null until the first handle is made; from then on it has
+   *  the same length as items, and handles[i] is the handle on the item in
+   *  items[i], or null if there is none.
+   *  modCount counts insertions and removals, so that iterators can tell
+   *  whether positions have shifted since they were made.
+   **/
+  private Object[] items;
+  private Node<T>[] handles;
+  private int head;
+  private int modCount;
+
+  /**
+   *  ArrayList() constructs an empty ArrayList.
+   **/
+  public ArrayList() {
+    this(minCapacity);
+  }
+
+  /**
+   *  ArrayList() constructs an empty ArrayList with room for capacity items
+   *  before its array must grow.
+   **/
+  public ArrayList(int capacity) {
+    if (capacity < 0 || capacity > maxCapacity) {
+      throw new IllegalArgumentException("bad capacity " + capacity);
+    }
+    int length = minCapacity;
+    while (length < capacity) {
+      length <<= 1;
+    }
+    items = new Object[length];
+  }
+
+  /**
+   *  slot() returns the index in items of the item at position.
+   **/
+  private int slot(int position) {
+    return (head + position) & (items.length - 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  private T at(int position) {
+    return (T) items[slot(position)];
+  }
+
+  /**
+   *  position() returns the position of the item in slot of items.
+   **/
+  private int position(int slot) {
+    return (slot - head) & (items.length - 1);
+  }
+
+  /**
+   *  move() moves the item in slot from of items, and its handle if it has
+   *  one, to slot to.
+   **/
+  private void move(int to, int from) {
+    items[to] = items[from];
+    if (handles != null) {
+      Node<T> handle = handles[to] = handles[from];
+      if (handle != null) {
+        handle.slot = to;
+      }
+    }
+  }
+
+  /**
+   *  empty() clears slot of items and of handles.
+   **/
+  private void empty(int slot) {
+    items[slot] = null;
+    if (handles != null) {
+      handles[slot] = null;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> Node<T>[] newHandles(int length) {
+    return (Node<T>[]) new Node<?>[length];
+  }
+
+  /**
+   *  handle() returns the handle on the item at position, 0 <= position <
+   *  size, making it if there is none yet.
+   **/
+  private Node<T> handle(int position) {
+    if (handles == null) {
+      handles = newHandles(items.length);
+    }
+    int slot = slot(position);
+    Node<T> handle = handles[slot];
+    if (handle == null) {
+      handle = handles[slot] = new Node<T>(this, slot);
+    }
+    return handle;
+  }
+
+  /**
+   *  grow() doubles the array, copying the items to its start.
+   **/
+  private void grow() {
+    if (items.length == maxCapacity) {
+      throw new IllegalStateException("ArrayList cannot hold more than " +
+                                      maxCapacity + " items");
+    }
+    Object[] bigger = new Object[items.length * 2];
+    int firstPart = Math.min(size, items.length - head);
+    System.arraycopy(items, head, bigger, 0, firstPart);
+    System.arraycopy(items, 0, bigger, firstPart, size - firstPart);
+    if (handles != null) {
+      Node<T>[] moved = newHandles(bigger.length);
+      System.arraycopy(handles, head, moved, 0, firstPart);
+      System.arraycopy(handles, 0, moved, firstPart, size - firstPart);
+      for (int i = 0; i < size; i++) {
+        if (moved[i] != null) {
+          moved[i].slot = i;
+        }
+      }
+      handles = moved;
+    }
+    items = bigger;
+    head = 0;
+  }
+
+  /**
+   *  insert() inserts item at position, 0 <= position <= size, moving the
+   *  items on the side nearer an end by one slot.
+   *
+   *  Performance:  runs in O(min(position, size - position)) amortized time.
+   **/
+  private void insert(int position, T item) {
+    if (size == items.length) {
+      grow();
+    }
+    if (position < size - position) {
+      head = (head - 1) & (items.length - 1);
+      for (int i = 0; i < position; i++) {
+        move(slot(i), slot(i + 1));
+      }
+    } else {
+      for (int i = size; i > position; i--) {
+        move(slot(i), slot(i - 1));
+      }
+    }
+    empty(slot(position));
+    items[slot(position)] = item;
+    size++;
+    modCount++;
+  }
+
+  /**
+   *  removeAt() removes the item at position, 0 <= position < size, moving
+   *  the items on the side nearer an end by one slot.
+   *
+   *  Performance:  runs in O(min(position, size - position)) time.
+   **/
+  private void removeAt(int position) {
+    if (handles != null && handles[slot(position)] != null) {
+      handles[slot(position)].myList = null;
+    }
+    if (position < size - 1 - position) {
+      for (int i = position; i > 0; i--) {
+        move(slot(i), slot(i - 1));
+      }
+      empty(head);
+      head = (head + 1) & (items.length - 1);
+    } else {
+      for (int i = position; i < size - 1; i++) {
+        move(slot(i), slot(i + 1));
+      }
+      empty(slot(size - 1));
+    }
+    size--;
+    modCount++;
+  }
+
+  /**
+   *  insertFront() inserts an item at the front of this ArrayList.
+   *
+   *  @param item is the item to be inserted.
+   *
+   *  Performance:  runs in O(1) amortized time.
+   **/
+  public void insertFront(T item) {
+    insert(0, item);
+  }
+
+  /**
+   *  insertBack() inserts an item at the back of this ArrayList.
+   *
+   *  @param item is the item to be inserted.
+   *
+   *  Performance:  runs in O(1) amortized time.
+   **/
+  public void insertBack(T item) {
+    insert(size, item);
+  }
+
+  /**
+   *  remove() removes the first item equal to item, if there is one.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public void remove(T item) {
+    int position = indexOf(item);
+    if (position >= 0) {
+      removeAt(position);
+    }
+  }
+
+  /**
+   *  indexOf() returns the position of the first item equal to item, or -1.
+   **/
+  private int indexOf(T item) {
+    for (int i = 0; i < size; i++) {
+      if (Objects.equals(at(i), item)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   *  front() returns a handle on the front of this ArrayList, or an invalid
+   *  handle if the list is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public ListNode<T> front() {
+    return size == 0 ? new Node<T>(null, -1) : handle(0);
+  }
+
+  /**
+   *  back() returns a handle on the back of this ArrayList, or an invalid
+   *  handle if the list is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public ListNode<T> back() {
+    return size == 0 ? new Node<T>(null, -1) : handle(size - 1);
+  }
+
+  /**
+   *  nth() returns the item at position, or null if there is none.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public T nth(int position) {
+    if (position < 0 || position >= size) {
+      return null;
+    }
+    return at(position);
+  }
+
+  /**
+   *  toString() returns a String representation of this ArrayList, in the
+   *  same form as DList's.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public String toString() {
+    StringBuilder result = new StringBuilder("[  ");
+    for (int i = 0; i < size; i++) {
+      result.append(at(i)).append("  ");
+    }
+    return result.append("]").toString();
+  }
+
+  /**
+   *  contains() returns true if the list has an item equal to item.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public boolean contains(T item) {
+    return indexOf(item) >= 0;
+  }
+
+  /**
+   *  clone() returns a new ArrayList with the same item references.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public List<T> clone() {
+    ArrayList<T> copy = new ArrayList<T>(size);
+    for (int i = 0; i < size; i++) {
+      copy.items[i] = items[slot(i)];
+    }
+    copy.size = size;
+    return copy;
+  }
+
+  public ImmutableList<T> createImmutable() {
+    return new ImmutableList<T>(this);
+  }
+
+  /**
+   *  iterator() returns an Iterator over the items, front to back.  Its
+   *  remove() removes the last item returned; any other change to the
+   *  list's length makes it throw ConcurrentModificationException.
+   **/
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private int cursor;
+      private int last = -1;
+      private int expectedModCount = modCount;
+
+      public boolean hasNext() {
+        return cursor < size;
+      }
+
+      public T next() {
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (cursor >= size) {
+          throw new NoSuchElementException();
+        }
+        last = cursor++;
+        return at(last);
+      }
+
+      public void remove() {
+        if (last < 0) {
+          throw new IllegalStateException();
+        }
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        removeAt(last);
+        cursor = last;
+        last = -1;
+        expectedModCount = modCount;
+      }
+    };
+  }
+
+  /**
+   *  equals() returns true if item is a List of the same length whose items
+   *  are equal to this list's, in order.
+   **/
+  public boolean equals(Object item) {
+    if (!(item instanceof List)) {
+      return false;
+    }
+    List<?> other = (List<?>) item;
+    if (other.length() != size) {
+      return false;
+    }
+    Iterator<?> it = other.iterator();
+    for (int i = 0; i < size; i++) {
+      if (!Objects.equals(at(i), it.next())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int hashCode() {
+    int hash = 1;
+    for (int i = 0; i < size; i++) {
+      hash = 31 * hash + Objects.hashCode(at(i));
+    }
+    return hash;
+  }
+
+  /**
+   *  A Node is a handle on the item in items[slot] of an ArrayList.  It is
+   *  valid while it belongs to a list (myList != null); the list updates
+   *  slot whenever it moves the item, and sets myList to null when it
+   *  removes it.
+   **/
+  private static class Node<T> extends ListNode<T> {
+
+    private int slot;
+
+    Node(ArrayList<T> list, int slot) {
+      myList = list;
+      this.slot = slot;
+    }
+
+    /**
+     *  list() returns the list this handle is on, or throws an exception
+     *  naming the operation if the handle is invalid.
+     **/
+    private ArrayList<T> list(String operation) throws InvalidNodeException {
+      if (!isValidNode()) {
+        throw new InvalidNodeException(operation + " called on invalid node");
+      }
+      return (ArrayList<T>) myList;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T item() throws InvalidNodeException {
+      return (T) list("item()").items[slot];
+    }
+
+    public void setItem(T item) throws InvalidNodeException {
+      list("setItem()").items[slot] = item;
+    }
+
+    public ListNode<T> next() throws InvalidNodeException {
+      ArrayList<T> list = list("next()");
+      int position = list.position(slot);
+      return position + 1 < list.size ? list.handle(position + 1) : new Node<T>(null, -1);
+    }
+
+    public ListNode<T> prev() throws InvalidNodeException {
+      ArrayList<T> list = list("prev()");
+      int position = list.position(slot);
+      return position > 0 ? list.handle(position - 1) : new Node<T>(null, -1);
+    }
+
+    public void insertAfter(T item) throws InvalidNodeException {
+      ArrayList<T> list = list("insertAfter()");
+      list.insert(list.position(slot) + 1, item);
+    }
+
+    public void insertBefore(T item) throws InvalidNodeException {
+      ArrayList<T> list = list("insertBefore()");
+      list.insert(list.position(slot), item);
+    }
+
+    public void remove() throws InvalidNodeException {
+      ArrayList<T> list = list("remove()");
+      list.removeAt(list.position(slot));
+    }
+
+  }
+
+}
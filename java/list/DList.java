@@ -4,6 +4,7 @@ package list;
 
 
 import java.util.Iterator;
+import java.util.Objects;
 
 /**
  *  A DList is a mutable doubly-linked list ADT.  Its implementation is
@@ -92,22 +93,20 @@ public class DList<T> extends List<T> implements Iterable<T> {
   }
   
   /**
-  *Removes the listNode that contains item from the list
+  *Removes the first listNode whose item is equal to item from the list,
+  *if there is one.
   *
   */
   public void remove(T item) {
-	  ListNode<T> node = front();
-	  try{
-	  do{
-		  if (node.item().equals(item)) {
-			  node.remove();
+	  for (DListNode<T> node = head.next; node != head; node = node.next) {
+		  if (Objects.equals(node.item, item)) {
+			  try {
+				  node.remove();
+			  } catch (InvalidNodeException e) {
+				  e.printStackTrace();
+			  }
 			  return;
 		  }
-		  node = node.next();
-		  
-	  }while(node.item() != item);
-	  }catch (InvalidNodeException e) {
-		  e.printStackTrace();
 	  }
   }
 
@@ -140,6 +139,55 @@ public class DList<T> extends List<T> implements Iterable<T> {
   public ListNode<T> back() {
     return head.prev;
   }
+
+  /**
+   *  moveToFront() moves node, which must belong to this DList, to the front
+   *  of this DList.  No node is allocated, so node remains a valid handle.
+   *
+   *  @param node the node to move.
+   *  @exception InvalidNodeException if node is not a valid node of this DList.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public void moveToFront(ListNode<T> node) throws InvalidNodeException {
+	  DListNode<T> n = unlinkForMove(node, "moveToFront()");
+	  n.prev = head;
+	  n.next = head.next;
+	  head.next.prev = n;
+	  head.next = n;
+  }
+
+  /**
+   *  moveToBack() moves node, which must belong to this DList, to the back
+   *  of this DList.  No node is allocated, so node remains a valid handle.
+   *
+   *  @param node the node to move.
+   *  @exception InvalidNodeException if node is not a valid node of this DList.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public void moveToBack(ListNode<T> node) throws InvalidNodeException {
+	  DListNode<T> n = unlinkForMove(node, "moveToBack()");
+	  n.next = head;
+	  n.prev = head.prev;
+	  head.prev.next = n;
+	  head.prev = n;
+  }
+
+  /**
+   *  unlinkForMove() checks that node belongs to this DList and unlinks it,
+   *  leaving size unchanged.
+   **/
+  private DListNode<T> unlinkForMove(ListNode<T> node, String caller)
+	  throws InvalidNodeException {
+	  if (!node.isValidNode() || node.myList != this) {
+		  throw new InvalidNodeException(caller + " called on a node not in this list");
+	  }
+	  DListNode<T> n = (DListNode<T>) node;
+	  n.prev.next = n.next;
+	  n.next.prev = n.prev;
+	  return n;
+  }
   
   /**
   * Finds the item at the nth node of the list
@@ -209,13 +257,14 @@ public class DList<T> extends List<T> implements Iterable<T> {
   }
   
   /**
-  * Checks the list to see if it contains item
+  * Checks the list to see if it contains an item equal to item, comparing
+  * as remove() does.
   *
   * @return true if item is in the List, false otherwise.
   */
   public boolean contains(T item) {
 	  for (T nodeItem: this){
-		  if (nodeItem == item) {
+		  if (Objects.equals(nodeItem, item)) {
 			  return true;
 		  }
 	  }
@@ -1,106 +1,601 @@
-/* List.java */
+/* ImmutableList.java */
 
 package list;
 
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
 
 /**
- *  An ImmutableList is a immutable list ADT.  No implementation is provided.
+ *  An ImmutableList is an immutable list ADT.  It is persistent:
+ *  append(), prepend() and concat() leave the list unchanged and return a
+ *  new one that shares all but O(log n) of its nodes with the old, so a
+ *  snapshot or clone() costs O(1) time and any number of threads may read
+ *  a list without locks.
  *
- *  DO NOT CHANGE THIS FILE.
+ *  The list is a rope:  its items are kept in leaves of up to 32 items,
+ *  and the leaves are the fringe of a binary tree balanced as an AVL tree,
+ *  in which every branch records the number of items beneath it.  nth()
+ *  descends by position, append() and prepend() copy one spine of the tree
+ *  (and one leaf), and concat() joins two trees along the spine of the
+ *  taller.  A Builder makes a list of n items in O(n) time.
+ *
+ *  Making an ImmutableList from a mutable List copies the List's items, so
+ *  later changes to the List are not seen in the ImmutableList.
  **/
 
-public  class ImmutableList<T> implements Iterable<T> {
+public class ImmutableList<T> implements Iterable<T> {
+
+  private final static int leafCapacity = 32;
+
+  /**
+   *  A Node is a leaf or a branch.  size is the number of items beneath
+   *  it, and height is 0 for a leaf and one more than the taller child for
+   *  a branch.  The children of a branch differ in height by at most one.
+   **/
+  private static abstract class Node {
+    final int size;
+    final int height;
+
+    Node(int size, int height) {
+      this.size = size;
+      this.height = height;
+    }
+  }
+
+  /**
+   *  A Leaf holds 1...32 items in an array of exactly that length.
+   **/
+  private static final class Leaf extends Node {
+    final Object[] items;
+
+    Leaf(Object[] items) {
+      super(items.length, 0);
+      this.items = items;
+    }
+  }
+
+  private static final class Branch extends Node {
+    final Node left;
+    final Node right;
+
+    Branch(Node left, Node right) {
+      super(left.size + right.size, 1 + Math.max(left.height, right.height));
+      this.left = left;
+      this.right = right;
+    }
+  }
 
   /**
-   *  size is the number of items in the list.
+   *  root is the root of the tree, or null if the list is empty.
    **/
+  private final Node root;
 
-  private List<T> myList;
-  
-  
+  /**
+   *  ImmutableList() constructs an empty ImmutableList.
+   **/
   public ImmutableList() {
-	  this(new DList<T>());
+    this((Node) null);
   }
-  
+
+  /**
+   *  ImmutableList() constructs an ImmutableList holding list's items.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of list.
+   **/
   public ImmutableList(List<T> list) {
-	  myList = list;
+    this(copyOf(list));
+  }
+
+  private ImmutableList(Node root) {
+    this.root = root;
+  }
+
+  private static <T> Node copyOf(List<T> list) {
+    Builder<T> builder = new Builder<T>();
+    for (T item : list) {
+      builder.add(item);
+    }
+    return builder.tree();
+  }
+
+  /**
+   *  builder() returns a Builder for a new ImmutableList.
+   **/
+  public static <T> Builder<T> builder() {
+    return new Builder<T>();
   }
 
   /**
    *  isEmpty() returns true if this List is empty, false otherwise.
    *
-   *  @return true if this List is empty, false otherwise. 
+   *  @return true if this List is empty, false otherwise.
    *
    *  Performance:  runs in O(1) time.
    **/
   public boolean isEmpty() {
-    return myList.isEmpty();
+    return root == null;
   }
 
-  /** 
-   *  length() returns the length of this List. 
+  /**
+   *  length() returns the length of this List.
    *
    *  @return the length of this List.
    *
    *  Performance:  runs in O(1) time.
    **/
   public int length() {
-    return myList.size;
+    return root == null ? 0 : root.size;
   }
 
   /**
-   *  toString() returns a String representation of this List.
+   *  toString() returns a String representation of this List, in the same
+   *  form as DList's.
    *
    *  @return a String representation of this List.
    */
   public String toString() {
-	  return myList.toString();
+    StringBuilder result = new StringBuilder("[  ");
+    for (T item : this) {
+      result.append(item).append("  ");
+    }
+    return result.append("]").toString();
   }
-  
+
   /**
-   *  contains() returns a boolean of whether or not list contains item
+   *  contains() returns true if the list has an item equal to item.
    *
-   *  @return a boolean of whether or not list contains item.
+   *  Performance:  runs in O(n) time, where n is the length of the list.
    */
   public boolean contains(T item) {
-	  return myList.contains(item);
+    for (T mine : this) {
+      if (Objects.equals(mine, item)) {
+        return true;
+      }
+    }
+    return false;
   }
 
-
   /**
-  * Makes a copy of the list
-  *
-  * @return duplicate List that has the same item references as this list.
-  */
+   *  clone() returns a list with the same items, sharing this list's nodes.
+   *
+   *  Performance:  runs in O(1) time.
+   */
   public ImmutableList<T> clone() {
-	  return new ImmutableList<T>(myList.clone());
+    return new ImmutableList<T>(root);
+  }
+
+  /**
+   *  nth() returns the item at position, or null if there is none.
+   *
+   *  Performance:  runs in O(log n) time.
+   */
+  public T nth(int position) {
+    if (position < 0 || position >= length()) {
+      return null;
+    }
+    Node node = root;
+    while (node instanceof Branch) {
+      Branch branch = (Branch) node;
+      if (position < branch.left.size) {
+        node = branch.left;
+      } else {
+        position -= branch.left.size;
+        node = branch.right;
+      }
+    }
+    @SuppressWarnings("unchecked")
+    T item = (T) ((Leaf) node).items[position];
+    return item;
   }
 
+  /**
+   *  append() returns a list with this list's items followed by item.
+   *
+   *  Performance:  runs in O(log n) time.
+   */
+  public ImmutableList<T> append(T item) {
+    if (root == null) {
+      return new ImmutableList<T>(new Leaf(new Object[] { item }));
+    }
+    Node last = root;
+    while (last instanceof Branch) {
+      last = ((Branch) last).right;
+    }
+    if (last.size < leafCapacity) {
+      return new ImmutableList<T>(appendToLastLeaf(root, item));
+    }
+    return new ImmutableList<T>(join(root, new Leaf(new Object[] { item })));
+  }
 
   /**
-  * Returns an iterator over the List, which allows for List to be traversed through for loops.
-  */
-  public Iterator<T> iterator() {
-	  return myList.iterator();
+   *  prepend() returns a list with item followed by this list's items.
+   *
+   *  Performance:  runs in O(log n) time.
+   */
+  public ImmutableList<T> prepend(T item) {
+    if (root == null) {
+      return new ImmutableList<T>(new Leaf(new Object[] { item }));
+    }
+    Node first = root;
+    while (first instanceof Branch) {
+      first = ((Branch) first).left;
+    }
+    if (first.size < leafCapacity) {
+      return new ImmutableList<T>(prependToFirstLeaf(root, item));
+    }
+    return new ImmutableList<T>(join(new Leaf(new Object[] { item }), root));
   }
-  
+
   /**
-  * Finds the item at the nth node of the list
-  *
-  * @return the object at the nth node
-  */
-  public T nth(int position) {
-	  return myList.nth(position);
+   *  concat() returns a list with this list's items followed by other's.
+   *
+   *  Performance:  runs in O(log n) time, where n is the length of the
+   *  longer list.
+   */
+  public ImmutableList<T> concat(ImmutableList<T> other) {
+    if (other.root == null) {
+      return this;
+    }
+    if (root == null) {
+      return other;
+    }
+    if (root instanceof Leaf && other.root instanceof Leaf &&
+        root.size + other.root.size <= leafCapacity) {
+      Object[] items = Arrays.copyOf(((Leaf) root).items, root.size + other.root.size);
+      System.arraycopy(((Leaf) other.root).items, 0, items, root.size, other.root.size);
+      return new ImmutableList<T>(new Leaf(items));
+    }
+    return new ImmutableList<T>(join(root, other.root));
   }
-  
-  
+
+  private static Node appendToLastLeaf(Node node, Object item) {
+    if (node instanceof Branch) {
+      Branch branch = (Branch) node;
+      return new Branch(branch.left, appendToLastLeaf(branch.right, item));
+    }
+    Object[] items = Arrays.copyOf(((Leaf) node).items, node.size + 1);
+    items[node.size] = item;
+    return new Leaf(items);
+  }
+
+  private static Node prependToFirstLeaf(Node node, Object item) {
+    if (node instanceof Branch) {
+      Branch branch = (Branch) node;
+      return new Branch(prependToFirstLeaf(branch.left, item), branch.right);
+    }
+    Object[] items = new Object[node.size + 1];
+    items[0] = item;
+    System.arraycopy(((Leaf) node).items, 0, items, 1, node.size);
+    return new Leaf(items);
+  }
+
+  /**
+   *  join() returns a balanced tree whose fringe is left's followed by
+   *  right's, descending the taller tree's inner spine to a subtree as tall
+   *  as the shorter tree and rebalancing on the way back up.
+   *
+   *  Performance:  runs in O(|left.height - right.height| + 1) time.
+   **/
+  private static Node join(Node left, Node right) {
+    if (left.height > right.height + 1) {
+      Branch branch = (Branch) left;
+      return balance(branch.left, join(branch.right, right));
+    }
+    if (right.height > left.height + 1) {
+      Branch branch = (Branch) right;
+      return balance(join(left, branch.left), branch.right);
+    }
+    return new Branch(left, right);
+  }
+
+  /**
+   *  balance() returns a branch over left and right, whose heights differ
+   *  by at most two, rotating once or twice if they differ by two.
+   **/
+  private static Node balance(Node left, Node right) {
+    if (left.height > right.height + 1) {
+      Branch branch = (Branch) left;
+      if (branch.left.height >= branch.right.height) {
+        return new Branch(branch.left, new Branch(branch.right, right));
+      }
+      Branch middle = (Branch) branch.right;
+      return new Branch(new Branch(branch.left, middle.left), new Branch(middle.right, right));
+    }
+    if (right.height > left.height + 1) {
+      Branch branch = (Branch) right;
+      if (branch.right.height >= branch.left.height) {
+        return new Branch(new Branch(left, branch.left), branch.right);
+      }
+      Branch middle = (Branch) branch.left;
+      return new Branch(new Branch(left, middle.left), new Branch(middle.right, branch.right));
+    }
+    return new Branch(left, right);
+  }
+
   /**
-  * Checks for reference equality of items in each node. Shallow structural equality.
-  *
-  * @return returns true if their item references are equal, false otherwise.
-  */
+   *  iterator() returns an Iterator over the items, front to back.  The
+   *  list cannot change, so the Iterator's remove() is not supported.
+   */
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private final Node[] pending = new Node[root == null ? 0 : root.height];
+      private int depth;
+      private Object[] items = root == null ? new Object[0] : leftmostLeaf(root);
+      private int index;
+
+      /**
+       *  leftmostLeaf() returns the items of node's first leaf, pushing the
+       *  right children passed on the way.
+       **/
+      private Object[] leftmostLeaf(Node node) {
+        while (node instanceof Branch) {
+          pending[depth++] = ((Branch) node).right;
+          node = ((Branch) node).left;
+        }
+        return ((Leaf) node).items;
+      }
+
+      public boolean hasNext() {
+        return index < items.length || depth > 0;
+      }
+
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (index == items.length) {
+          if (depth == 0) {
+            throw new NoSuchElementException();
+          }
+          items = leftmostLeaf(pending[--depth]);
+          index = 0;
+        }
+        return (T) items[index++];
+      }
+    };
+  }
+
+  /**
+   *  equals() returns true if item is an ImmutableList of the same length
+   *  whose items are equal to this list's, in order.
+   */
   public boolean equals(Object item) {
-	  return myList.equals(item);
+    if (!(item instanceof ImmutableList)) {
+      return false;
+    }
+    ImmutableList<?> other = (ImmutableList<?>) item;
+    if (other.root == root) {
+      return true;
+    }
+    if (other.length() != length()) {
+      return false;
+    }
+    Iterator<?> it = other.iterator();
+    for (T mine : this) {
+      if (!Objects.equals(mine, it.next())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int hashCode() {
+    int hash = 1;
+    for (T item : this) {
+      hash = 31 * hash + Objects.hashCode(item);
+    }
+    return hash;
+  }
+
+  /**
+   *  A Builder collects items for a new ImmutableList.  build() may be
+   *  called more than once; each list holds the items added until then.
+   *  A Builder is not thread-safe.
+   **/
+  public static class Builder<T> {
+
+    private Object[] items = new Object[leafCapacity];
+    private int size;
+
+    private Builder() {
+    }
+
+    /**
+     *  add() adds item at the back of the list being built.
+     *
+     *  @return this Builder.
+     *
+     *  Performance:  runs in O(1) amortized time.
+     **/
+    public Builder<T> add(T item) {
+      if (size == items.length) {
+        items = Arrays.copyOf(items, size * 2);
+      }
+      items[size++] = item;
+      return this;
+    }
+
+    /**
+     *  size() returns the number of items added.
+     **/
+    public int size() {
+      return size;
+    }
+
+    /**
+     *  build() returns an ImmutableList of the items added.
+     *
+     *  Performance:  runs in O(n) time.
+     **/
+    public ImmutableList<T> build() {
+      return new ImmutableList<T>(tree());
+    }
+
+    /**
+     *  tree() cuts the items into full leaves (the last may be partial) and
+     *  builds a tree over them by halving, so siblings differ in height by
+     *  at most one.
+     **/
+    private Node tree() {
+      if (size == 0) {
+        return null;
+      }
+      Node[] leaves = new Node[(size + leafCapacity - 1) / leafCapacity];
+      for (int i = 0; i < leaves.length; i++) {
+        int start = i * leafCapacity;
+        leaves[i] = new Leaf(Arrays.copyOfRange(items, start, Math.min(size, start + leafCapacity)));
+      }
+      return balanced(leaves, 0, leaves.length);
+    }
+
+    private static Node balanced(Node[] leaves, int from, int to) {
+      if (to - from == 1) {
+        return leaves[from];
+      }
+      int middle = (from + to) >>> 1;
+      return new Branch(balanced(leaves, from, middle), balanced(leaves, middle, to));
+    }
+
+  }
+
+  /**
+   *  checkTree() throws an exception unless node's sizes and heights are
+   *  right and it is balanced.
+   **/
+  private static void checkTree(Node node) {
+    if (node instanceof Branch) {
+      Branch branch = (Branch) node;
+      checkTree(branch.left);
+      checkTree(branch.right);
+      if (node.size != branch.left.size + branch.right.size ||
+          node.height != 1 + Math.max(branch.left.height, branch.right.height) ||
+          Math.abs(branch.left.height - branch.right.height) > 1) {
+        throw new IllegalStateException("bad branch");
+      }
+    } else if (node != null && (node.size < 1 || node.size > leafCapacity)) {
+      throw new IllegalStateException("bad leaf");
+    }
   }
+
+  /**
+   *  Applies random append(), prepend() and concat() calls to a set of
+   *  ImmutableLists, keeping a java.util.ArrayList copy of each, and checks
+   *  that no list ever changes.
+   */
+  private static void testPersistence(int ops) {
+    Random random = new Random(0);
+    java.util.ArrayList<ImmutableList<Integer>> lists = new java.util.ArrayList<ImmutableList<Integer>>();
+    java.util.ArrayList<java.util.List<Integer>> models = new java.util.ArrayList<java.util.List<Integer>>();
+    lists.add(new ImmutableList<Integer>());
+    models.add(new java.util.ArrayList<Integer>());
+    for (int op = 0; op < ops; op++) {
+      int i = random.nextInt(lists.size());
+      ImmutableList<Integer> list = lists.get(i);
+      java.util.ArrayList<Integer> model = new java.util.ArrayList<Integer>(models.get(i));
+      switch (random.nextInt(4)) {
+      case 0:
+        list = list.append(op);
+        model.add(op);
+        break;
+      case 1:
+        list = list.prepend(op);
+        model.add(0, op);
+        break;
+      case 2:
+        int j = random.nextInt(lists.size());
+        list = list.concat(lists.get(j));
+        model.addAll(models.get(j));
+        break;
+      default:
+        Builder<Integer> builder = builder();
+        for (int k = random.nextInt(100); k > 0; k--) {
+          builder.add(k);
+          model.add(k);
+        }
+        list = list.concat(builder.build());
+        break;
+      }
+      if (model.size() > 5000) {
+        continue;
+      }
+      lists.add(list);
+      models.add(model);
+    }
+    for (int i = 0; i < lists.size(); i++) {
+      ImmutableList<Integer> list = lists.get(i);
+      java.util.List<Integer> model = models.get(i);
+      checkTree(list.root);
+      java.util.ArrayList<Integer> items = new java.util.ArrayList<Integer>();
+      for (Integer item : list) {
+        items.add(item);
+      }
+      if (!items.equals(model) || list.length() != model.size()) {
+        throw new IllegalStateException("list " + i + " differs from its model");
+      }
+      for (int k = 0; k < model.size(); k += 7) {
+        if (!list.nth(k).equals(model.get(k))) {
+          throw new IllegalStateException("nth(" + k + ") of list " + i + " is wrong");
+        }
+      }
+    }
+    System.out.println(lists.size() + " lists agree with java.util.ArrayList copies");
+  }
+
+  /**
+   *  Times building an ImmutableList of n items by append() and by a
+   *  Builder, then clone() and concat() on lists of n items, against the
+   *  DList copy that backed ImmutableList.clone() before.
+   */
+  private static void benchmark(int n) {
+    long start = System.nanoTime();
+    ImmutableList<Integer> appended = new ImmutableList<Integer>();
+    for (int i = 0; i < n; i++) {
+      appended = appended.append(i);
+    }
+    long appendNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    Builder<Integer> builder = builder();
+    for (int i = 0; i < n; i++) {
+      builder.add(i);
+    }
+    ImmutableList<Integer> built = builder.build();
+    long buildNanos = System.nanoTime() - start;
+    DList<Integer> dlist = new DList<Integer>();
+    for (int i = 0; i < n; i++) {
+      dlist.insertBack(i);
+    }
+    start = System.nanoTime();
+    List<Integer> copy = dlist.clone();
+    long dlistCloneNanos = System.nanoTime() - start;
+    int calls = 1000;
+    ImmutableList<Integer> clone = built;
+    start = System.nanoTime();
+    for (int i = 0; i < calls; i++) {
+      clone = clone.clone();
+    }
+    long cloneNanos = (System.nanoTime() - start) / calls;
+    ImmutableList<Integer> doubled = built;
+    start = System.nanoTime();
+    for (int i = 0; i < calls; i++) {
+      doubled = built.concat(i % 2 == 0 ? appended : clone);
+    }
+    long concatNanos = (System.nanoTime() - start) / calls;
+    if (!appended.equals(built) || !clone.equals(built) || copy.length() != n ||
+        doubled.length() != 2 * n) {
+      throw new IllegalStateException("lists differ");
+    }
+    System.out.println(n + " items:  append() " + appendNanos / n + " ns per item, Builder " +
+                       buildNanos / n + " ns per item, clone() " + cloneNanos +
+                       " ns (DList.clone() " + dlistCloneNanos / 1000 + " us), concat() " +
+                       concatNanos + " ns");
+  }
+
+  public static void main(String[] argv) {
+    testPersistence(20000);
+    for (int round = 0; round < 3; round++) {
+      benchmark(1000000);
+    }
+  }
+
 }
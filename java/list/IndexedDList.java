@@ -0,0 +1,447 @@
+/* IndexedDList.java */
+
+package list;
+
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ *  An IndexedDList is a DList that keeps an index from items to the nodes
+ *  holding them, so contains() and remove(item) take O(1) expected time
+ *  instead of scanning the list.  Both compare items with equals(), so
+ *  items must have hashCode() methods consistent with equals().
+ *
+ *  The index is a java.util.HashMap from each distinct item to the first
+ *  of the nodes holding an equal item; those nodes are chained together
+ *  through fields of their own, so duplicates cost no extra allocation.
+ *  Every node is created by newNode() and removed through remove(), so the
+ *  index sees every insertion, including insertAfter() and insertBefore()
+ *  on a node, and setItem() re-indexes a node.
+ *
+ *  Each chain is kept in list order, so remove(item) removes the first
+ *  node of item's chain, which is the first equal item in the list, as
+ *  DList's does.  A node inserted at either end of the list joins the same
+ *  end of its chain; a node inserted elsewhere (or given a new item by
+ *  setItem()) is placed next to the nearest equal item, found by walking
+ *  outward from the node in both directions at once.
+ **/
+
+public class IndexedDList<T> extends DList<T> {
+
+  /**
+   *  An IndexedNode is a DListNode in a chain of nodes with equal items.
+   *  dupNext is the next node in the chain, or null; dupPrev is the
+   *  previous node, except that the first node's dupPrev is the last.
+   **/
+  private static class IndexedNode<T> extends DListNode<T> {
+
+    IndexedNode<T> dupPrev;
+    IndexedNode<T> dupNext;
+
+    IndexedNode(T item, DList<T> list, DListNode<T> prev, DListNode<T> next) {
+      super(item, list, prev, next);
+    }
+
+    /**
+     *  setItem() sets this node's item and moves it to its place in the new
+     *  item's chain.
+     *
+     *  Performance:  runs in O(1) expected time if the list holds no other
+     *  item equal to item, and otherwise in O(d) time, where d is the
+     *  distance to the nearest one.
+     **/
+    public void setItem(T item) throws InvalidNodeException {
+      if (!isValidNode()) {
+        throw new InvalidNodeException("setItem() called on invalid node");
+      }
+      IndexedDList<T> list = (IndexedDList<T>) myList;
+      list.unindex(this);
+      this.item = item;
+      list.index(this);
+    }
+
+    /**
+     *  remove() removes this node from its list and from the index.
+     *
+     *  Performance:  runs in O(1) expected time.
+     **/
+    public void remove() throws InvalidNodeException {
+      if (!isValidNode()) {
+        throw new InvalidNodeException("remove() called on invalid node");
+      }
+      ((IndexedDList<T>) myList).unindex(this);
+      super.remove();
+    }
+
+  }
+
+  /**
+   *  (inherited)  size is the number of items in the list.
+   *  (inherited)  head references the sentinel node.
+   *  chains maps each item in the list to the first node of its chain.  It
+   *  is a java.util.HashMap because the hash package depends on this one.
+   **/
+  private final java.util.HashMap<Object,IndexedNode<T>> chains =
+    new java.util.HashMap<Object,IndexedNode<T>>();
+
+  /**
+   *  IndexedDList() constructs an empty IndexedDList.
+   **/
+  public IndexedDList() {
+    super();
+  }
+
+  /**
+   *  newNode() allocates an IndexedNode and, unless it is the sentinel,
+   *  adds it to the index.  The DList constructor calls this to make the
+   *  sentinel before this class's fields are set.
+   *
+   *  Performance:  runs in O(1) expected time at the ends of the list or if
+   *  the list holds no item equal to item, and otherwise in O(d) time,
+   *  where d is the distance to the nearest one.
+   **/
+  protected DListNode<T> newNode(T item, DList<T> list,
+                                 DListNode<T> prev, DListNode<T> next) {
+    IndexedNode<T> node = new IndexedNode<T>(item, list, prev, next);
+    if (list != null) {
+      index(node);
+    }
+    return node;
+  }
+
+  /**
+   *  index() adds node, whose prev and next are its neighbors in the list
+   *  (although they may not point back to it yet), to the chain of its
+   *  item, at the place that keeps the chain in list order.
+   **/
+  private void index(IndexedNode<T> node) {
+    IndexedNode<T> first = chains.get(node.item);
+    if (first == null) {
+      node.dupPrev = node;
+      node.dupNext = null;
+      chains.put(node.item, node);
+      return;
+    }
+    if (node.prev == head) {
+      chainBefore(first, node, first);
+      return;
+    }
+    if (node.next == head) {
+      chainAfter(first.dupPrev, node, first);
+      return;
+    }
+    DListNode<T> before = node.prev;
+    DListNode<T> after = node.next;
+    while (before != head || after != head) {
+      if (before != head) {
+        if (Objects.equals(before.item, node.item)) {
+          chainAfter((IndexedNode<T>) before, node, first);
+          return;
+        }
+        before = before.prev;
+      }
+      if (after != head) {
+        if (Objects.equals(after.item, node.item)) {
+          chainBefore((IndexedNode<T>) after, node, first);
+          return;
+        }
+        after = after.next;
+      }
+    }
+    throw new IllegalStateException("no node in the list for the chain of " + node.item);
+  }
+
+  /**
+   *  chainAfter() links node into the chain whose first node is first,
+   *  right after other.
+   **/
+  private static <T> void chainAfter(IndexedNode<T> other, IndexedNode<T> node,
+                                     IndexedNode<T> first) {
+    node.dupPrev = other;
+    node.dupNext = other.dupNext;
+    if (other.dupNext == null) {
+      first.dupPrev = node;
+    } else {
+      other.dupNext.dupPrev = node;
+    }
+    other.dupNext = node;
+  }
+
+  /**
+   *  chainBefore() links node into the chain whose first node is first,
+   *  right before other.
+   **/
+  private void chainBefore(IndexedNode<T> other, IndexedNode<T> node,
+                           IndexedNode<T> first) {
+    if (other != first) {
+      chainAfter(other.dupPrev, node, first);
+      return;
+    }
+    node.dupPrev = first.dupPrev;
+    node.dupNext = first;
+    first.dupPrev = node;
+    chains.put(node.item, node);
+  }
+
+  /**
+   *  unindex() takes node out of the chain of its item.
+   **/
+  private void unindex(IndexedNode<T> node) {
+    IndexedNode<T> first = chains.get(node.item);
+    if (node == first) {
+      if (node.dupNext == null) {
+        chains.remove(node.item);
+      } else {
+        node.dupNext.dupPrev = node.dupPrev;
+        chains.put(node.item, node.dupNext);
+      }
+    } else {
+      node.dupPrev.dupNext = node.dupNext;
+      if (node.dupNext == null) {
+        first.dupPrev = node.dupPrev;
+      } else {
+        node.dupNext.dupPrev = node.dupPrev;
+      }
+    }
+    node.dupPrev = null;
+    node.dupNext = null;
+  }
+
+  /**
+   *  moveToFront() moves node, which must belong to this list, to the front
+   *  of the list and of its chain.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public void moveToFront(ListNode<T> node) throws InvalidNodeException {
+    if (!node.isValidNode() || node.myList != this) {
+      throw new InvalidNodeException("moveToFront() called on a node not in this list");
+    }
+    unindex((IndexedNode<T>) node);
+    super.moveToFront(node);
+    index((IndexedNode<T>) node);
+  }
+
+  /**
+   *  moveToBack() moves node, which must belong to this list, to the back
+   *  of the list and of its chain.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public void moveToBack(ListNode<T> node) throws InvalidNodeException {
+    if (!node.isValidNode() || node.myList != this) {
+      throw new InvalidNodeException("moveToBack() called on a node not in this list");
+    }
+    unindex((IndexedNode<T>) node);
+    super.moveToBack(node);
+    index((IndexedNode<T>) node);
+  }
+
+  /**
+   *  contains() returns true if the list has an item equal to item.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public boolean contains(T item) {
+    return chains.containsKey(item);
+  }
+
+  /**
+   *  remove() removes the first node holding an item equal to item, if
+   *  there is one:  the first of its chain.
+   *
+   *  Performance:  runs in O(1) expected time.
+   **/
+  public void remove(T item) {
+    IndexedNode<T> node = chains.get(item);
+    if (node != null) {
+      try {
+        node.remove();
+      } catch (InvalidNodeException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   *  count() returns the number of items in the list equal to item.
+   *
+   *  Performance:  runs in O(k) expected time, where k is the count.
+   **/
+  public int count(T item) {
+    int count = 0;
+    for (IndexedNode<T> node = chains.get(item); node != null; node = node.dupNext) {
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   *  clone() returns a new IndexedDList with the same item references.
+   *
+   *  Performance:  runs in O(n) expected time, where n is the length of the
+   *  list.
+   **/
+  public List<T> clone() {
+    IndexedDList<T> copy = new IndexedDList<T>();
+    for (DListNode<T> node = head.next; node != head; node = node.next) {
+      copy.insertBack(node.item);
+    }
+    return copy;
+  }
+
+  /**
+   *  checkIndex() throws an exception unless every node of the list is in
+   *  the chain of its item, and every chain holds only nodes of the list
+   *  with equal items, in list order.
+   **/
+  private void checkIndex() {
+    java.util.Map<DListNode<T>,Integer> positions =
+      new java.util.IdentityHashMap<DListNode<T>,Integer>();
+    int position = 0;
+    for (DListNode<T> node = head.next; node != head; node = node.next) {
+      positions.put(node, position++);
+    }
+    int chained = 0;
+    for (java.util.Map.Entry<Object,IndexedNode<T>> chain : chains.entrySet()) {
+      IndexedNode<T> first = chain.getValue();
+      IndexedNode<T> last = first;
+      for (IndexedNode<T> node = first; node != null; last = node, node = node.dupNext) {
+        if (node.myList != this || !Objects.equals(node.item, chain.getKey()) ||
+            (node != first && node.dupPrev.dupNext != node)) {
+          throw new IllegalStateException("bad chain for " + chain.getKey());
+        }
+        if (node != first && positions.get(node.dupPrev) >= positions.get(node)) {
+          throw new IllegalStateException("chain for " + chain.getKey() + " is out of order");
+        }
+        chained++;
+      }
+      if (first.dupPrev != last) {
+        throw new IllegalStateException("bad chain end for " + chain.getKey());
+      }
+    }
+    if (chained != size) {
+      throw new IllegalStateException(chained + " nodes chained, " + size + " in the list");
+    }
+  }
+
+  /**
+   *  Applies random operations, with many equal items, to an IndexedDList
+   *  and a java.util.ArrayList, checking the list and its index after each.
+   *  remove(item) must remove the first equal item, as the model's does.
+   */
+  private static void testIndex(int ops) throws InvalidNodeException {
+    IndexedDList<Integer> list = new IndexedDList<Integer>();
+    java.util.ArrayList<Integer> model = new java.util.ArrayList<Integer>();
+    Random random = new Random(0);
+    for (int op = 0; op < ops; op++) {
+      Integer item = random.nextInt(20);
+      int position = model.isEmpty() ? 0 : random.nextInt(model.size());
+      ListNode<Integer> node = list.front();
+      for (int i = 0; i < position && !model.isEmpty(); i++) {
+        node = node.next();
+      }
+      switch (model.isEmpty() ? random.nextInt(2) : random.nextInt(9)) {
+      case 0:
+        list.insertFront(item);
+        model.add(0, item);
+        break;
+      case 1:
+        list.insertBack(item);
+        model.add(item);
+        break;
+      case 2:
+        node.insertAfter(item);
+        model.add(position + 1, item);
+        break;
+      case 3:
+        node.insertBefore(item);
+        model.add(position, item);
+        break;
+      case 4:
+        node.remove();
+        model.remove(position);
+        break;
+      case 5:
+        node.setItem(item);
+        model.set(position, item);
+        break;
+      case 6:
+        if (random.nextBoolean()) {
+          list.moveToFront(node);
+          model.add(0, model.remove(position));
+        } else {
+          list.moveToBack(node);
+          model.add(model.remove(position));
+        }
+        break;
+      case 7:
+        if (list.contains(item) != model.contains(item) ||
+            list.count(item) != java.util.Collections.frequency(model, item)) {
+          throw new IllegalStateException("contains(" + item + ") or count() is wrong");
+        }
+        break;
+      default:
+        list.remove(item);
+        model.remove(item);
+        break;
+      }
+      list.checkIndex();
+      java.util.ArrayList<Integer> items = new java.util.ArrayList<Integer>();
+      for (Integer each : list) {
+        items.add(each);
+      }
+      if (!items.equals(model) || list.length() != model.size()) {
+        throw new IllegalStateException("list " + list + " differs from " + model);
+      }
+    }
+    System.out.println("IndexedDList and its index agree with java.util.ArrayList");
+  }
+
+  /**
+   *  Runs a membership-tracked queue of n distinct items on a DList and an
+   *  IndexedDList:  each step asks whether a random item is queued,
+   *  removes it by value if so, and otherwise inserts it at the back.
+   */
+  private static void benchmarkQueue(int n, int steps) {
+    Integer[] items = new Integer[2 * n];
+    for (int i = 0; i < items.length; i++) {
+      items[i] = i;
+    }
+    DList<Integer> dlist = new DList<Integer>();
+    IndexedDList<Integer> indexed = new IndexedDList<Integer>();
+    for (int i = 0; i < n; i++) {
+      dlist.insertBack(items[i]);
+      indexed.insertBack(items[i]);
+    }
+    for (DList<Integer> list : java.util.Arrays.asList(dlist, indexed)) {
+      Random random = new Random(1);
+      long start = System.nanoTime();
+      for (int i = 0; i < steps; i++) {
+        Integer item = items[random.nextInt(items.length)];
+        if (list.contains(item)) {
+          list.remove(item);
+        } else {
+          list.insertBack(item);
+        }
+      }
+      long nanos = System.nanoTime() - start;
+      System.out.println(list.getClass().getSimpleName() + ", about " + n + " items:  " +
+                         nanos / steps + " ns per contains() and remove() or insertBack()");
+    }
+    if (!dlist.toString().equals(indexed.toString())) {
+      throw new IllegalStateException("DList and IndexedDList differ");
+    }
+  }
+
+  public static void main(String[] argv) {
+    try {
+      testIndex(20000);
+    } catch (InvalidNodeException e) {
+      e.printStackTrace();
+    }
+    benchmarkQueue(1000, 100000);
+    benchmarkQueue(10000, 20000);
+  }
+
+}
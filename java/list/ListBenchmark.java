@@ -0,0 +1,354 @@
+/* ListBenchmark.java */
+
+package list;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ *  ListBenchmark checks the List implementations against a
+ *  java.util.ArrayList through random operations on their node handles,
+ *  then compares how fast they iterate and how much memory they use.
+ **/
+
+class ListBenchmark {
+
+  /**
+   *  check() applies ops random operations to list, which must start empty,
+   *  and to a java.util.ArrayList, through handles found by walking from
+   *  the front or back, and throws an exception as soon as they differ.
+   *  Finally it appends 100 items and removes every other item while
+   *  walking the list with next(), which requires the handle on the next
+   *  item to survive the removal of the one before it.
+   */
+  static void check(List<Integer> list, int ops, long seed) throws InvalidNodeException {
+    java.util.ArrayList<Integer> model = new java.util.ArrayList<Integer>();
+    Random random = new Random(seed);
+    for (int op = 0; op < ops; op++) {
+      Integer item = random.nextInt(50);
+      int position = model.isEmpty() ? 0 : random.nextInt(model.size());
+      ListNode<Integer> node = list.isEmpty() ? list.front() : handle(list, position);
+      switch (model.isEmpty() ? random.nextInt(2) : random.nextInt(10)) {
+      case 0:
+        list.insertFront(item);
+        model.add(0, item);
+        break;
+      case 1:
+        list.insertBack(item);
+        model.add(item);
+        break;
+      case 2:
+        node.insertAfter(item);
+        model.add(position + 1, item);
+        expect(node.item() == model.get(position), "handle moved after insertAfter()");
+        break;
+      case 3:
+        node.insertBefore(item);
+        model.add(position, item);
+        expect(node.item() == model.get(position + 1), "handle moved after insertBefore()");
+        break;
+      case 4:
+      case 5:
+        node.remove();
+        model.remove(position);
+        expect(!node.isValidNode(), "removed handle is still valid");
+        break;
+      case 6:
+        node.setItem(item);
+        model.set(position, item);
+        break;
+      case 7:
+        list.remove(item);
+        model.remove(item);
+        break;
+      case 8:
+        expect(list.contains(item) == model.contains(item), "contains(" + item + ") is wrong");
+        expect(list.nth(position) == model.get(position), "nth(" + position + ") is wrong");
+        break;
+      default:
+        Iterator<Integer> it = list.iterator();
+        for (int i = 0; it.hasNext(); i++) {
+          it.next();
+          if (i == position) {
+            it.remove();
+          }
+        }
+        model.remove(position);
+        break;
+      }
+      verify(list, model);
+    }
+    for (int i = 0; i < 100; i++) {
+      list.insertBack(i);
+      model.add(i);
+    }
+    ListNode<Integer> node = list.front();
+    for (int i = 0; node.isValidNode(); i++) {
+      ListNode<Integer> next = node.next();
+      if (i % 2 == 0) {
+        node.remove();
+      }
+      node = next;
+    }
+    for (int i = (model.size() - 1) & ~1; i >= 0; i -= 2) {
+      model.remove(i);
+    }
+    verify(list, model);
+  }
+
+  /**
+   *  checkHeldHandles() makes a handle on the front of list, which must
+   *  start empty, and appends 100 items; then it holds handles on a few
+   *  items while making 1000 random insertions and removals elsewhere
+   *  (removing a held item only through its handle), far more than
+   *  a log of recent changes could cover, and throws an exception unless
+   *  each held handle still finds its own item and that item's neighbors.
+   *  Items are distinct, so a handle that slipped to another item is
+   *  caught.
+   */
+  static void checkHeldHandles(List<Integer> list, long seed) throws InvalidNodeException {
+    java.util.ArrayList<Integer> model = new java.util.ArrayList<Integer>();
+    list.insertBack(0);
+    model.add(0);
+    ListNode<Integer> first = list.front();
+    for (int i = 1; i <= 100; i++) {
+      list.insertBack(i);
+      model.add(i);
+    }
+    expect(first.isValidNode() && first.item() == 0, "handle lost after 100 insertBack()s");
+    Random random = new Random(seed);
+    java.util.Map<Integer, ListNode<Integer>> held =
+      new java.util.HashMap<Integer, ListNode<Integer>>();
+    held.put(0, first);
+    for (int i = 0; i < 10; i++) {
+      int position = random.nextInt(model.size());
+      held.put(model.get(position), handle(list, position));
+    }
+    int next = 101;
+    for (int op = 0; op < 1000; op++) {
+      int position = random.nextInt(model.size());
+      Integer item = next++;
+      switch (random.nextInt(6)) {
+      case 0:
+        list.insertFront(item);
+        model.add(0, item);
+        break;
+      case 1:
+        list.insertBack(item);
+        model.add(item);
+        break;
+      case 2:
+        handle(list, position).insertAfter(item);
+        model.add(position + 1, item);
+        break;
+      case 3:
+        handle(list, position).insertBefore(item);
+        model.add(position, item);
+        break;
+      default:
+        if (model.get(position) == 0) {
+          break;
+        }
+        ListNode<Integer> node = held.remove(model.get(position));
+        if (node == null) {
+          handle(list, position).remove();
+        } else {
+          node.remove();
+          expect(!node.isValidNode(), "removed held handle is still valid");
+        }
+        model.remove(position);
+        break;
+      }
+    }
+    expect(first.isValidNode() && first.item() == 0,
+           "handle on the front item lost after 1000 changes");
+    for (java.util.Map.Entry<Integer, ListNode<Integer>> entry : held.entrySet()) {
+      ListNode<Integer> node = entry.getValue();
+      int position = model.indexOf(entry.getKey());
+      if (position < 0) {
+        expect(!node.isValidNode(), "handle on removed item " + entry.getKey() + " is valid");
+        continue;
+      }
+      expect(node.isValidNode() && node.item().equals(entry.getKey()),
+             "held handle on " + entry.getKey() + " moved");
+      ListNode<Integer> after = node.next();
+      expect(position + 1 < model.size() ? after.item().equals(model.get(position + 1))
+                                         : !after.isValidNode(),
+             "held handle on " + entry.getKey() + " has the wrong next()");
+      ListNode<Integer> before = node.prev();
+      expect(position > 0 ? before.item().equals(model.get(position - 1))
+                          : !before.isValidNode(),
+             "held handle on " + entry.getKey() + " has the wrong prev()");
+    }
+    verify(list, model);
+  }
+
+  /**
+   *  handle() returns a handle on list's item at position.
+   **/
+  private static ListNode<Integer> handle(List<Integer> list, int position)
+    throws InvalidNodeException {
+    if (position < list.length() / 2) {
+      ListNode<Integer> node = list.front();
+      for (int i = 0; i < position; i++) {
+        node = node.next();
+      }
+      return node;
+    }
+    ListNode<Integer> node = list.back();
+    for (int i = list.length() - 1; i > position; i--) {
+      node = node.prev();
+    }
+    return node;
+  }
+
+  private static void verify(List<Integer> list, java.util.List<Integer> model)
+    throws InvalidNodeException {
+    expect(list.length() == model.size(), "length " + list.length() + " != " + model.size());
+    Iterator<Integer> it = list.iterator();
+    ListNode<Integer> node = list.front();
+    for (Integer item : model) {
+      expect(it.next() == item && node.item() == item, "wrong item: " + list + " != " + model);
+      node = node.next();
+    }
+    expect(!it.hasNext() && !node.isValidNode(), "list is too long: " + list);
+    node = list.back();
+    for (int i = model.size() - 1; i >= 0; i--) {
+      expect(node.item() == model.get(i), "wrong item walking back: " + list);
+      node = node.prev();
+    }
+    expect(!node.isValidNode(), "list is too long walking back: " + list);
+  }
+
+  private static void expect(boolean condition, String message) {
+    if (!condition) {
+      throw new IllegalStateException(message);
+    }
+  }
+
+  /**
+   *  usedMemory() returns the heap in use after collecting garbage.
+   **/
+  private static long usedMemory() {
+    Runtime runtime = Runtime.getRuntime();
+    long used = Long.MAX_VALUE;
+    for (int i = 0; i < 4; i++) {
+      System.gc();
+      used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+    return used;
+  }
+
+  /**
+   *  Counts the items of list with its Iterator, without touching them, so
+   *  that only the list's own structure is read.
+   **/
+  private static int countByIterator(List<Integer> list) {
+    int count = 0;
+    for (Integer item : list) {
+      if (item != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   *  Counts the items of list by walking its node handles.
+   **/
+  private static int countByHandles(List<Integer> list) throws InvalidNodeException {
+    int count = 0;
+    for (ListNode<Integer> node = list.front(); node.isValidNode(); node = node.next()) {
+      if (node.item() != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   *  Builds a list of the n items with factory, measuring the memory it
+   *  takes, and times iterating over it.  If scatter is true, the list
+   *  must be a DList, and its nodes are moved to the back in random order
+   *  after it is built, so that following next references jumps around the
+   *  heap as it does in a list that has been edited for a long time.
+   **/
+  private static void measure(String name, Supplier<List<Integer>> factory,
+                              Integer[] items, boolean scatter)
+    throws InvalidNodeException {
+    int n = items.length;
+    long before = usedMemory();
+    List<Integer> list = factory.get();
+    for (Integer item : items) {
+      list.insertBack(item);
+    }
+    long bytes = usedMemory() - before;
+    if (scatter) {
+      @SuppressWarnings({"unchecked", "rawtypes"})
+      ListNode<Integer>[] nodes = new ListNode[n];
+      ListNode<Integer> node = list.front();
+      for (int i = 0; i < n; i++, node = node.next()) {
+        nodes[i] = node;
+      }
+      Random random = new Random(1);
+      for (int i = n - 1; i > 0; i--) {
+        int j = random.nextInt(i + 1);
+        ListNode<Integer> swap = nodes[i];
+        nodes[i] = nodes[j];
+        nodes[j] = swap;
+      }
+      for (ListNode<Integer> each : nodes) {
+        ((DList<Integer>) list).moveToBack(each);
+      }
+    }
+    long iteratorNanos = Long.MAX_VALUE;
+    long handleNanos = Long.MAX_VALUE;
+    for (int round = 0; round < 10; round++) {
+      long start = System.nanoTime();
+      int counted = countByIterator(list);
+      iteratorNanos = Math.min(iteratorNanos, System.nanoTime() - start);
+      start = System.nanoTime();
+      counted += countByHandles(list);
+      handleNanos = Math.min(handleNanos, System.nanoTime() - start);
+      expect(counted == 2 * n, name + " counted " + counted + " of " + 2 * n);
+    }
+    System.out.printf("%-22s %6.1f bytes per item, iterator %5.2f ns per item, " +
+                      "handles %5.2f ns per item%n", name, (double) bytes / n,
+                      (double) iteratorNanos / n, (double) handleNanos / n);
+  }
+
+  /**
+   *  Checks ArrayList, UnrolledList (with small chunks, so that they split
+   *  and merge often), PooledDList (with a small pool) and TreeList, then
+   *  compares them with DList on a million items.
+   */
+  public static void main(String[] argv) throws InvalidNodeException {
+    for (long seed = 0; seed < 20; seed++) {
+      check(new ArrayList<Integer>(), 2000, seed);
+      check(new UnrolledList<Integer>(4), 2000, seed);
+      check(new UnrolledList<Integer>(8), 2000, seed);
+      check(new PooledDList<Integer>(4), 2000, seed);
+      check(new TreeList<Integer>(), 2000, seed);
+      checkHeldHandles(new ArrayList<Integer>(), seed);
+      checkHeldHandles(new UnrolledList<Integer>(4), seed);
+      checkHeldHandles(new UnrolledList<Integer>(8), seed);
+      checkHeldHandles(new PooledDList<Integer>(4), seed);
+      checkHeldHandles(new TreeList<Integer>(), seed);
+    }
+    System.out.println("ArrayList, UnrolledList, PooledDList and TreeList agree with " +
+                       "java.util.ArrayList");
+
+    int n = 1000000;
+    Integer[] items = new Integer[n];
+    for (int i = 0; i < n; i++) {
+      items[i] = i;
+    }
+    measure("DList", DList::new, items, false);
+    measure("DList, scattered", DList::new, items, true);
+    measure("ArrayList", ArrayList::new, items, false);
+    measure("UnrolledList", UnrolledList::new, items, false);
+    measure("TreeList", TreeList::new, items, false);
+  }
+
+}
@@ -0,0 +1,519 @@
+/* PooledDList.java */
+
+package list;
+
+import java.lang.management.ManagementFactory;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ *  A PooledDList is a DList that recycles its nodes.  A removed node goes
+ *  to a bounded free list, and newNode() takes nodes from the free list
+ *  before allocating, so a list used as a queue, with items inserted at one
+ *  end and removed at the other, stops allocating once the free list holds
+ *  enough nodes.  By default each list has a free list of its own;
+ *  setThreadLocalPool() switches it to a free list shared by every
+ *  PooledDList on the calling thread, so that nodes removed from one list
+ *  can be reused by another.
+ *
+ *  A recycled node may be put back into this or another list while a caller
+ *  still holds it, so front(), back(), next() and prev() return handles
+ *  rather than the nodes themselves.  Every node has a generation, which
+ *  changes each time it is removed, and a handle is valid only while its
+ *  node has the generation it had when the handle was made.  A stale handle
+ *  therefore throws an InvalidNodeException, as a removed DListNode does,
+ *  instead of changing whatever list its node has joined since.
+ *
+ *  Handles are small and usually short-lived, so the compiler can often
+ *  avoid allocating them; removeFront() and removeBack() need no handle at
+ *  all.
+ **/
+
+public class PooledDList<T> extends DList<T> {
+
+  private final static int defaultPoolCapacity = 256;
+  private final static int threadLocalPoolCapacity = 4096;
+
+  /**
+   *  A PooledNode is a DListNode with a generation.
+   **/
+  private static class PooledNode<T> extends DListNode<T> {
+    int generation;
+
+    PooledNode(T item, DList<T> list, DListNode<T> prev, DListNode<T> next) {
+      super(item, list, prev, next);
+    }
+  }
+
+  /**
+   *  A FreeList is a stack of up to capacity removed nodes, linked through
+   *  their next fields.
+   **/
+  private static class FreeList {
+    final int capacity;
+    DListNode<?> top;
+    int count;
+
+    FreeList(int capacity) {
+      this.capacity = capacity;
+    }
+  }
+
+  private final static ThreadLocal<FreeList> threadPools =
+    ThreadLocal.withInitial(() -> new FreeList(threadLocalPoolCapacity));
+
+  /**
+   *  (inherited)  size is the number of items in the list.
+   *  (inherited)  head references the sentinel node.
+   *  ownPool is this list's free list.  If threadLocalPool is true, the
+   *  calling thread's free list is used instead.
+   *  reused counts nodes taken from a free list.
+   **/
+  private final FreeList ownPool;
+  private boolean threadLocalPool;
+  private long reused;
+
+  /**
+   *  PooledDList() constructs an empty PooledDList that keeps up to 256
+   *  removed nodes for reuse.
+   **/
+  public PooledDList() {
+    this(defaultPoolCapacity);
+  }
+
+  /**
+   *  PooledDList() constructs an empty PooledDList that keeps up to
+   *  poolCapacity removed nodes for reuse.
+   **/
+  public PooledDList(int poolCapacity) {
+    if (poolCapacity < 0) {
+      throw new IllegalArgumentException("negative pool capacity");
+    }
+    ownPool = new FreeList(poolCapacity);
+  }
+
+  /**
+   *  setThreadLocalPool() chooses where removed nodes go and new nodes come
+   *  from:  if threadLocal is true, a free list of up to 4096 nodes shared
+   *  by every PooledDList on the calling thread; if false, this list's own
+   *  free list.
+   **/
+  public void setThreadLocalPool(boolean threadLocal) {
+    threadLocalPool = threadLocal;
+  }
+
+  /**
+   *  pool() returns the free list in use.
+   **/
+  private FreeList pool() {
+    return threadLocalPool ? threadPools.get() : ownPool;
+  }
+
+  /**
+   *  reusedCount() returns the number of nodes this list has taken from a
+   *  free list instead of allocating.
+   **/
+  public long reusedCount() {
+    return reused;
+  }
+
+  /**
+   *  pooledCount() returns the number of nodes in the free list in use.
+   **/
+  public int pooledCount() {
+    return pool().count;
+  }
+
+  /**
+   *  newNode() takes a node from the free list in use, or allocates one if
+   *  it is empty.  The DList constructor calls this to make the sentinel
+   *  before this class's fields are set, so sentinels are always allocated.
+   **/
+  @SuppressWarnings("unchecked")
+  protected DListNode<T> newNode(T item, DList<T> list,
+                                 DListNode<T> prev, DListNode<T> next) {
+    if (list != null) {
+      FreeList pool = pool();
+      if (pool.top != null) {
+        DListNode<T> node = (DListNode<T>) pool.top;
+        pool.top = node.next;
+        pool.count--;
+        reused++;
+        node.item = item;
+        node.myList = list;
+        node.prev = prev;
+        node.next = next;
+        return node;
+      }
+    }
+    return new PooledNode<T>(item, list, prev, next);
+  }
+
+  /**
+   *  unlink() removes node from this list, advances its generation so that
+   *  its handles become stale, and puts it in the free list if there is
+   *  room.
+   **/
+  @SuppressWarnings("unchecked")
+  private void unlink(DListNode<T> node) {
+    node.prev.next = node.next;
+    node.next.prev = node.prev;
+    size--;
+    ((PooledNode<T>) node).generation++;
+    node.item = null;
+    node.myList = null;
+    node.prev = null;
+    FreeList pool = pool();
+    if (pool.count < pool.capacity) {
+      node.next = (DListNode<T>) pool.top;
+      pool.top = node;
+      pool.count++;
+    } else {
+      node.next = null;
+    }
+  }
+
+  /**
+   *  removeFront() removes the item at the front of this list.
+   *
+   *  @return the item removed, or null if the list is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public T removeFront() {
+    if (size == 0) {
+      return null;
+    }
+    T item = head.next.item;
+    unlink(head.next);
+    return item;
+  }
+
+  /**
+   *  removeBack() removes the item at the back of this list.
+   *
+   *  @return the item removed, or null if the list is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public T removeBack() {
+    if (size == 0) {
+      return null;
+    }
+    T item = head.prev.item;
+    unlink(head.prev);
+    return item;
+  }
+
+  /**
+   *  remove() removes the first item equal to item, if there is one.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public void remove(T item) {
+    for (DListNode<T> node = head.next; node != head; node = node.next) {
+      if (Objects.equals(node.item, item)) {
+        unlink(node);
+        return;
+      }
+    }
+  }
+
+  /**
+   *  handle() returns a handle on node, or an invalid handle if node is the
+   *  sentinel.
+   **/
+  private ListNode<T> handle(DListNode<T> node) {
+    return new Handle<T>(node == head ? null : this, node);
+  }
+
+  /**
+   *  front() returns a handle on the front of this list, or an invalid
+   *  handle if the list is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public ListNode<T> front() {
+    return handle(head.next);
+  }
+
+  /**
+   *  back() returns a handle on the back of this list, or an invalid handle
+   *  if the list is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public ListNode<T> back() {
+    return handle(head.prev);
+  }
+
+  /**
+   *  node() returns the node of handle, or throws an exception naming the
+   *  operation if handle is not a valid handle on this list.
+   **/
+  private DListNode<T> node(ListNode<T> handle, String operation)
+    throws InvalidNodeException {
+    if (!(handle instanceof Handle) || !handle.isValidNode() || handle.myList != this) {
+      throw new InvalidNodeException(operation + " called on a node not in this list");
+    }
+    return ((Handle<T>) handle).node;
+  }
+
+  public void moveToFront(ListNode<T> node) throws InvalidNodeException {
+    super.moveToFront(node(node, "moveToFront()"));
+  }
+
+  public void moveToBack(ListNode<T> node) throws InvalidNodeException {
+    super.moveToBack(node(node, "moveToBack()"));
+  }
+
+  /**
+   *  clone() returns a new PooledDList with the same item references, the
+   *  same pool capacity and the same choice of pool.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public List<T> clone() {
+    PooledDList<T> copy = new PooledDList<T>(ownPool.capacity);
+    copy.threadLocalPool = threadLocalPool;
+    for (DListNode<T> node = head.next; node != head; node = node.next) {
+      copy.insertBack(node.item);
+    }
+    return copy;
+  }
+
+  /**
+   *  iterator() returns an Iterator over the items, front to back.  Its
+   *  remove() removes the last item returned.  It throws
+   *  ConcurrentModificationException if the node it would return next, or
+   *  the node its remove() would remove, has been removed some other way.
+   **/
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private DListNode<T> next = head.next;
+      private int generation = ((PooledNode<T>) next).generation;
+      private DListNode<T> last;
+      private int lastGeneration;
+
+      public boolean hasNext() {
+        return next != head;
+      }
+
+      public T next() {
+        if (next == head) {
+          throw new NoSuchElementException();
+        }
+        if (((PooledNode<T>) next).generation != generation) {
+          throw new ConcurrentModificationException();
+        }
+        last = next;
+        lastGeneration = generation;
+        next = next.next;
+        generation = ((PooledNode<T>) next).generation;
+        return last.item;
+      }
+
+      public void remove() {
+        if (last == null) {
+          throw new IllegalStateException();
+        }
+        if (((PooledNode<T>) last).generation != lastGeneration) {
+          throw new ConcurrentModificationException();
+        }
+        unlink(last);
+        last = null;
+      }
+    };
+  }
+
+  /**
+   *  equals() returns true if item is a List of the same length whose items
+   *  are equal to this list's, in order.
+   **/
+  public boolean equals(Object item) {
+    if (!(item instanceof List)) {
+      return false;
+    }
+    List<?> other = (List<?>) item;
+    if (other.length() != size) {
+      return false;
+    }
+    Iterator<?> it = other.iterator();
+    for (DListNode<T> node = head.next; node != head; node = node.next) {
+      if (!Objects.equals(node.item, it.next())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int hashCode() {
+    int hash = 1;
+    for (DListNode<T> node = head.next; node != head; node = node.next) {
+      hash = 31 * hash + Objects.hashCode(node.item);
+    }
+    return hash;
+  }
+
+  /**
+   *  A Handle refers to a node of a PooledDList.  It is valid while it
+   *  belongs to a list (myList != null) and its node has not been removed
+   *  since the handle was made (generation == node.generation).
+   **/
+  private static class Handle<T> extends ListNode<T> {
+
+    private final DListNode<T> node;
+    private final int generation;
+
+    Handle(PooledDList<T> list, DListNode<T> node) {
+      myList = list;
+      this.node = node;
+      generation = ((PooledNode<T>) node).generation;
+    }
+
+    public boolean isValidNode() {
+      return myList != null && ((PooledNode<T>) node).generation == generation;
+    }
+
+    /**
+     *  list() returns the list this handle is on, or throws an exception
+     *  naming the operation if the handle is invalid.
+     **/
+    private PooledDList<T> list(String operation) throws InvalidNodeException {
+      if (!isValidNode()) {
+        throw new InvalidNodeException(operation + " called on invalid node");
+      }
+      return (PooledDList<T>) myList;
+    }
+
+    public T item() throws InvalidNodeException {
+      list("item()");
+      return node.item;
+    }
+
+    public void setItem(T item) throws InvalidNodeException {
+      list("setItem()");
+      node.item = item;
+    }
+
+    public ListNode<T> next() throws InvalidNodeException {
+      return list("next()").handle(node.next);
+    }
+
+    public ListNode<T> prev() throws InvalidNodeException {
+      return list("prev()").handle(node.prev);
+    }
+
+    public void insertAfter(T item) throws InvalidNodeException {
+      list("insertAfter()");
+      node.insertAfter(item);
+    }
+
+    public void insertBefore(T item) throws InvalidNodeException {
+      list("insertBefore()");
+      node.insertBefore(item);
+    }
+
+    public void remove() throws InvalidNodeException {
+      list("remove()").unlink(node);
+      myList = null;
+    }
+
+  }
+
+  /**
+   *  allocatedBytes() returns the bytes the calling thread has allocated.
+   **/
+  private static long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+      .getCurrentThreadAllocatedBytes();
+  }
+
+  /**
+   *  Runs a queue of about depth items through ops insertBack() and remove
+   *  pairs, and reports the time and bytes allocated per pair.
+   */
+  private static void benchmarkQueue(String name, DList<Integer> queue, int depth, int ops)
+    throws InvalidNodeException {
+    Integer item = 1;
+    for (int i = 0; i < depth; i++) {
+      queue.insertBack(item);
+    }
+    long nanos = Long.MAX_VALUE;
+    long bytes = Long.MAX_VALUE;
+    for (int round = 0; round < 5; round++) {
+      long startBytes = allocatedBytes();
+      long start = System.nanoTime();
+      if (queue instanceof PooledDList) {
+        PooledDList<Integer> pooled = (PooledDList<Integer>) queue;
+        for (int i = 0; i < ops; i++) {
+          pooled.insertBack(item);
+          pooled.removeFront();
+        }
+      } else {
+        for (int i = 0; i < ops; i++) {
+          queue.insertBack(item);
+          queue.front().remove();
+        }
+      }
+      nanos = Math.min(nanos, System.nanoTime() - start);
+      bytes = Math.min(bytes, allocatedBytes() - startBytes);
+    }
+    System.out.printf("%-30s %6.2f ns and %5.1f bytes allocated per insertBack/remove%n",
+                      name, (double) nanos / ops, (double) bytes / ops);
+  }
+
+  /**
+   *  Checks that a stale handle on a recycled node is detected, then
+   *  compares queue churn on a DList and on PooledDLists.
+   */
+  public static void main(String[] argv) {
+    try {
+      PooledDList<String> l = new PooledDList<String>();
+      l.insertBack("a");
+      ListNode<String> stale = l.front();
+      stale.remove();
+      l.insertBack("b");
+      System.out.println("After remove() and insertBack(), the node was reused: " +
+                         (l.reusedCount() == 1));
+      System.out.println("stale.isValidNode() should be false: " + stale.isValidNode());
+      try {
+        stale.item();
+        System.out.println("stale.item() should throw an exception, but didn't.");
+      } catch (InvalidNodeException e) {
+        System.out.println("stale.item() should throw an exception, and did.");
+      }
+
+      PooledDList<String> x = new PooledDList<String>();
+      PooledDList<String> y = new PooledDList<String>();
+      x.setThreadLocalPool(true);
+      y.setThreadLocalPool(true);
+      x.insertBack("x1");
+      x.insertBack("x2");
+      Iterator<String> it = x.iterator();
+      it.next();
+      x.removeFront();
+      y.insertBack("y1");
+      try {
+        it.remove();
+        System.out.println("A stale iterator remove() should throw an exception, but didn't.");
+      } catch (ConcurrentModificationException e) {
+        System.out.println("A stale iterator remove() should throw an exception, and did.");
+      }
+      System.out.println("x should be [  x2  ]: " + x + " with length 1: " + x.length());
+      System.out.println("y should be [  y1  ]: " + y + " with length 1: " + y.length());
+
+      int ops = 10000000;
+      benchmarkQueue("DList", new DList<Integer>(), 1000, ops);
+      benchmarkQueue("PooledDList", new PooledDList<Integer>(), 1000, ops);
+      PooledDList<Integer> threadLocal = new PooledDList<Integer>();
+      threadLocal.setThreadLocalPool(true);
+      benchmarkQueue("PooledDList, thread-local pool", threadLocal, 1000, ops);
+    } catch (InvalidNodeException e) {
+      e.printStackTrace();
+    }
+  }
+
+}
@@ -0,0 +1,654 @@
+/* TreeList.java */
+
+package list;
+
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ *  A TreeList is a mutable list ADT with O(log n) positional access.  Its
+ *  nodes form a treap:  a binary tree whose in-order walk is the list,
+ *  heap-ordered by random priorities so that it is balanced with high
+ *  probability.  Each node records the number of nodes in its subtree, so
+ *  nth(), insertAt() and removeAt() descend from the root by position, and
+ *  position() climbs to it.  The nodes are also threaded into a circular
+ *  doubly-linked list through a sentinel, as in a DList, so front(), back(),
+ *  next() and prev() take O(1) time.
+ *
+ *  The nodes are the ListNodes, so a node stays valid until it is removed,
+ *  whatever else happens to the list.
+ **/
+
+public class TreeList<T> extends List<T> {
+
+  /**
+   *  A Node is one item.  left, right and parent are its tree links, count
+   *  the number of nodes in its subtree, and priority its heap key:  no
+   *  node has a higher priority than its parent.  prev and next are its
+   *  neighbors in the list, possibly the sentinel.
+   **/
+  private static class Node<T> extends ListNode<T> {
+
+    Node<T> left;
+    Node<T> right;
+    Node<T> parent;
+    Node<T> prev;
+    Node<T> next;
+    int count = 1;
+    final int priority;
+
+    Node(T item, TreeList<T> list, int priority) {
+      this.item = item;
+      myList = list;
+      this.priority = priority;
+    }
+
+    /**
+     *  list() returns the list this node is in, or throws an exception
+     *  naming the operation if the node is invalid.
+     **/
+    private TreeList<T> list(String operation) throws InvalidNodeException {
+      if (!isValidNode()) {
+        throw new InvalidNodeException(operation + " called on invalid node");
+      }
+      return (TreeList<T>) myList;
+    }
+
+    /**
+     *  next() returns the node following this node, or the sentinel (which
+     *  is invalid) if this node is the last.
+     *
+     *  Performance:  runs in O(1) time.
+     **/
+    public ListNode<T> next() throws InvalidNodeException {
+      list("next()");
+      return next;
+    }
+
+    /**
+     *  prev() returns the node preceding this node, or the sentinel (which
+     *  is invalid) if this node is the first.
+     *
+     *  Performance:  runs in O(1) time.
+     **/
+    public ListNode<T> prev() throws InvalidNodeException {
+      list("prev()");
+      return prev;
+    }
+
+    /**
+     *  Performance:  runs in O(log n) expected time.
+     **/
+    public void insertAfter(T item) throws InvalidNodeException {
+      list("insertAfter()").insertAfter(this, item);
+    }
+
+    /**
+     *  Performance:  runs in O(log n) expected time.
+     **/
+    public void insertBefore(T item) throws InvalidNodeException {
+      list("insertBefore()").insertBefore(this, item);
+    }
+
+    /**
+     *  Performance:  runs in O(log n) expected time.
+     **/
+    public void remove() throws InvalidNodeException {
+      list("remove()").unlink(this);
+    }
+
+  }
+
+  /**
+   *  (inherited)  size is the number of items in the list.
+   *  root is the root of the treap, or null if the list is empty.
+   *  head is the sentinel of the threaded list; it is not in the tree.
+   *  modCount counts insertions and removals, for iterators.
+   **/
+  private Node<T> root;
+  private final Node<T> head;
+  private int modCount;
+
+  /**
+   *  TreeList() constructs an empty TreeList.
+   **/
+  public TreeList() {
+    head = new Node<T>(null, null, 0);
+    head.prev = head;
+    head.next = head;
+  }
+
+  private static int count(Node<?> node) {
+    return node == null ? 0 : node.count;
+  }
+
+  /**
+   *  nthNode() returns the node at position, 0 <= position < size.
+   **/
+  private Node<T> nthNode(int position) {
+    Node<T> node = root;
+    while (true) {
+      int left = count(node.left);
+      if (position < left) {
+        node = node.left;
+      } else if (position == left) {
+        return node;
+      } else {
+        position -= left + 1;
+        node = node.right;
+      }
+    }
+  }
+
+  /**
+   *  attach() makes added, a new node already threaded into the list, a
+   *  child of parent on the given side, counts it in every subtree above
+   *  it, and rotates it up to its place in the heap.
+   **/
+  private void attach(Node<T> added, Node<T> parent, boolean left) {
+    added.parent = parent;
+    if (parent == null) {
+      root = added;
+    } else if (left) {
+      parent.left = added;
+    } else {
+      parent.right = added;
+    }
+    for (Node<T> node = parent; node != null; node = node.parent) {
+      node.count++;
+    }
+    while (added.parent != null && added.parent.priority < added.priority) {
+      rotateUp(added);
+    }
+    size++;
+    modCount++;
+  }
+
+  /**
+   *  rotateUp() rotates node above its parent, keeping the in-order walk
+   *  and the subtree counts.
+   **/
+  private void rotateUp(Node<T> node) {
+    Node<T> parent = node.parent;
+    Node<T> grandparent = parent.parent;
+    if (parent.left == node) {
+      parent.left = node.right;
+      if (node.right != null) {
+        node.right.parent = parent;
+      }
+      node.right = parent;
+    } else {
+      parent.right = node.left;
+      if (node.left != null) {
+        node.left.parent = parent;
+      }
+      node.left = parent;
+    }
+    parent.parent = node;
+    node.parent = grandparent;
+    if (grandparent == null) {
+      root = node;
+    } else if (grandparent.left == parent) {
+      grandparent.left = node;
+    } else {
+      grandparent.right = node;
+    }
+    parent.count = 1 + count(parent.left) + count(parent.right);
+    node.count = 1 + count(node.left) + count(node.right);
+  }
+
+  /**
+   *  newNode() returns a node for item threaded into the list between prev
+   *  and next, but not yet in the tree.
+   **/
+  private Node<T> newNode(T item, Node<T> prev, Node<T> next) {
+    Node<T> added = new Node<T>(item, this, ThreadLocalRandom.current().nextInt());
+    added.prev = prev;
+    added.next = next;
+    prev.next = added;
+    next.prev = added;
+    return added;
+  }
+
+  /**
+   *  insertBefore() inserts item before node.  In the tree, the new node
+   *  goes to the left of node, or, if that is taken, to the right of node's
+   *  predecessor, which has no right child.
+   **/
+  private void insertBefore(Node<T> node, T item) {
+    Node<T> added = newNode(item, node.prev, node);
+    if (node.left == null) {
+      attach(added, node, true);
+    } else {
+      attach(added, added.prev, false);
+    }
+  }
+
+  /**
+   *  insertAfter() inserts item after node, the mirror image of
+   *  insertBefore().
+   **/
+  private void insertAfter(Node<T> node, T item) {
+    Node<T> added = newNode(item, node, node.next);
+    if (node.right == null) {
+      attach(added, node, false);
+    } else {
+      attach(added, added.next, true);
+    }
+  }
+
+  /**
+   *  unlink() removes node from the list and the tree, rotating it down
+   *  until it is a leaf, and makes it invalid.
+   **/
+  private void unlink(Node<T> node) {
+    while (node.left != null || node.right != null) {
+      if (node.right == null ||
+          (node.left != null && node.left.priority > node.right.priority)) {
+        rotateUp(node.left);
+      } else {
+        rotateUp(node.right);
+      }
+    }
+    Node<T> parent = node.parent;
+    if (parent == null) {
+      root = null;
+    } else if (parent.left == node) {
+      parent.left = null;
+    } else {
+      parent.right = null;
+    }
+    for (Node<T> ancestor = parent; ancestor != null; ancestor = ancestor.parent) {
+      ancestor.count--;
+    }
+    node.prev.next = node.next;
+    node.next.prev = node.prev;
+    node.myList = null;
+    node.parent = null;
+    node.prev = null;
+    node.next = null;
+    size--;
+    modCount++;
+  }
+
+  /**
+   *  insertFront() inserts an item at the front of this TreeList.
+   *
+   *  @param item is the item to be inserted.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public void insertFront(T item) {
+    if (size == 0) {
+      attach(newNode(item, head, head), null, true);
+    } else {
+      insertBefore(head.next, item);
+    }
+  }
+
+  /**
+   *  insertBack() inserts an item at the back of this TreeList.
+   *
+   *  @param item is the item to be inserted.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public void insertBack(T item) {
+    if (size == 0) {
+      attach(newNode(item, head, head), null, true);
+    } else {
+      insertAfter(head.prev, item);
+    }
+  }
+
+  /**
+   *  insertAt() inserts item so that it is at position, moving the items
+   *  from position on back by one.
+   *
+   *  @exception IndexOutOfBoundsException if position < 0 or position > length().
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public void insertAt(int position, T item) {
+    if (position < 0 || position > size) {
+      throw new IndexOutOfBoundsException("position " + position + ", length " + size);
+    }
+    if (position == size) {
+      insertBack(item);
+    } else {
+      insertBefore(nthNode(position), item);
+    }
+  }
+
+  /**
+   *  removeAt() removes the item at position.
+   *
+   *  @return the item removed.
+   *  @exception IndexOutOfBoundsException if position < 0 or position >= length().
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public T removeAt(int position) {
+    if (position < 0 || position >= size) {
+      throw new IndexOutOfBoundsException("position " + position + ", length " + size);
+    }
+    Node<T> node = nthNode(position);
+    unlink(node);
+    return node.item;
+  }
+
+  /**
+   *  remove() removes the first item equal to item, if there is one.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public void remove(T item) {
+    for (Node<T> node = head.next; node != head; node = node.next) {
+      if (Objects.equals(node.item, item)) {
+        unlink(node);
+        return;
+      }
+    }
+  }
+
+  /**
+   *  front() returns the node at the front of this TreeList, or the
+   *  sentinel (which is invalid) if it is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public ListNode<T> front() {
+    return head.next;
+  }
+
+  /**
+   *  back() returns the node at the back of this TreeList, or the sentinel
+   *  (which is invalid) if it is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public ListNode<T> back() {
+    return head.prev;
+  }
+
+  /**
+   *  node() returns the node at position, or an invalid node if there is
+   *  none.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public ListNode<T> node(int position) {
+    if (position < 0 || position >= size) {
+      return head;
+    }
+    return nthNode(position);
+  }
+
+  /**
+   *  position() returns the position of node, which must be in this list.
+   *
+   *  @exception InvalidNodeException if node is not a valid node of this list.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public int position(ListNode<T> node) throws InvalidNodeException {
+    if (!node.isValidNode() || node.myList != this) {
+      throw new InvalidNodeException("position() called on a node not in this list");
+    }
+    Node<T> n = (Node<T>) node;
+    int position = count(n.left);
+    for (; n.parent != null; n = n.parent) {
+      if (n.parent.right == n) {
+        position += count(n.parent.left) + 1;
+      }
+    }
+    return position;
+  }
+
+  /**
+   *  nth() returns the item at position, or null if there is none.
+   *
+   *  Performance:  runs in O(log n) expected time.
+   **/
+  public T nth(int position) {
+    if (position < 0 || position >= size) {
+      return null;
+    }
+    return nthNode(position).item;
+  }
+
+  /**
+   *  toString() returns a String representation of this TreeList, in the
+   *  same form as DList's.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public String toString() {
+    StringBuilder result = new StringBuilder("[  ");
+    for (Node<T> node = head.next; node != head; node = node.next) {
+      result.append(node.item).append("  ");
+    }
+    return result.append("]").toString();
+  }
+
+  /**
+   *  contains() returns true if the list has an item equal to item.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public boolean contains(T item) {
+    for (Node<T> node = head.next; node != head; node = node.next) {
+      if (Objects.equals(node.item, item)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   *  clone() returns a new TreeList with the same item references.
+   *
+   *  Performance:  runs in O(n log n) expected time.
+   **/
+  public List<T> clone() {
+    TreeList<T> copy = new TreeList<T>();
+    for (Node<T> node = head.next; node != head; node = node.next) {
+      copy.insertBack(node.item);
+    }
+    return copy;
+  }
+
+  public ImmutableList<T> createImmutable() {
+    return new ImmutableList<T>(this);
+  }
+
+  /**
+   *  iterator() returns an Iterator over the items, front to back.  Its
+   *  remove() removes the last item returned; any other insertion or
+   *  removal makes it throw ConcurrentModificationException.
+   **/
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private Node<T> next = head.next;
+      private Node<T> last;
+      private int expectedModCount = modCount;
+
+      public boolean hasNext() {
+        return next != head;
+      }
+
+      public T next() {
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        if (next == head) {
+          throw new NoSuchElementException();
+        }
+        last = next;
+        next = next.next;
+        return last.item;
+      }
+
+      public void remove() {
+        if (last == null) {
+          throw new IllegalStateException();
+        }
+        if (modCount != expectedModCount) {
+          throw new ConcurrentModificationException();
+        }
+        unlink(last);
+        last = null;
+        expectedModCount = modCount;
+      }
+    };
+  }
+
+  /**
+   *  equals() returns true if item is a List of the same length whose items
+   *  are equal to this list's, in order.
+   **/
+  public boolean equals(Object item) {
+    if (!(item instanceof List)) {
+      return false;
+    }
+    List<?> other = (List<?>) item;
+    if (other.length() != size) {
+      return false;
+    }
+    Iterator<?> it = other.iterator();
+    for (Node<T> node = head.next; node != head; node = node.next) {
+      if (!Objects.equals(node.item, it.next())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int hashCode() {
+    int hash = 1;
+    for (Node<T> node = head.next; node != head; node = node.next) {
+      hash = 31 * hash + Objects.hashCode(node.item);
+    }
+    return hash;
+  }
+
+  /**
+   *  checkTree() throws an exception unless the tree's links, counts and
+   *  priorities are consistent and its in-order walk is the threaded list.
+   *  Returns the height of the tree.
+   **/
+  private int checkTree() {
+    if (count(root) != size || (root != null && root.parent != null)) {
+      throw new IllegalStateException("bad root");
+    }
+    int height = 0;
+    Node<T> threaded = head.next;
+    for (int i = 0; i < size; i++, threaded = threaded.next) {
+      Node<T> node = nthNode(i);
+      if (node != threaded) {
+        throw new IllegalStateException("in-order walk differs from list at " + i);
+      }
+      if (node.count != 1 + count(node.left) + count(node.right)) {
+        throw new IllegalStateException("bad count at " + i);
+      }
+      int depth = 0;
+      for (Node<T> n = node; n.parent != null; n = n.parent, depth++) {
+        if ((n.parent.left != n && n.parent.right != n) || n.parent.priority < n.priority) {
+          throw new IllegalStateException("bad parent at " + i);
+        }
+      }
+      height = Math.max(height, depth + 1);
+    }
+    return height;
+  }
+
+  /**
+   *  Applies random insertAt() and removeAt() calls to a TreeList and a
+   *  java.util.ArrayList, checking the tree after each.
+   */
+  private static void testPositions(int ops) {
+    TreeList<Integer> list = new TreeList<Integer>();
+    java.util.ArrayList<Integer> model = new java.util.ArrayList<Integer>();
+    Random random = new Random(0);
+    for (int i = 0; i < ops; i++) {
+      if (model.isEmpty() || random.nextInt(3) > 0) {
+        int position = random.nextInt(model.size() + 1);
+        list.insertAt(position, i);
+        model.add(position, i);
+      } else {
+        int position = random.nextInt(model.size());
+        if (!list.removeAt(position).equals(model.remove(position))) {
+          throw new IllegalStateException("removeAt(" + position + ") removed the wrong item");
+        }
+      }
+      list.checkTree();
+      int position = model.isEmpty() ? 0 : random.nextInt(model.size());
+      try {
+        if (!model.isEmpty() && (!Objects.equals(list.nth(position), model.get(position)) ||
+                                 list.position(list.node(position)) != position)) {
+          throw new IllegalStateException("nth(" + position + ") is wrong");
+        }
+      } catch (InvalidNodeException e) {
+        e.printStackTrace();
+      }
+    }
+    java.util.ArrayList<Integer> items = new java.util.ArrayList<Integer>();
+    for (Integer item : list) {
+      items.add(item);
+    }
+    if (!items.equals(model)) {
+      throw new IllegalStateException("list differs from java.util.ArrayList");
+    }
+    System.out.println("insertAt(), removeAt() and nth() agree with java.util.ArrayList");
+  }
+
+  /**
+   *  Times a loop over positions 0...n-1 calling nth() on a DList and a
+   *  TreeList of n items, then n insertions at random positions.
+   */
+  private static void benchmarkPositions(int n) {
+    DList<Integer> dlist = new DList<Integer>();
+    TreeList<Integer> tree = new TreeList<Integer>();
+    for (int i = 0; i < n; i++) {
+      dlist.insertBack(i);
+      tree.insertBack(i);
+    }
+    long sum = 0;
+    long start = System.nanoTime();
+    for (int i = 0; i < n; i++) {
+      sum += dlist.nth(i);
+    }
+    long dlistNanos = System.nanoTime() - start;
+    start = System.nanoTime();
+    for (int i = 0; i < n; i++) {
+      sum -= tree.nth(i);
+    }
+    long treeNanos = System.nanoTime() - start;
+    if (sum != 0) {
+      throw new IllegalStateException("DList and TreeList disagree");
+    }
+    Random random = new Random(1);
+    start = System.nanoTime();
+    for (int i = 0; i < n; i++) {
+      tree.insertAt(random.nextInt(tree.length() + 1), i);
+    }
+    long insertNanos = System.nanoTime() - start;
+    System.out.println("nth() over all " + n + " positions:  DList " +
+                       dlistNanos / n + " ns per call, TreeList " + treeNanos / n +
+                       " ns per call (tree height " + tree.checkTree() + ")");
+    System.out.println(n + " insertAt() calls at random positions:  " +
+                       insertNanos / n + " ns per call");
+  }
+
+  public static void main(String[] argv) {
+    testPositions(5000);
+    benchmarkPositions(1 << 10);
+    benchmarkPositions(1 << 14);
+    benchmarkPositions(1 << 16);
+  }
+
+}
@@ -0,0 +1,558 @@
+/* UnrolledList.java */
+
+package list;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ *  An UnrolledList is a mutable list ADT whose nodes are chunks holding up
+ *  to 64 items each in a small array.  Like a DList it is circularly linked
+ *  with a sentinel, but the links are paid once per chunk instead of once
+ *  per item, and iteration reads each chunk's items in order, following a
+ *  pointer only when it moves to the next chunk.
+ *
+ *  Inserting or removing next to a known item moves at most one chunk's
+ *  items, so it takes O(1) time.  A full chunk is split in half, or, at its
+ *  ends, spills into a neighbor or a new chunk, so lists built by
+ *  insertBack() or insertFront() fill their chunks completely.  A chunk is
+ *  merged with a neighbor when the two fit in half a chunk.  nth() walks the
+ *  chunks from the nearer end.
+ *
+ *  The ListNodes of an UnrolledList are handles that hold a chunk and an
+ *  index in it; front(), back(), next() and prev() create them on demand,
+ *  at most one per item.  A chunk that has had a handle made on one of its
+ *  items keeps an array, parallel to its items, of the handle on each, and
+ *  insertions, removals, splits and merges move the handles along with
+ *  their items.  A handle thus stays valid until its own item is removed,
+ *  however many other changes are made in the meantime.  Using an invalid
+ *  handle throws an InvalidNodeException, as using a removed DListNode
+ *  does.
+ **/
+
+public class UnrolledList<T> extends List<T> {
+
+  private final static int defaultChunkCapacity = 64;
+  /**
+   *  A Chunk holds items[0...count-1] of a run of the list.  prev and next
+   *  link the chunks into a circle through the sentinel, which has no
+   *  items.  handles is null until a handle is made on one of the chunk's
+   *  items (or one is moved into it); from then on handles[i] is the handle
+   *  on items[i], or null if there is none.  version counts the changes
+   *  that moved items, so that iterators can tell whether the chunk they
+   *  are reading has changed.
+   **/
+  private static class Chunk {
+    final Object[] items;
+    Node<?>[] handles;
+    int count;
+    int version;
+    Chunk prev;
+    Chunk next;
+
+    Chunk(int capacity) {
+      items = new Object[capacity];
+    }
+  }
+
+  /**
+   *  (inherited)  size is the number of items in the list.
+   *  head references the sentinel chunk.
+   **/
+  private final Chunk head;
+  private final int chunkCapacity;
+
+  /**
+   *  UnrolledList() constructs an empty UnrolledList with 64 items per chunk.
+   **/
+  public UnrolledList() {
+    this(defaultChunkCapacity);
+  }
+
+  /**
+   *  UnrolledList() constructs an empty UnrolledList with chunkCapacity items
+   *  per chunk, at least 4.
+   **/
+  public UnrolledList(int chunkCapacity) {
+    if (chunkCapacity < 4) {
+      throw new IllegalArgumentException("chunkCapacity must be at least 4");
+    }
+    this.chunkCapacity = chunkCapacity;
+    head = new Chunk(0);
+    head.prev = head;
+    head.next = head;
+  }
+
+  /**
+   *  linkAfter() links a new, empty chunk after chunk and returns it.
+   **/
+  private Chunk linkAfter(Chunk chunk) {
+    Chunk added = new Chunk(chunkCapacity);
+    added.prev = chunk;
+    added.next = chunk.next;
+    chunk.next.prev = added;
+    chunk.next = added;
+    return added;
+  }
+
+  /**
+   *  unlink() takes chunk out of the list.  The caller logs where its items
+   *  went.
+   **/
+  private static void unlink(Chunk chunk) {
+    chunk.prev.next = chunk.next;
+    chunk.next.prev = chunk.prev;
+  }
+
+  /**
+   *  copy() moves count items, and their handles, from index from of source
+   *  to index to of target, as System.arraycopy() does, and points the
+   *  handles at their new places.  The caller empties the slots left behind.
+   **/
+  private static void copy(Chunk source, int from, Chunk target, int to, int count) {
+    System.arraycopy(source.items, from, target.items, to, count);
+    if (source.handles == null) {
+      if (target.handles != null) {
+        Arrays.fill(target.handles, to, to + count, null);
+      }
+      return;
+    }
+    if (target.handles == null) {
+      target.handles = new Node<?>[target.items.length];
+    }
+    System.arraycopy(source.handles, from, target.handles, to, count);
+    for (int i = to; i < to + count; i++) {
+      if (target.handles[i] != null) {
+        target.handles[i].chunk = target;
+        target.handles[i].offset = i;
+      }
+    }
+  }
+
+  /**
+   *  empty() clears indices from...to-1 of chunk's items and handles.
+   **/
+  private static void empty(Chunk chunk, int from, int to) {
+    Arrays.fill(chunk.items, from, to, null);
+    if (chunk.handles != null) {
+      Arrays.fill(chunk.handles, from, to, null);
+    }
+  }
+
+  /**
+   *  handle() returns the handle on the item at index offset of chunk,
+   *  making it if there is none yet.
+   **/
+  @SuppressWarnings("unchecked")
+  private Node<T> handle(Chunk chunk, int offset) {
+    if (chunk.handles == null) {
+      chunk.handles = new Node<?>[chunk.items.length];
+    }
+    Node<T> handle = (Node<T>) chunk.handles[offset];
+    if (handle == null) {
+      handle = new Node<T>(this, chunk, offset);
+      chunk.handles[offset] = handle;
+    }
+    return handle;
+  }
+
+  /**
+   *  insert() inserts item at index offset of chunk, 0 <= offset <= count.
+   *  If chunk is the sentinel, the list must be empty.
+   *
+   *  Performance:  runs in O(chunkCapacity) time.
+   **/
+  private void insert(Chunk chunk, int offset, T item) {
+    if (chunk == head) {
+      chunk = linkAfter(head);
+      offset = 0;
+    } else if (chunk.count == chunkCapacity) {
+      if (offset == chunkCapacity) {
+        if (chunk.next != head && chunk.next.count < chunkCapacity) {
+          chunk = chunk.next;
+        } else {
+          chunk = linkAfter(chunk);
+        }
+        offset = 0;
+      } else if (offset == 0) {
+        if (chunk.prev != head && chunk.prev.count < chunkCapacity) {
+          chunk = chunk.prev;
+          offset = chunk.count;
+        } else {
+          chunk = linkAfter(chunk.prev);
+        }
+      } else {
+        Chunk second = linkAfter(chunk);
+        int half = chunkCapacity / 2;
+        copy(chunk, half, second, 0, chunkCapacity - half);
+        empty(chunk, half, chunkCapacity);
+        second.count = chunkCapacity - half;
+        chunk.count = half;
+        chunk.version++;
+        if (offset > half) {
+          chunk = second;
+          offset -= half;
+        }
+      }
+    }
+    copy(chunk, offset, chunk, offset + 1, chunk.count - offset);
+    empty(chunk, offset, offset + 1);
+    chunk.items[offset] = item;
+    chunk.count++;
+    chunk.version++;
+    size++;
+  }
+
+  /**
+   *  removeAt() removes the item at index offset of chunk, merging chunks
+   *  that have become small, and returns a detached Node (one that is not
+   *  on the list) holding the chunk and index of the item that followed it,
+   *  or null if it was the last.
+   *
+   *  Performance:  runs in O(chunkCapacity) time.
+   **/
+  private Node<T> removeAt(Chunk chunk, int offset) {
+    if (chunk.handles != null && chunk.handles[offset] != null) {
+      chunk.handles[offset].myList = null;
+    }
+    copy(chunk, offset + 1, chunk, offset, chunk.count - offset - 1);
+    chunk.count--;
+    empty(chunk, chunk.count, chunk.count + 1);
+    chunk.version++;
+    size--;
+    Chunk successor = chunk;
+    int successorOffset = offset;
+    if (offset == chunk.count) {
+      successor = chunk.next;
+      successorOffset = 0;
+    }
+    Chunk first = chunk.prev;
+    Chunk second = chunk;
+    if (chunk.count == 0) {
+      unlink(chunk);
+      second = chunk.next;
+    } else if (first == head || first.count + chunk.count > chunkCapacity / 2) {
+      first = chunk;
+      second = chunk.next;
+    }
+    if (first != head && second != head && first.count + second.count <= chunkCapacity / 2) {
+      if (successor == second) {
+        successor = first;
+        successorOffset += first.count;
+      }
+      copy(second, 0, first, first.count, second.count);
+      first.count += second.count;
+      first.version++;
+      second.version++;
+      unlink(second);
+    }
+    return successor == head ? null : new Node<T>(null, successor, successorOffset);
+  }
+
+  /**
+   *  insertFront() inserts an item at the front of this UnrolledList.
+   *
+   *  @param item is the item to be inserted.
+   *
+   *  Performance:  runs in O(chunkCapacity) time.
+   **/
+  public void insertFront(T item) {
+    insert(head.next, 0, item);
+  }
+
+  /**
+   *  insertBack() inserts an item at the back of this UnrolledList.
+   *
+   *  @param item is the item to be inserted.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public void insertBack(T item) {
+    insert(head.prev, head.prev.count, item);
+  }
+
+  /**
+   *  remove() removes the first item equal to item, if there is one.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public void remove(T item) {
+    for (Chunk chunk = head.next; chunk != head; chunk = chunk.next) {
+      for (int i = 0; i < chunk.count; i++) {
+        if (Objects.equals(chunk.items[i], item)) {
+          removeAt(chunk, i);
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   *  front() returns a handle on the front of this UnrolledList, or an
+   *  invalid handle if the list is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public ListNode<T> front() {
+    return head.next == head ? new Node<T>(null, null, 0) : handle(head.next, 0);
+  }
+
+  /**
+   *  back() returns a handle on the back of this UnrolledList, or an invalid
+   *  handle if the list is empty.
+   *
+   *  Performance:  runs in O(1) time.
+   **/
+  public ListNode<T> back() {
+    return head.prev == head ? new Node<T>(null, null, 0)
+                             : handle(head.prev, head.prev.count - 1);
+  }
+
+  /**
+   *  nth() returns the item at position, or null if there is none.
+   *
+   *  Performance:  runs in O(n / chunkCapacity) time if the chunks are
+   *  full, and in O(n) time in the worst case.
+   **/
+  @SuppressWarnings("unchecked")
+  public T nth(int position) {
+    if (position < 0 || position >= size) {
+      return null;
+    }
+    if (position < size / 2) {
+      Chunk chunk = head.next;
+      while (position >= chunk.count) {
+        position -= chunk.count;
+        chunk = chunk.next;
+      }
+      return (T) chunk.items[position];
+    }
+    position = size - 1 - position;
+    Chunk chunk = head.prev;
+    while (position >= chunk.count) {
+      position -= chunk.count;
+      chunk = chunk.prev;
+    }
+    return (T) chunk.items[chunk.count - 1 - position];
+  }
+
+  /**
+   *  toString() returns a String representation of this UnrolledList, in
+   *  the same form as DList's.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public String toString() {
+    StringBuilder result = new StringBuilder("[  ");
+    for (T item : this) {
+      result.append(item).append("  ");
+    }
+    return result.append("]").toString();
+  }
+
+  /**
+   *  contains() returns true if the list has an item equal to item.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public boolean contains(T item) {
+    for (Chunk chunk = head.next; chunk != head; chunk = chunk.next) {
+      for (int i = 0; i < chunk.count; i++) {
+        if (Objects.equals(chunk.items[i], item)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   *  clone() returns a new UnrolledList with the same item references, in
+   *  full chunks.
+   *
+   *  Performance:  runs in O(n) time, where n is the length of the list.
+   **/
+  public List<T> clone() {
+    UnrolledList<T> copy = new UnrolledList<T>(chunkCapacity);
+    for (T item : this) {
+      copy.insertBack(item);
+    }
+    return copy;
+  }
+
+  public ImmutableList<T> createImmutable() {
+    return new ImmutableList<T>(this);
+  }
+
+  /**
+   *  iterator() returns an Iterator over the items, front to back.  Its
+   *  remove() removes the last item returned; a change to the chunk it is
+   *  reading, made any other way, makes it throw
+   *  ConcurrentModificationException.
+   **/
+  public Iterator<T> iterator() {
+    return new Iterator<T>() {
+      private Chunk chunk = head.next;
+      private int offset;
+      private Object[] items = chunk.items;
+      private int count = chunk.count;
+      private int version = chunk.version;
+      private Chunk lastChunk;
+      private int lastOffset;
+      private int lastVersion;
+
+      public boolean hasNext() {
+        return chunk != head;
+      }
+
+      @SuppressWarnings("unchecked")
+      public T next() {
+        if (chunk == head) {
+          throw new NoSuchElementException();
+        }
+        if (chunk.version != version) {
+          throw new ConcurrentModificationException();
+        }
+        lastChunk = chunk;
+        lastOffset = offset;
+        lastVersion = version;
+        T item = (T) items[offset];
+        if (++offset == count) {
+          moveTo(chunk.next, 0);
+        }
+        return item;
+      }
+
+      public void remove() {
+        if (lastChunk == null) {
+          throw new IllegalStateException();
+        }
+        if (lastChunk.version != lastVersion) {
+          throw new ConcurrentModificationException();
+        }
+        Node<T> successor = removeAt(lastChunk, lastOffset);
+        lastChunk = null;
+        if (successor == null) {
+          moveTo(head, 0);
+        } else {
+          moveTo(successor.chunk, successor.offset);
+        }
+      }
+
+      /**
+       *  moveTo() points the iterator at index offset of chunk, caching the
+       *  chunk's array and count.
+       **/
+      private void moveTo(Chunk chunk, int offset) {
+        this.chunk = chunk;
+        this.offset = offset;
+        items = chunk.items;
+        count = chunk.count;
+        version = chunk.version;
+      }
+    };
+  }
+
+  /**
+   *  equals() returns true if item is a List of the same length whose items
+   *  are equal to this list's, in order.
+   **/
+  public boolean equals(Object item) {
+    if (!(item instanceof List)) {
+      return false;
+    }
+    List<?> other = (List<?>) item;
+    if (other.length() != size) {
+      return false;
+    }
+    Iterator<?> it = other.iterator();
+    for (T mine : this) {
+      if (!Objects.equals(mine, it.next())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int hashCode() {
+    int hash = 1;
+    for (T item : this) {
+      hash = 31 * hash + Objects.hashCode(item);
+    }
+    return hash;
+  }
+
+  /**
+   *  A Node is a handle on the item at index offset of chunk in an
+   *  UnrolledList.  It is valid while it belongs to a list (myList !=
+   *  null); the list updates chunk and offset whenever it moves the item,
+   *  and sets myList to null when it removes it.
+   **/
+  private static class Node<T> extends ListNode<T> {
+
+    private Chunk chunk;
+    private int offset;
+
+    Node(UnrolledList<T> list, Chunk chunk, int offset) {
+      myList = list;
+      this.chunk = chunk;
+      this.offset = offset;
+    }
+
+    /**
+     *  list() returns the list this handle is on, or throws an exception
+     *  naming the operation if the handle is invalid.
+     **/
+    private UnrolledList<T> list(String operation) throws InvalidNodeException {
+      if (!isValidNode()) {
+        throw new InvalidNodeException(operation + " called on invalid node");
+      }
+      return (UnrolledList<T>) myList;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T item() throws InvalidNodeException {
+      list("item()");
+      return (T) chunk.items[offset];
+    }
+
+    public void setItem(T item) throws InvalidNodeException {
+      list("setItem()");
+      chunk.items[offset] = item;
+    }
+
+    public ListNode<T> next() throws InvalidNodeException {
+      UnrolledList<T> list = list("next()");
+      if (offset + 1 < chunk.count) {
+        return list.handle(chunk, offset + 1);
+      }
+      return chunk.next == list.head ? new Node<T>(null, null, 0) : list.handle(chunk.next, 0);
+    }
+
+    public ListNode<T> prev() throws InvalidNodeException {
+      UnrolledList<T> list = list("prev()");
+      if (offset > 0) {
+        return list.handle(chunk, offset - 1);
+      }
+      return chunk.prev == list.head ? new Node<T>(null, null, 0)
+                                     : list.handle(chunk.prev, chunk.prev.count - 1);
+    }
+
+    public void insertAfter(T item) throws InvalidNodeException {
+      list("insertAfter()").insert(chunk, offset + 1, item);
+    }
+
+    public void insertBefore(T item) throws InvalidNodeException {
+      list("insertBefore()").insert(chunk, offset, item);
+    }
+
+    public void remove() throws InvalidNodeException {
+      list("remove()").removeAt(chunk, offset);
+    }
+
+  }
+
+}